@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.RequestBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building events, including argument validation and freezing the details map, and
+ * attaching an API key to an event for sending.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuilderBenchmark {
+  private final Map<String, String> details = new LinkedHashMap<>();
+  private Trigger trigger;
+
+  @Setup public void setUp() {
+    for (int i = 0; i < 10; i++) {
+      details.put("detail " + i, "value " + i);
+    }
+    trigger = new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com")
+        .withIncidentKey("srv01/HTTP")
+        .addDetails(details)
+        .build();
+  }
+
+  @Benchmark public Trigger triggerMinimal() {
+    return new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com").build();
+  }
+
+  @Benchmark public Trigger triggerFull() {
+    return new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com")
+        .withIncidentKey("srv01/HTTP")
+        .client("Sample Monitoring Service")
+        .clientUrl("https://monitoring.service.com")
+        .addDetails("ping time", "1500ms")
+        .addDetails("load avg", "0.75")
+        .build();
+  }
+
+  @Benchmark public Trigger triggerWithDetailsMap() {
+    return new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com")
+        .withIncidentKey("srv01/HTTP")
+        .addDetails(details)
+        .build();
+  }
+
+  @Benchmark public Resolution resolutionMinimal() {
+    return new Resolution.Builder("srv01/HTTP").build();
+  }
+
+  @Benchmark public Resolution resolutionWithDetailsMap() {
+    return new Resolution.Builder("srv01/HTTP")
+        .withDescription("Recovered")
+        .addDetails(details)
+        .build();
+  }
+
+  @Benchmark public RequestBody attachApiKey() {
+    return new PagerDutyConverterFactory.EventRequestBody("e93facc04764012d7bfb002500d5d1a6",
+        trigger);
+  }
+}
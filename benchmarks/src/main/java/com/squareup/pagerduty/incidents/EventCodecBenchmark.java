@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import retrofit2.Converter;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Compares the hand-written {@link PagerDutyConverterFactory} with Retrofit's Gson converter for
+ * encoding request bodies and decoding responses, exactly as Retrofit invokes them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventCodecBenchmark {
+  private static final String RESPONSE_JSON = ""
+      + "{\"status\":\"success\",\"message\":\"Event processed\",\"incident_key\":\"srv01/HTTP\"}";
+
+  private static final String API_KEY = "e93facc04764012d7bfb002500d5d1a6";
+
+  private Event event;
+  private Trigger trigger;
+  private Trigger templateTrigger;
+  private Converter<Event, RequestBody> gsonRequestConverter;
+  private Converter<ResponseBody, NotifyResult> gsonResponseConverter;
+  private Converter<Event, RequestBody> streamingRequestConverter;
+  private Converter<ResponseBody, NotifyResult> streamingResponseConverter;
+  private final Buffer sink = new Buffer();
+
+  @SuppressWarnings("unchecked") // Both factories are known to handle these types.
+  @Setup public void setUp() {
+    Trigger.Builder builder =
+        new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com")
+            .withIncidentKey("srv01/HTTP")
+            .client("Sample Monitoring Service")
+            .clientUrl("https://monitoring.service.com")
+            .addDetails("ping time", "1500ms")
+            .addDetails("load avg", "0.75")
+            .addDetails("region", "us-west-2");
+    trigger = builder.build();
+    templateTrigger = builder.buildTemplate()
+        .trigger("FAILURE for production/HTTP on machine srv01.acme.com", "srv01/HTTP");
+    event = new Event(API_KEY, trigger.incident_key,
+        trigger.event_type, trigger.description, trigger.client, trigger.client_url,
+        trigger.details);
+
+    Annotation[] none = new Annotation[0];
+    GsonConverterFactory gson = GsonConverterFactory.create();
+    gsonRequestConverter = (Converter<Event, RequestBody>)
+        gson.requestBodyConverter(Event.class, none, none, null);
+    gsonResponseConverter = (Converter<ResponseBody, NotifyResult>)
+        gson.responseBodyConverter(NotifyResult.class, none, null);
+    PagerDutyConverterFactory streaming = PagerDutyConverterFactory.create();
+    streamingRequestConverter = (Converter<Event, RequestBody>)
+        streaming.requestBodyConverter(Event.class, none, none, null);
+    streamingResponseConverter = (Converter<ResponseBody, NotifyResult>)
+        streaming.responseBodyConverter(NotifyResult.class, none, null);
+  }
+
+  @Benchmark public long encodeGson() throws IOException {
+    return encode(gsonRequestConverter);
+  }
+
+  @Benchmark public long encodeStreaming() throws IOException {
+    return encode(streamingRequestConverter);
+  }
+
+  /** Encodes a trigger with an API key attached, as {@link PagerDuty#create} sends it. */
+  @Benchmark public long encodeWithApiKey() throws IOException {
+    return encode(new PagerDutyConverterFactory.EventRequestBody(API_KEY, trigger));
+  }
+
+  /** Like {@link #encodeWithApiKey} for the same trigger created from a template. */
+  @Benchmark public long encodeTemplateWithApiKey() throws IOException {
+    return encode(new PagerDutyConverterFactory.EventRequestBody(API_KEY, templateTrigger));
+  }
+
+  @Benchmark public NotifyResult decodeGson() throws IOException {
+    return gsonResponseConverter.convert(
+        ResponseBody.create(PagerDutyConverterFactory.MEDIA_TYPE, RESPONSE_JSON));
+  }
+
+  @Benchmark public NotifyResult decodeStreaming() throws IOException {
+    return streamingResponseConverter.convert(
+        ResponseBody.create(PagerDutyConverterFactory.MEDIA_TYPE, RESPONSE_JSON));
+  }
+
+  private long encode(Converter<Event, RequestBody> converter) throws IOException {
+    return encode(converter.convert(event));
+  }
+
+  private long encode(RequestBody body) throws IOException {
+    long contentLength = body.contentLength();
+    body.writeTo(sink);
+    long size = sink.size();
+    sink.clear();
+    return size + contentLength;
+  }
+}
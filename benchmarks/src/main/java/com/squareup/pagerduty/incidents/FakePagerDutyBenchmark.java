@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FakePagerDuty} throughput when many threads trigger and resolve incidents
+ * concurrently. Each thread cycles through its own incident keys so that contention comes from
+ * the fake's bookkeeping rather than from the keys themselves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FakePagerDutyBenchmark {
+  private static final int KEYS_PER_THREAD = 64;
+
+  @State(Scope.Benchmark)
+  public static class Shared {
+    final FakePagerDuty pagerDuty = new FakePagerDuty();
+  }
+
+  @State(Scope.Thread)
+  public static class PerThread {
+    private static int nextThread;
+
+    Trigger[] triggers;
+    Resolution[] resolutions;
+    int index;
+
+    @Setup public void setUp() {
+      int thread;
+      synchronized (PerThread.class) {
+        thread = nextThread++;
+      }
+      triggers = new Trigger[KEYS_PER_THREAD];
+      resolutions = new Resolution[KEYS_PER_THREAD];
+      for (int i = 0; i < KEYS_PER_THREAD; i++) {
+        String key = "thread-" + thread + "-incident-" + i;
+        triggers[i] = new Trigger.Builder("Incident " + i).withIncidentKey(key).build();
+        resolutions[i] = new Resolution.Builder(key).build();
+      }
+    }
+
+    NotifyResult notifyNext(FakePagerDuty pagerDuty) {
+      int i = index++ & (2 * KEYS_PER_THREAD - 1);
+      return i < KEYS_PER_THREAD
+          ? pagerDuty.notify(triggers[i])
+          : pagerDuty.notify(resolutions[i - KEYS_PER_THREAD]);
+    }
+  }
+
+  @Benchmark @Threads(1)
+  public NotifyResult notify1Thread(Shared shared, PerThread perThread) {
+    return perThread.notifyNext(shared.pagerDuty);
+  }
+
+  @Benchmark @Threads(4)
+  public NotifyResult notify4Threads(Shared shared, PerThread perThread) {
+    return perThread.notifyNext(shared.pagerDuty);
+  }
+
+  @Benchmark @Threads(16)
+  public NotifyResult notify16Threads(Shared shared, PerThread perThread) {
+    return perThread.notifyNext(shared.pagerDuty);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import retrofit2.Retrofit;
+
+/**
+ * Measures the full HTTP client path, from {@link PagerDuty#notify(Trigger)} through Retrofit and
+ * OkHttp, against a {@link FakePagerDutyServer} on localhost. Sample mode reports percentiles so
+ * that tail latency is visible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpPagerDutyBenchmark {
+  private FakePagerDutyServer server;
+  private PagerDuty pagerDuty;
+  private Trigger trigger;
+
+  @Setup public void setUp() throws IOException {
+    server = new FakePagerDutyServer.Builder().start();
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(64);
+    OkHttpClient client = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+    Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl(server.url())
+        .client(client)
+        .addConverterFactory(PagerDutyConverterFactory.create())
+        .build();
+    pagerDuty = PagerDuty.create("e93facc04764012d7bfb002500d5d1a6", retrofit);
+    trigger = new Trigger.Builder("FAILURE for production/HTTP on machine srv01.acme.com")
+        .withIncidentKey("srv01/HTTP")
+        .addDetails("ping time", "1500ms")
+        .build();
+  }
+
+  @TearDown public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Benchmark @Threads(1)
+  public NotifyResult notify1Thread() throws IOException {
+    return pagerDuty.notify(trigger);
+  }
+
+  @Benchmark @Threads(8)
+  public NotifyResult notify8Threads() throws IOException {
+    return pagerDuty.notify(trigger);
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Rolls triggers for many distinct incidents into one summary incident during an alert storm.
+ * Use {@link PagerDuty#aggregating} to create instances.
+ * <p>
+ * While more distinct incident keys than the configured threshold have been triggered within the
+ * sliding window, triggers for new keys are not sent. Instead one summary trigger lists them in
+ * its details and is re-sent as more arrive. Triggers for keys which were sent individually
+ * within the window are still sent, as are triggers without an incident key.
+ * <p>
+ * Resolutions for aggregated keys are answered locally. Once every aggregated key has been
+ * resolved, the summary incident is resolved.
+ */
+public final class AggregatingPagerDuty extends PagerDuty {
+  static final String MESSAGE_AGGREGATED = "Aggregated into summary incident";
+  static final String MESSAGE_RESOLVED = "Resolved within summary incident";
+  static final String DETAIL_COUNT = "incident_count";
+  static final String DETAIL_KEYS = "incident_keys";
+  static final String DETAIL_OMITTED = "incident_keys_omitted";
+
+  private final PagerDuty delegate;
+  private final AggregationConfig config;
+
+  // Guarded by this.
+  /** Keys triggered within the window, least recently triggered first. */
+  private final LinkedHashMap<String, Recent> recent = new LinkedHashMap<>();
+  private Summary summary;
+  private long aggregatedCount;
+
+  AggregatingPagerDuty(PagerDuty delegate, AggregationConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    Trigger send = onTrigger(trigger, System.nanoTime());
+    if (send == null) {
+      return aggregated();
+    }
+    if (send == trigger) {
+      return delegate.notify(trigger);
+    }
+    NotifyResult result;
+    try {
+      result = delegate.notify(send);
+    } catch (IOException e) {
+      onSummaryFailed();
+      throw e;
+    }
+    onSummaryResult(result);
+    return result;
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    Resolution send = onResolution(resolution);
+    return send != null ? delegate.notify(send) : resolved(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    Trigger send = onTrigger(trigger, System.nanoTime());
+    if (send == null) {
+      callback.onResult(aggregated());
+    } else if (send == trigger) {
+      delegate.notifyAsync(trigger, callback);
+    } else {
+      delegate.notifyAsync(send, new NotifyCallback() {
+        @Override public void onResult(NotifyResult result) {
+          onSummaryResult(result);
+          callback.onResult(result);
+        }
+
+        @Override public void onFailure(Throwable t) {
+          onSummaryFailed();
+          callback.onFailure(t);
+        }
+      });
+    }
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    Resolution send = onResolution(resolution);
+    if (send != null) {
+      delegate.notifyAsync(send, callback);
+    } else {
+      callback.onResult(resolved(resolution));
+    }
+  }
+
+  /** The number of triggers answered locally because they were rolled into a summary. */
+  public synchronized long aggregatedCount() {
+    return aggregatedCount;
+  }
+
+  /** The number of aggregated incident keys which haven't been resolved yet. */
+  public synchronized int aggregatedKeyCount() {
+    return summary != null ? summary.keys.size() : 0;
+  }
+
+  /**
+   * Records {@code trigger} and returns what to send for it: the trigger itself, a summary
+   * trigger, or null if it was aggregated and nothing needs to be sent now.
+   */
+  private synchronized Trigger onTrigger(Trigger trigger, long now) {
+    String key = trigger.incident_key;
+    if (key == null || key.equals(config.summaryKey)) {
+      return trigger;
+    }
+    evict(now);
+    Recent previous = recent.remove(key);
+    boolean storming = previous == null && recent.size() >= config.threshold;
+    if ((previous != null && previous.sent) || !storming && !isAggregated(key)) {
+      recent.put(key, new Recent(now, true));
+      return trigger;
+    }
+
+    recent.put(key, new Recent(now, false));
+    aggregatedCount++;
+    if (summary == null) {
+      summary = new Summary();
+    }
+    if (!summary.keys.add(key)) {
+      return null; // Already listed in the summary.
+    }
+    summary.total++;
+    long sinceSent = now - summary.sentAtNanos;
+    if (!summary.sent || sinceSent >= config.updateIntervalNanos) {
+      return summaryTrigger(now);
+    }
+    scheduleUpdate(config.updateIntervalNanos - sinceSent);
+    return null;
+  }
+
+  /**
+   * Records {@code resolution} and returns what to send for it: the resolution itself, the
+   * summary's resolution, or null if it was answered locally.
+   */
+  private synchronized Resolution onResolution(Resolution resolution) {
+    String key = resolution.incident_key;
+    if (!isAggregated(key)) {
+      return resolution;
+    }
+    summary.keys.remove(key);
+    recent.remove(key);
+    if (!summary.keys.isEmpty()) {
+      return null;
+    }
+    summary = null;
+    return new Resolution.Builder(config.summaryKey)
+        .withDescription("All aggregated incidents resolved")
+        .build();
+  }
+
+  private boolean isAggregated(String key) {
+    return summary != null && summary.keys.contains(key);
+  }
+
+  /** Forgets keys last triggered before the window. */
+  private void evict(long now) {
+    Iterator<Recent> iterator = recent.values().iterator();
+    while (iterator.hasNext()) {
+      if (now - iterator.next().triggeredAtNanos < config.windowNanos) {
+        return;
+      }
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Returns a summary trigger listing as many aggregated keys as fit, most recent last, and
+   * records that it is being sent.
+   */
+  private Trigger summaryTrigger(long now) {
+    summary.sent = true;
+    summary.sentAtNanos = now;
+    List<String> keys = new ArrayList<>(summary.keys);
+    Trigger trigger = summaryTrigger(keys, keys.size());
+    if (EventJson.byteCount(delegate.serviceKey(), trigger) <= config.maxSummaryBytes) {
+      return trigger;
+    }
+    // Binary search for the most keys which fit. Keys aggregated first are dropped first.
+    int low = 0;
+    int high = keys.size();
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (EventJson.byteCount(delegate.serviceKey(), summaryTrigger(keys, mid))
+          <= config.maxSummaryBytes) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return summaryTrigger(keys, low);
+  }
+
+  private Trigger summaryTrigger(List<String> keys, int count) {
+    StringBuilder keyList = new StringBuilder();
+    for (int i = keys.size() - count; i < keys.size(); i++) {
+      if (keyList.length() > 0) {
+        keyList.append('\n');
+      }
+      keyList.append(keys.get(i));
+    }
+    Map<String, String> details = new LinkedHashMap<>();
+    details.put(DETAIL_COUNT, Long.toString(summary.total));
+    details.put(DETAIL_KEYS, keyList.toString());
+    if (count < keys.size()) {
+      details.put(DETAIL_OMITTED, Integer.toString(keys.size() - count));
+    }
+    return new Trigger.Builder(summaryDescription(config.summaryDescription, summary.total))
+        .withIncidentKey(config.summaryKey)
+        .addDetails(details)
+        .build();
+  }
+
+  static String summaryDescription(String prefix, long total) {
+    return prefix + ": " + total + (total == 1 ? " incident" : " incidents");
+  }
+
+  /** Re-sends the summary after {@code delayNanos} unless an update is already scheduled. */
+  private void scheduleUpdate(long delayNanos) {
+    if (summary.updateScheduled) {
+      return;
+    }
+    summary.updateScheduled = true;
+    final Summary scheduled = summary;
+    SharedScheduler.INSTANCE.schedule(new Runnable() {
+      @Override public void run() {
+        sendUpdate(scheduled);
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void sendUpdate(Summary scheduled) {
+    Trigger update;
+    synchronized (this) {
+      scheduled.updateScheduled = false;
+      if (summary != scheduled) {
+        return; // Resolved since.
+      }
+      update = summaryTrigger(System.nanoTime());
+    }
+    delegate.notifyAsync(update, new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        onSummaryResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        onSummaryFailed();
+      }
+    });
+  }
+
+  private void onSummaryResult(NotifyResult result) {
+    if (result == null || result.code != 0 || !"success".equals(result.status())) {
+      onSummaryFailed();
+    }
+  }
+
+  /** Tries the summary again after the update interval so that the key list isn't lost. */
+  private synchronized void onSummaryFailed() {
+    if (summary != null) {
+      scheduleUpdate(config.updateIntervalNanos);
+    }
+  }
+
+  private NotifyResult aggregated() {
+    return new NotifyResult("success", MESSAGE_AGGREGATED, config.summaryKey);
+  }
+
+  private static NotifyResult resolved(Resolution resolution) {
+    return new NotifyResult("success", MESSAGE_RESOLVED, resolution.incident_key);
+  }
+
+  private static final class Recent {
+    final long triggeredAtNanos;
+    /** True if the trigger was sent on its own rather than aggregated. */
+    final boolean sent;
+
+    Recent(long triggeredAtNanos, boolean sent) {
+      this.triggeredAtNanos = triggeredAtNanos;
+      this.sent = sent;
+    }
+  }
+
+  private static final class Summary {
+    /** Unresolved aggregated keys, in the order they were first aggregated. */
+    final Set<String> keys = new LinkedHashSet<>();
+    long total;
+    boolean sent;
+    long sentAtNanos;
+    boolean updateScheduled;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
+
+/** Alert-storm detection and summary settings for an {@link AggregatingPagerDuty}. */
+public final class AggregationConfig {
+  final int threshold;
+  final long windowNanos;
+  final String summaryKey;
+  final String summaryDescription;
+  final long updateIntervalNanos;
+  final int maxSummaryBytes;
+
+  private AggregationConfig(Builder builder) {
+    this.threshold = builder.threshold;
+    this.windowNanos = builder.windowNanos;
+    this.summaryKey = builder.summaryKey;
+    this.summaryDescription = builder.summaryDescription;
+    this.updateIntervalNanos = builder.updateIntervalNanos;
+    this.maxSummaryBytes = builder.maxSummaryBytes;
+  }
+
+  /**
+   * Fluent interface for building aggregation settings.
+   * <p>
+   * Only the threshold and window are required. By default the summary incident's key is
+   * {@code "alert-storm"}, it is updated at most every 30 seconds, and it is kept within
+   * PagerDuty's 512 KiB event size limit.
+   */
+  public static final class Builder {
+    private static final String DEFAULT_SUMMARY_KEY = "alert-storm";
+    private static final String DEFAULT_SUMMARY_DESCRIPTION = "Alert storm";
+    private static final long DEFAULT_UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int DEFAULT_MAX_SUMMARY_BYTES = 512 * 1024;
+    private static final int MIN_SUMMARY_BYTES = 1024;
+
+    private final int threshold;
+    private final long windowNanos;
+    private String summaryKey = DEFAULT_SUMMARY_KEY;
+    private String summaryDescription = DEFAULT_SUMMARY_DESCRIPTION;
+    private long updateIntervalNanos = DEFAULT_UPDATE_INTERVAL_NANOS;
+    private int maxSummaryBytes = DEFAULT_MAX_SUMMARY_BYTES;
+
+    /**
+     * Build settings which aggregate triggers while more than {@code threshold} distinct incident
+     * keys have been triggered within the last {@code window}.
+     */
+    public Builder(int threshold, long window, TimeUnit unit) {
+      checkArgument(threshold > 0, "'threshold' must be positive. Was: " + threshold);
+      checkNotNull(unit, "unit");
+      checkArgument(window > 0, "'window' must be positive. Was: " + window);
+      this.threshold = threshold;
+      this.windowNanos = unit.toNanos(window);
+    }
+
+    /** The incident key of the summary incident. */
+    public Builder summaryKey(String summaryKey) {
+      this.summaryKey = checkStringArgument(summaryKey, "summaryKey");
+      return this;
+    }
+
+    /**
+     * The start of the summary incident's description, which is followed by its count. It must
+     * leave room for the count within PagerDuty's 1024 character limit.
+     */
+    public Builder summaryDescription(String summaryDescription) {
+      checkStringArgument(summaryDescription, "summaryDescription");
+      int longest =
+          AggregatingPagerDuty.summaryDescription(summaryDescription, Long.MAX_VALUE).length();
+      checkArgument(longest <= Trigger.MAX_DESCRIPTION_LENGTH,
+          "'summaryDescription' length must be "
+              + (Trigger.MAX_DESCRIPTION_LENGTH - (longest - summaryDescription.length()))
+              + " or less. Was: "
+              + summaryDescription.length());
+      this.summaryDescription = summaryDescription;
+      return this;
+    }
+
+    /**
+     * The least time between summary triggers. The summary is sent when a storm starts and then
+     * re-sent with an updated key list at most this often while triggers are aggregated.
+     */
+    public Builder updateInterval(long interval, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(interval > 0, "'interval' must be positive. Was: " + interval);
+      this.updateIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * The largest encoded summary trigger. Incident keys which don't fit are left out of its
+     * details and only counted.
+     */
+    public Builder maxSummaryBytes(int maxSummaryBytes) {
+      checkArgument(maxSummaryBytes >= MIN_SUMMARY_BYTES,
+          "'maxSummaryBytes' must be at least " + MIN_SUMMARY_BYTES + ". Was: " + maxSummaryBytes);
+      this.maxSummaryBytes = maxSummaryBytes;
+      return this;
+    }
+
+    public AggregationConfig build() {
+      return new AggregationConfig(this);
+    }
+  }
+}
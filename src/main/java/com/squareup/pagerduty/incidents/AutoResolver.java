@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+
+/**
+ * Sends a resolution for each incident that hasn't been triggered again within its quiet period,
+ * as requested with {@link Trigger.Builder#autoResolveAfter}. One instance serves every API key
+ * of a transport.
+ * <p>
+ * Deadlines are kept in a hashed timing wheel: a ring of buckets each covering one tick, with
+ * every pending incident linked into the bucket of the tick its deadline falls in. Scheduling,
+ * rescheduling, and cancelling are constant time regardless of how many incidents are pending.
+ * A deadline pushed later by a re-trigger is only recorded; the incident moves to its new bucket
+ * when the old one comes due. Each tick collects every incident whose deadline has passed and
+ * sends their resolutions as one batch with a bounded number in flight.
+ * <p>
+ * The wheel only runs while incidents are pending.
+ */
+final class AutoResolver {
+  static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final int WHEEL_SIZE = 512;
+  /** The most resolutions of one batch in flight at once. */
+  static final int MAX_BATCH_IN_FLIGHT = 8;
+  /** How long to wait before resending a resolution which PagerDuty failed or throttled. */
+  static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+  static final String DESCRIPTION = "Resolved automatically after a quiet period.";
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private final EventTransport transport;
+  private final long tickNanos;
+  private final long startNanos;
+  /** Sentinel heads of circular doubly-linked lists. Guarded by this. */
+  private final Entry[] wheel;
+  private final Map<Key, Entry> entries = new HashMap<>(); // Guarded by this.
+  private long processedTick; // Guarded by this.
+  private ScheduledFuture<?> ticker; // Guarded by this.
+
+  AutoResolver(EventTransport transport, long tickNanos, int wheelSize) {
+    checkArgument(Integer.bitCount(wheelSize) == 1,
+        "'wheelSize' must be a power of two. Was: " + wheelSize);
+    this.transport = transport;
+    this.tickNanos = tickNanos;
+    this.startNanos = System.nanoTime();
+    this.wheel = new Entry[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      Entry head = new Entry(null);
+      head.previous = head;
+      head.next = head;
+      wheel[i] = head;
+    }
+  }
+
+  /**
+   * Resolve the incident {@code incidentKey} of {@code serviceKey} once {@code delayNanos} have
+   * passed, replacing any deadline it already has.
+   */
+  synchronized void schedule(String serviceKey, String incidentKey, long delayNanos) {
+    Key key = new Key(serviceKey, incidentKey);
+    long deadlineNanos = System.nanoTime() + delayNanos;
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key);
+      entries.put(key, entry);
+      entry.deadlineNanos = deadlineNanos;
+      start();
+      link(entry, processedTick + 1);
+    } else {
+      entry.deadlineNanos = deadlineNanos;
+      if (tickOf(deadlineNanos) < entry.bucketTick) {
+        unlink(entry); // Sooner than its bucket; move it now rather than when the bucket is due.
+        link(entry, processedTick + 1);
+      }
+    }
+  }
+
+  /** Forget the deadline of {@code incidentKey}, which has been resolved or re-triggered. */
+  synchronized void cancel(String serviceKey, String incidentKey) {
+    Entry entry = entries.remove(new Key(serviceKey, incidentKey));
+    if (entry != null) {
+      unlink(entry);
+      stopIfIdle();
+    }
+  }
+
+  synchronized int pendingCount() {
+    return entries.size();
+  }
+
+  private void start() {
+    if (ticker != null) {
+      return;
+    }
+    // Ticks which passed while idle had nothing to expire.
+    processedTick = (System.nanoTime() - startNanos) / tickNanos;
+    ticker = SharedScheduler.INSTANCE.scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        tick();
+      }
+    }, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void stopIfIdle() {
+    if (entries.isEmpty() && ticker != null) {
+      ticker.cancel(false);
+      ticker = null;
+    }
+  }
+
+  /** The first tick at or after {@code nanos}. */
+  private long tickOf(long nanos) {
+    long elapsed = nanos - startNanos;
+    return (elapsed + tickNanos - 1) / tickNanos;
+  }
+
+  /** Links {@code entry} into the bucket of its deadline, or of {@code minTick} if later. */
+  private void link(Entry entry, long minTick) {
+    long tick = Math.max(tickOf(entry.deadlineNanos), minTick);
+    entry.bucketTick = tick;
+    Entry head = wheel[(int) (tick & (wheel.length - 1))];
+    entry.previous = head.previous;
+    entry.next = head;
+    head.previous.next = entry;
+    head.previous = entry;
+  }
+
+  private static void unlink(Entry entry) {
+    entry.previous.next = entry.next;
+    entry.next.previous = entry.previous;
+    entry.previous = null;
+    entry.next = null;
+  }
+
+  void tick() {
+    List<Key> expired = new ArrayList<>();
+    synchronized (this) {
+      long now = System.nanoTime();
+      long currentTick = (now - startNanos) / tickNanos;
+      for (; processedTick < currentTick; processedTick++) {
+        long tick = processedTick + 1;
+        Entry head = wheel[(int) (tick & (wheel.length - 1))];
+        Entry entry = head.next;
+        while (entry != head) {
+          Entry next = entry.next;
+          if (entry.bucketTick == tick) { // Otherwise due in a later turn of the wheel.
+            unlink(entry);
+            if (entry.deadlineNanos - now <= 0L) {
+              entries.remove(entry.key);
+              expired.add(entry.key);
+            } else {
+              link(entry, tick + 1); // Re-triggered since it was linked here.
+            }
+          }
+          entry = next;
+        }
+      }
+      stopIfIdle();
+    }
+    if (!expired.isEmpty()) {
+      new Batch(expired).start();
+    }
+  }
+
+  /** Retries a resolution unless its incident was triggered again in the meantime. */
+  private synchronized void retry(Key key) {
+    if (!entries.containsKey(key)) {
+      schedule(key.serviceKey, key.incidentKey, RETRY_NANOS);
+    }
+  }
+
+  /** Resolutions which came due on the same tick, sent a few at a time. */
+  private final class Batch {
+    private final Queue<Key> remaining;
+
+    Batch(List<Key> keys) {
+      this.remaining = new ArrayDeque<>(keys);
+    }
+
+    void start() {
+      for (int i = 0; i < MAX_BATCH_IN_FLIGHT; i++) {
+        sendNext();
+      }
+    }
+
+    private void sendNext() {
+      final Key key;
+      synchronized (this) {
+        key = remaining.poll();
+      }
+      if (key == null) {
+        return;
+      }
+      Resolution resolution = new Resolution.Builder(key.incidentKey)
+          .withDescription(DESCRIPTION)
+          .build();
+      transport.sendAsync(key.serviceKey, resolution, new NotifyCallback() {
+        @Override public void onResult(NotifyResult result) {
+          if (result != null && result.code == HTTP_TOO_MANY_REQUESTS
+              || CircuitBreakerPagerDuty.isFailure(result, null)) {
+            retry(key);
+          }
+          sendNext();
+        }
+
+        @Override public void onFailure(Throwable t) {
+          retry(key);
+          sendNext();
+        }
+      });
+    }
+  }
+
+  private static final class Key {
+    private static final int HASH_MULTIPLIER = 31;
+
+    final String serviceKey;
+    final String incidentKey;
+
+    Key(String serviceKey, String incidentKey) {
+      this.serviceKey = serviceKey;
+      this.incidentKey = incidentKey;
+    }
+
+    @Override public boolean equals(Object o) {
+      return o instanceof Key
+          && ((Key) o).incidentKey.equals(incidentKey)
+          && ((Key) o).serviceKey.equals(serviceKey);
+    }
+
+    @Override public int hashCode() {
+      return serviceKey.hashCode() * HASH_MULTIPLIER + incidentKey.hashCode();
+    }
+  }
+
+  private static final class Entry {
+    final Key key;
+    long deadlineNanos;
+    /** The tick whose bucket this is linked into. */
+    long bucketTick;
+    Entry previous;
+    Entry next;
+
+    Entry(Key key) {
+      this.key = key;
+    }
+  }
+}
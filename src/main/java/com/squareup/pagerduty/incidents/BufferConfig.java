@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Queue and worker settings for a {@link BufferedPagerDuty}. */
+public final class BufferConfig {
+  final int capacity;
+  final int workers;
+  final OverflowPolicy overflowPolicy;
+  final ThreadFactory threadFactory;
+  final NotifyListener listener;
+  final PriorityRouter router;
+  /** Dequeue weights indexed by {@link Priority#ordinal()}. */
+  final int[] weights;
+  final int shedThreshold;
+  final boolean coalesce;
+
+  private BufferConfig(Builder builder) {
+    this.capacity = builder.capacity;
+    this.workers = builder.workers;
+    this.overflowPolicy = builder.overflowPolicy;
+    this.threadFactory = builder.threadFactory != null
+        ? builder.threadFactory
+        : new DaemonThreadFactory();
+    this.listener = builder.listener;
+    this.router = builder.router;
+    this.weights = builder.weights.clone();
+    this.shedThreshold = builder.shedThreshold;
+    this.coalesce = builder.coalesce;
+  }
+
+  /** A copy of {@code config} with {@code workers} workers. */
+  private BufferConfig(BufferConfig config, int workers) {
+    this.capacity = config.capacity;
+    this.workers = workers;
+    this.overflowPolicy = config.overflowPolicy;
+    this.threadFactory = config.threadFactory;
+    this.listener = config.listener;
+    this.router = config.router;
+    this.weights = config.weights;
+    this.shedThreshold = config.shedThreshold;
+    this.coalesce = config.coalesce;
+  }
+
+  BufferConfig withWorkers(int workers) {
+    return new BufferConfig(this, workers);
+  }
+
+  /**
+   * Fluent interface for building buffer settings.
+   * <p>
+   * All settings are optional. By default the queue holds 1024 events, a single worker drains it,
+   * and callers {@linkplain OverflowPolicy#BLOCK block} when it is full. Events are queued in one
+   * lane per {@link Priority}, and while all lanes are backlogged workers take 8 high-priority
+   * events for every 2 normal-priority events and 1 low-priority event. Nothing is shed or
+   * coalesced.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int[] DEFAULT_WEIGHTS = {8, 2, 1};
+
+    private int capacity = DEFAULT_CAPACITY;
+    private int workers = 1;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private ThreadFactory threadFactory;
+    private NotifyListener listener = NotifyListener.NONE;
+    private PriorityRouter router = PriorityRouter.DEFAULT;
+    private final int[] weights = DEFAULT_WEIGHTS.clone();
+    private int shedThreshold;
+    private boolean coalesce;
+
+    /** The maximum number of events waiting to be sent. */
+    public Builder capacity(int capacity) {
+      checkArgument(capacity > 0, "'capacity' must be positive. Was: " + capacity);
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * The number of threads sending queued events. With more than one worker, events may reach
+     * PagerDuty in a different order than they were queued, unless they are
+     * {@linkplain PagerDuty#partitioned partitioned} by incident key.
+     */
+    public Builder workers(int workers) {
+      checkArgument(workers > 0, "'workers' must be positive. Was: " + workers);
+      this.workers = workers;
+      return this;
+    }
+
+    /** What to do with a new event when the queue is full. */
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = checkNotNull(overflowPolicy, "overflowPolicy");
+      return this;
+    }
+
+    /** Creates the worker threads. Defaults to named daemon threads. */
+    public Builder threadFactory(ThreadFactory threadFactory) {
+      this.threadFactory = checkNotNull(threadFactory, "threadFactory");
+      return this;
+    }
+
+    /** Told about each event added to the queue. */
+    public Builder listener(NotifyListener listener) {
+      this.listener = checkNotNull(listener, "listener");
+      return this;
+    }
+
+    /** Chooses the priority of events which weren't built with one. */
+    public Builder priorityRouter(PriorityRouter router) {
+      this.router = checkNotNull(router, "router");
+      return this;
+    }
+
+    /**
+     * The share of dequeues given to {@code priority}'s lane while other lanes also have events
+     * waiting. A lane with weight 4 is served twice as often as one with weight 2, so lower
+     * priorities are slowed rather than starved by a backlog of higher ones.
+     */
+    public Builder weight(Priority priority, int weight) {
+      checkNotNull(priority, "priority");
+      checkArgument(weight > 0, "'weight' must be positive. Was: " + weight);
+      this.weights[priority.ordinal()] = weight;
+      return this;
+    }
+
+    /**
+     * Shed {@link Priority#LOW} events once {@code backlog} events are queued: new ones are
+     * discarded, and when the queue is full the oldest queued one is discarded to make room for a
+     * more urgent event regardless of the {@linkplain #overflowPolicy overflow policy}. Use 0 to
+     * disable.
+     */
+    public Builder shedLowPriorityAbove(int backlog) {
+      checkArgument(backlog >= 0, "'backlog' must not be negative. Was: " + backlog);
+      this.shedThreshold = backlog;
+      return this;
+    }
+
+    /**
+     * Merge each new event with the events still queued for its incident key, so that a backlog
+     * drains in fewer requests. Queued triggers for a key become one trigger with the latest
+     * description and all of their details; a queued trigger followed by a resolution becomes
+     * the resolution alone. Events without an incident key are never coalesced.
+     */
+    public Builder coalesceByIncidentKey(boolean coalesce) {
+      this.coalesce = coalesce;
+      return this;
+    }
+
+    public BufferConfig build() {
+      checkArgument(shedThreshold <= capacity, "'backlog' must not exceed 'capacity'. Was: "
+          + shedThreshold
+          + " > "
+          + capacity);
+      return new BufferConfig(this);
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    @Override public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PagerDuty Dispatcher " + nextId.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
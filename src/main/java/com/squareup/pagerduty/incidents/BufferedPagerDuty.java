@@ -0,0 +1,722 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * A {@link PagerDuty} that accepts events into a bounded in-memory queue and sends them from a
+ * pool of worker threads. Callers never wait on the network; they only wait for queue space when
+ * the {@linkplain OverflowPolicy#BLOCK blocking} overflow policy is used.
+ * <p>
+ * Each {@link Priority} has its own lane, and workers share their time between backlogged lanes
+ * by the weights in {@link BufferConfig}, so a critical page or the resolution which stops one
+ * isn't stuck behind bulk traffic. Queued events for an incident key share a lane: a new event
+ * joins the lane of those already queued for its key, or moves them up into its own lane if it is
+ * more urgent. Events for a key therefore leave the queue in the order they arrived, so a
+ * resolution is never taken before its trigger. With more than one worker, events taken back to
+ * back may still be sent concurrently.
+ * <p>
+ * When {@linkplain BufferConfig.Builder#coalesceByIncidentKey coalescing} is enabled, a new event
+ * is merged with the events still queued for its incident key: triggers merge into one with the
+ * latest description and the union of their details, resolutions do the same, and a queued
+ * trigger followed by a resolution collapses into the resolution alone. A trigger queued between
+ * two resolutions is dropped along with the second resolution, since it never reached PagerDuty
+ * and the first resolution leaves the incident resolved anyway. Each callback receives the result
+ * of the event its own event was merged into.
+ * <p>
+ * Because events are sent later, {@link #notify(Trigger)} and {@link #notify(Resolution)} return
+ * a locally synthesized result whose status is {@link #STATUS_QUEUED} or {@link #STATUS_DROPPED}.
+ * Use {@link #notifyAsync(Trigger, NotifyCallback) notifyAsync} to receive PagerDuty's actual
+ * response once the event has been sent.
+ * <p>
+ * Create instances with {@link PagerDuty#buffered}. Call {@link #close()} to send any queued
+ * events and stop the workers.
+ */
+public final class BufferedPagerDuty extends PagerDuty implements Closeable {
+  /** Status of the result returned for an event that was accepted into the queue. */
+  public static final String STATUS_QUEUED = "queued";
+  /** Status of the result returned for an event that was discarded because the queue was full. */
+  public static final String STATUS_DROPPED = "dropped";
+
+  private static final String MESSAGE_QUEUED = "Event queued for delivery.";
+  private static final String MESSAGE_COALESCED =
+      "Event merged with a queued event for the same incident key.";
+
+  /** How often idle workers check whether this instance has been closed. */
+  private static final long IDLE_POLL_MILLIS = 100L;
+
+  private static final Priority LOWEST = Priority.LOW;
+
+  private final PagerDuty delegate;
+  private final OverflowPolicy overflowPolicy;
+  private final NotifyListener listener;
+  private final PriorityRouter router;
+  private final int capacity;
+  private final int shedThreshold;
+  private final boolean coalesce;
+  private final List<Thread> workers;
+  private volatile boolean closed; // Written while holding lock.
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  /** Indexed by {@link Priority#ordinal()}. Guarded by {@link #lock}. */
+  private final Lane[] lanes;
+  private int size; // Guarded by lock.
+  /** The queued events for each incident key, oldest first and all in one lane. Guarded by lock. */
+  private final Map<String, ArrayDeque<Queued>> queuedByKey = new HashMap<>();
+
+  private final AtomicLong enqueuedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong shedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong deliveredCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong totalQueueNanos = new AtomicLong();
+  private final AtomicLong maxQueueNanos = new AtomicLong();
+
+  BufferedPagerDuty(PagerDuty delegate, BufferConfig config) {
+    this.delegate = delegate;
+    this.overflowPolicy = config.overflowPolicy;
+    this.listener = config.listener;
+    this.router = config.router;
+    this.capacity = config.capacity;
+    this.shedThreshold = config.shedThreshold;
+    this.coalesce = config.coalesce;
+    Priority[] priorities = Priority.values();
+    this.lanes = new Lane[priorities.length];
+    for (Priority priority : priorities) {
+      lanes[priority.ordinal()] = new Lane(priority, config.weights[priority.ordinal()]);
+    }
+    this.workers = new ArrayList<>(config.workers);
+    for (int i = 0; i < config.workers; i++) {
+      Thread worker = config.threadFactory.newThread(new Runnable() {
+        @Override public void run() {
+          drain();
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return enqueue(trigger, null);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return enqueue(resolution, null);
+  }
+
+  /**
+   * Queue {@code trigger} and invoke {@code callback} on a worker thread once it has been sent.
+   * If the event is discarded or rejected, {@code callback} receives a
+   * {@link NotifyRejectedException}.
+   */
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    enqueueAsync(trigger, callback);
+  }
+
+  /**
+   * Queue {@code resolution} and invoke {@code callback} on a worker thread once it has been sent.
+   * If the event is discarded or rejected, {@code callback} receives a
+   * {@link NotifyRejectedException}.
+   */
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    enqueueAsync(resolution, callback);
+  }
+
+  private void enqueueAsync(Event event, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    NotifyResult result;
+    try {
+      result = enqueue(event, callback);
+    } catch (IOException e) {
+      callback.onFailure(e);
+      return;
+    }
+    if (STATUS_DROPPED.equals(result.status())) {
+      callback.onFailure(new NotifyRejectedException(result.message()));
+    }
+  }
+
+  private NotifyResult enqueue(Event event, NotifyCallback callback) throws IOException {
+    Priority priority = priorityOf(event);
+    Queued queued = new Queued(event, callback, priority, System.nanoTime());
+    Queued displaced = null;
+    boolean coalesced;
+    lock.lock();
+    try {
+      // Checked under the lock so nothing is queued after close() has let the workers finish.
+      checkOpen();
+      coalesced = coalesce && event.incident_key != null && coalesce(queued);
+      if (coalesced) {
+        coalescedCount.incrementAndGet();
+      } else {
+        if (shedThreshold > 0 && priority == LOWEST && size >= shedThreshold) {
+          shedCount.incrementAndGet();
+          return new NotifyResult(STATUS_DROPPED,
+              "Dispatch queue is shedding low-priority events.", event.incident_key);
+        }
+        while (size >= capacity) {
+          if (shedThreshold > 0 && priority != LOWEST && !lane(LOWEST).queue.isEmpty()) {
+            displaced = remove(lane(LOWEST));
+            shedCount.incrementAndGet();
+            break;
+          }
+          switch (overflowPolicy) {
+            case BLOCK:
+              try {
+                notFull.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for queue space.");
+              }
+              checkOpen();
+              break;
+
+            case DROP_OLDEST:
+              displaced = remove(lowestBackloggedLane());
+              droppedCount.incrementAndGet();
+              break;
+
+            case DROP_NEWEST:
+              droppedCount.incrementAndGet();
+              return new NotifyResult(STATUS_DROPPED, "Dispatch queue is full.",
+                  event.incident_key);
+
+            case FAIL_FAST:
+              rejectedCount.incrementAndGet();
+              throw new NotifyRejectedException("Dispatch queue is full.");
+
+            default:
+              throw new AssertionError(overflowPolicy);
+          }
+        }
+        add(queued);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (displaced != null) {
+      for (NotifyCallback displacedCallback : displaced.callbacks) {
+        onFailure(displacedCallback, new NotifyRejectedException("Dispatch queue is full."));
+      }
+    }
+    enqueuedCount.incrementAndGet();
+    try {
+      listener.eventEnqueued(event.event_type, event.incident_key);
+    } catch (RuntimeException ignored) {
+      // A listener only observes the queue, so its failures don't change the outcome.
+    }
+    return new NotifyResult(STATUS_QUEUED, coalesced ? MESSAGE_COALESCED : MESSAGE_QUEUED,
+        event.incident_key);
+  }
+
+  private void checkOpen() throws NotifyRejectedException {
+    if (closed) {
+      rejectedCount.incrementAndGet();
+      throw new NotifyRejectedException("Dispatch queue is closed.");
+    }
+  }
+
+  /**
+   * Merges {@code queued} with the events already queued for its incident key. Returns false if
+   * it must be queued as a separate event.
+   */
+  private boolean coalesce(Queued queued) {
+    ArrayDeque<Queued> queuedForKey = queuedByKey.get(queued.event.incident_key);
+    if (queuedForKey == null) {
+      return false;
+    }
+    Queued latest = queuedForKey.peekLast();
+    boolean trigger = queued.event instanceof Trigger;
+    if (latest.event instanceof Trigger) {
+      if (trigger) {
+        latest.event = merge((Trigger) latest.event, (Trigger) queued.event);
+        absorb(latest, queued);
+        return true;
+      }
+      // The trigger never went out, so only the resolution needs to.
+      unlink(latest);
+      Queued previous = queuedForKey.peekLast();
+      if (previous != null) {
+        // An earlier resolution is still queued and already leaves the incident resolved.
+        absorb(previous, latest);
+        previous.event = merge((Resolution) previous.event, (Resolution) queued.event);
+        absorb(previous, queued);
+      } else {
+        queued.enqueuedAtNanos = latest.enqueuedAtNanos;
+        queued.callbacks = merge(latest.callbacks, queued.callbacks);
+        add(queued);
+      }
+      return true;
+    }
+    if (trigger) {
+      return false; // A new incident after the resolution. Both must go out.
+    }
+    latest.event = merge((Resolution) latest.event, (Resolution) queued.event);
+    absorb(latest, queued);
+    return true;
+  }
+
+  /** Moves the callbacks of {@code from} to {@code into}, and raises its priority to match. */
+  private void absorb(Queued into, Queued from) {
+    into.callbacks = merge(into.callbacks, from.callbacks);
+    if (from.priority.ordinal() < into.priority.ordinal()) {
+      into.priority = from.priority;
+    }
+    if (from.priority.ordinal() < into.lane.priority.ordinal()) {
+      move(queuedByKey.get(into.event.incident_key), lane(from.priority));
+    }
+  }
+
+  /** Removes {@code queued}, which need not be the oldest in its lane. */
+  private void unlink(Queued queued) {
+    queued.lane.queue.remove(queued);
+    size--;
+    notFull.signal();
+    forget(queued);
+  }
+
+  private static List<NotifyCallback> merge(List<NotifyCallback> a, List<NotifyCallback> b) {
+    if (b.isEmpty()) {
+      return a;
+    }
+    if (a.isEmpty()) {
+      return b;
+    }
+    List<NotifyCallback> result = new ArrayList<>(a.size() + b.size());
+    result.addAll(a);
+    result.addAll(b);
+    return result;
+  }
+
+  /**
+   * Returns a trigger with the latest description, client, priority, and auto-resolve delay, and
+   * both details.
+   */
+  static Trigger merge(Trigger older, Trigger newer) {
+    Trigger.Builder builder = new Trigger.Builder(newer.description)
+        .withIncidentKey(newer.incident_key)
+        .addDetails(older.details)
+        .addDetails(newer.details);
+    String client = newer.client != null ? newer.client : older.client;
+    if (client != null) {
+      builder.client(client);
+    }
+    String clientUrl = newer.client_url != null ? newer.client_url : older.client_url;
+    if (clientUrl != null) {
+      builder.clientUrl(clientUrl);
+    }
+    Priority priority = newer.priority() != null ? newer.priority() : older.priority();
+    if (priority != null) {
+      builder.priority(priority);
+    }
+    if (newer.autoResolveNanos > 0L) {
+      builder.autoResolveAfter(newer.autoResolveNanos, TimeUnit.NANOSECONDS);
+    }
+    return builder.build();
+  }
+
+  /** Returns a resolution with the latest description and priority, and both details. */
+  static Resolution merge(Resolution older, Resolution newer) {
+    Resolution.Builder builder = new Resolution.Builder(newer.incident_key)
+        .addDetails(older.details)
+        .addDetails(newer.details);
+    String description = newer.description != null ? newer.description : older.description;
+    if (description != null) {
+      builder.withDescription(description);
+    }
+    Priority priority = newer.priority() != null ? newer.priority() : older.priority();
+    if (priority != null) {
+      builder.priority(priority);
+    }
+    return builder.build();
+  }
+
+  private Priority priorityOf(Event event) {
+    Priority priority = event.priority();
+    if (priority != null) {
+      return priority;
+    }
+    priority = router.route(event.event_type, event.incident_key, event.details);
+    if (priority == null) {
+      throw new NullPointerException("PriorityRouter returned null for " + event.event_type);
+    }
+    return priority;
+  }
+
+  private Lane lane(Priority priority) {
+    return lanes[priority.ordinal()];
+  }
+
+  /**
+   * Appends {@code queued} to the lane of the events already queued for its incident key, or to
+   * its own lane after moving them into it if that is more urgent.
+   */
+  private void add(Queued queued) {
+    Lane lane = lane(queued.priority);
+    String incidentKey = queued.event.incident_key;
+    if (incidentKey != null) {
+      ArrayDeque<Queued> queuedForKey = queuedByKey.get(incidentKey);
+      if (queuedForKey == null) {
+        queuedForKey = new ArrayDeque<>();
+        queuedByKey.put(incidentKey, queuedForKey);
+      } else if (queuedForKey.peekFirst().lane.priority.ordinal() <= lane.priority.ordinal()) {
+        lane = queuedForKey.peekFirst().lane;
+      } else {
+        move(queuedForKey, lane);
+      }
+      queuedForKey.addLast(queued);
+    }
+    queued.lane = lane;
+    lane.queue.add(queued);
+    size++;
+    notEmpty.signal();
+  }
+
+  /** Moves the events queued for a key to the back of the more urgent {@code lane}, in order. */
+  private void move(ArrayDeque<Queued> queuedForKey, Lane lane) {
+    for (Queued earlier : queuedForKey) {
+      earlier.lane.queue.remove(earlier);
+      earlier.lane = lane;
+      lane.queue.add(earlier);
+    }
+  }
+
+  /** Removes the oldest event in {@code lane}. */
+  private Queued remove(Lane lane) {
+    Queued queued = lane.queue.poll();
+    size--;
+    notFull.signal();
+    forget(queued);
+    return queued;
+  }
+
+  /** Drops {@code queued}, which is leaving the queue, from the events queued for its key. */
+  private void forget(Queued queued) {
+    String incidentKey = queued.event.incident_key;
+    if (incidentKey == null) {
+      return;
+    }
+    ArrayDeque<Queued> queuedForKey = queuedByKey.get(incidentKey);
+    queuedForKey.remove(queued);
+    if (queuedForKey.isEmpty()) {
+      queuedByKey.remove(incidentKey);
+    }
+  }
+
+  private Lane lowestBackloggedLane() {
+    for (int i = lanes.length - 1; i >= 0; i--) {
+      if (!lanes[i].queue.isEmpty()) {
+        return lanes[i];
+      }
+    }
+    throw new AssertionError("No events queued.");
+  }
+
+  /**
+   * Picks the lane to dequeue from by smooth weighted round-robin: each backlogged lane earns its
+   * weight in credit, the lane with the most credit is served and pays the total weight. Over any
+   * run of dequeues, lanes are served in proportion to their weights, interleaved rather than in
+   * bursts.
+   */
+  private Lane nextLane() {
+    Lane best = null;
+    int totalWeight = 0;
+    for (Lane lane : lanes) {
+      if (lane.queue.isEmpty()) {
+        continue;
+      }
+      lane.credit += lane.weight;
+      totalWeight += lane.weight;
+      if (best == null || lane.credit > best.credit) {
+        best = lane;
+      }
+    }
+    best.credit -= totalWeight;
+    return best;
+  }
+
+  /** Returns the next event to send, or null once closed and empty. */
+  private Queued take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (size == 0) {
+        if (closed) {
+          return null;
+        }
+        notEmpty.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      Lane lane = nextLane();
+      Queued queued = remove(lane);
+      if (lane.queue.isEmpty()) {
+        lane.credit = 0; // Credit isn't saved up while idle.
+      }
+      return queued;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Queued queued;
+      try {
+        queued = take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (queued == null) {
+        return;
+      }
+      long queueNanos = System.nanoTime() - queued.enqueuedAtNanos;
+      recordQueueLatency(queueNanos);
+      lane(queued.priority).recordQueueLatency(queueNanos);
+      deliver(queued);
+    }
+  }
+
+  private void deliver(Queued queued) {
+    NotifyResult result;
+    try {
+      if (queued.event instanceof Trigger) {
+        result = delegate.notify((Trigger) queued.event);
+      } else {
+        result = delegate.notify((Resolution) queued.event);
+      }
+    } catch (IOException | RuntimeException e) {
+      failedCount.incrementAndGet();
+      for (NotifyCallback callback : queued.callbacks) {
+        onFailure(callback, e);
+      }
+      return;
+    }
+    deliveredCount.incrementAndGet();
+    for (NotifyCallback callback : queued.callbacks) {
+      onResult(callback, result);
+    }
+  }
+
+  // A throwing callback must neither stop a worker nor keep the other callbacks from running.
+
+  private static void onResult(NotifyCallback callback, NotifyResult result) {
+    try {
+      callback.onResult(result);
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  private static void onFailure(NotifyCallback callback, Throwable failure) {
+    try {
+      callback.onFailure(failure);
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  private void recordQueueLatency(long nanos) {
+    totalQueueNanos.addAndGet(nanos);
+    updateMax(maxQueueNanos, nanos);
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current;
+    do {
+      current = max.get();
+    } while (value > current && !max.compareAndSet(current, value));
+  }
+
+  /** The number of events currently waiting to be sent. */
+  public int queueDepth() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** The number of events of {@code priority} currently waiting to be sent. */
+  public int queueDepth(Priority priority) {
+    checkNotNull(priority, "priority");
+    lock.lock();
+    try {
+      return lane(priority).queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** The number of events accepted into the queue. */
+  public long enqueuedCount() {
+    return enqueuedCount.get();
+  }
+
+  /** The number of events discarded by the {@code DROP_OLDEST} or {@code DROP_NEWEST} policies. */
+  public long droppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * The number of {@link Priority#LOW} events discarded because the backlog exceeded the limit
+   * set by {@link BufferConfig.Builder#shedLowPriorityAbove}.
+   */
+  public long shedCount() {
+    return shedCount.get();
+  }
+
+  /**
+   * The number of events merged with events already queued for the same incident key, or
+   * dropped because a later event made them unnecessary. See
+   * {@link BufferConfig.Builder#coalesceByIncidentKey}.
+   */
+  public long coalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /** The number of events refused with a {@link NotifyRejectedException}. */
+  public long rejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /** The number of events sent to the delegate that completed with a result. */
+  public long deliveredCount() {
+    return deliveredCount.get();
+  }
+
+  /** The number of events sent to the delegate that completed with an exception. */
+  public long failedCount() {
+    return failedCount.get();
+  }
+
+  /** The sum of the time every dequeued event spent waiting in the queue, in nanoseconds. */
+  public long totalQueueLatencyNanos() {
+    return totalQueueNanos.get();
+  }
+
+  /** The longest time any dequeued event spent waiting in the queue, in nanoseconds. */
+  public long maxQueueLatencyNanos() {
+    return maxQueueNanos.get();
+  }
+
+  /** The number of events of {@code priority} taken from the queue to be sent. */
+  public long dequeuedCount(Priority priority) {
+    checkNotNull(priority, "priority");
+    return lane(priority).dequeuedCount.get();
+  }
+
+  /** The sum of the time dequeued events of {@code priority} spent waiting, in nanoseconds. */
+  public long totalQueueLatencyNanos(Priority priority) {
+    checkNotNull(priority, "priority");
+    return lane(priority).totalQueueNanos.get();
+  }
+
+  /** The longest time any dequeued event of {@code priority} spent waiting, in nanoseconds. */
+  public long maxQueueLatencyNanos(Priority priority) {
+    checkNotNull(priority, "priority");
+    return lane(priority).maxQueueNanos.get();
+  }
+
+  /**
+   * Stop accepting events, wait for the workers to send everything already queued, and stop the
+   * workers. Subsequent calls to {@code notify} throw {@link NotifyRejectedException}.
+   */
+  @Override public void close() throws IOException {
+    stopAccepting();
+    try {
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while draining the dispatch queue.");
+    }
+  }
+
+  /** Rejects new events and lets the workers finish once the queue is empty. */
+  void stopAccepting() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll(); // Producers waiting for space are rejected rather than queued.
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Queued {
+    // Fields change while coalescing or moving lanes, before this event leaves the queue. Guarded
+    // by lock until then.
+    Event event;
+    List<NotifyCallback> callbacks;
+    Priority priority;
+    long enqueuedAtNanos;
+    Lane lane;
+
+    Queued(Event event, NotifyCallback callback, Priority priority, long enqueuedAtNanos) {
+      this.event = event;
+      this.callbacks = callback != null
+          ? Collections.singletonList(callback)
+          : Collections.<NotifyCallback>emptyList();
+      this.priority = priority;
+      this.enqueuedAtNanos = enqueuedAtNanos;
+    }
+  }
+
+  private static final class Lane {
+    final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    final Priority priority;
+    final int weight;
+    int credit; // Guarded by lock.
+
+    final AtomicLong dequeuedCount = new AtomicLong();
+    final AtomicLong totalQueueNanos = new AtomicLong();
+    final AtomicLong maxQueueNanos = new AtomicLong();
+
+    Lane(Priority priority, int weight) {
+      this.priority = priority;
+      this.weight = weight;
+    }
+
+    void recordQueueLatency(long nanos) {
+      dequeuedCount.incrementAndGet();
+      totalQueueNanos.addAndGet(nanos);
+      updateMax(maxQueueNanos, nanos);
+    }
+  }
+}
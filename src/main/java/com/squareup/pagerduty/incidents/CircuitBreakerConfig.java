@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** When a {@link CircuitBreakerPagerDuty} opens, and what it does while open. */
+public final class CircuitBreakerConfig {
+  final double failureRateThreshold;
+  final long slowCallNanos;
+  final double slowCallRateThreshold;
+  final long windowNanos;
+  final int minimumCalls;
+  final long openNanos;
+  final int halfOpenProbes;
+  final PagerDuty fallback;
+
+  private CircuitBreakerConfig(Builder builder) {
+    this.failureRateThreshold = builder.failureRateThreshold;
+    this.slowCallNanos = builder.slowCallNanos;
+    this.slowCallRateThreshold = builder.slowCallRateThreshold;
+    this.windowNanos = builder.windowNanos;
+    this.minimumCalls = builder.minimumCalls;
+    this.openNanos = builder.openNanos;
+    this.halfOpenProbes = builder.halfOpenProbes;
+    this.fallback = builder.fallback;
+  }
+
+  /**
+   * Fluent interface for building circuit breaker settings.
+   * <p>
+   * By default the circuit opens when at least 10 calls in the last 60 seconds were made and half
+   * of them failed, or half of them took 10 seconds or longer. It stays open for 30 seconds, then
+   * lets 3 probe calls through. While open, calls fail with {@link NotifyRejectedException}.
+   */
+  public static final class Builder {
+    private static final double DEFAULT_RATE_THRESHOLD = 0.5;
+    private static final long DEFAULT_SLOW_CALL_SECONDS = 10L;
+    private static final long DEFAULT_WINDOW_SECONDS = 60L;
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+    private static final long DEFAULT_OPEN_SECONDS = 30L;
+    private static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    private double failureRateThreshold = DEFAULT_RATE_THRESHOLD;
+    private long slowCallNanos = TimeUnit.SECONDS.toNanos(DEFAULT_SLOW_CALL_SECONDS);
+    private double slowCallRateThreshold = DEFAULT_RATE_THRESHOLD;
+    private long windowNanos = TimeUnit.SECONDS.toNanos(DEFAULT_WINDOW_SECONDS);
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private long openNanos = TimeUnit.SECONDS.toNanos(DEFAULT_OPEN_SECONDS);
+    private int halfOpenProbes = DEFAULT_HALF_OPEN_PROBES;
+    private PagerDuty fallback;
+
+    /**
+     * The fraction of calls in the window which must fail for the circuit to open. I/O failures
+     * and server errors count as failures; invalid events and throttled requests do not.
+     */
+    public Builder failureRateThreshold(double threshold) {
+      checkRate(threshold, "threshold");
+      this.failureRateThreshold = threshold;
+      return this;
+    }
+
+    /** Calls which take at least this long count as slow, whether or not they succeed. */
+    public Builder slowCallDuration(long duration, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(duration > 0, "'duration' must be positive. Was: " + duration);
+      this.slowCallNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /** The fraction of calls in the window which must be slow for the circuit to open. */
+    public Builder slowCallRateThreshold(double threshold) {
+      checkRate(threshold, "threshold");
+      this.slowCallRateThreshold = threshold;
+      return this;
+    }
+
+    /** How far back calls are counted. */
+    public Builder window(long duration, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(duration > 0, "'duration' must be positive. Was: " + duration);
+      this.windowNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /** How many calls the window must hold before the rates are acted upon. */
+    public Builder minimumCalls(int minimumCalls) {
+      checkArgument(minimumCalls > 0, "'minimumCalls' must be positive. Was: " + minimumCalls);
+      this.minimumCalls = minimumCalls;
+      return this;
+    }
+
+    /** How long the circuit stays open before letting probe calls through. */
+    public Builder openDuration(long duration, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(duration > 0, "'duration' must be positive. Was: " + duration);
+      this.openNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * How many probe calls are let through when half-open. The circuit closes once they all
+     * succeed, and opens again as soon as one fails or is slow.
+     */
+    public Builder halfOpenProbes(int probes) {
+      checkArgument(probes > 0, "'probes' must be positive. Was: " + probes);
+      this.halfOpenProbes = probes;
+      return this;
+    }
+
+    /**
+     * Where to send notifications while the circuit is open, such as a {@linkplain
+     * PagerDuty#durable durable} outbox or another route to PagerDuty. By default they are
+     * rejected.
+     */
+    public Builder fallback(PagerDuty fallback) {
+      this.fallback = checkNotNull(fallback, "fallback");
+      return this;
+    }
+
+    public CircuitBreakerConfig build() {
+      return new CircuitBreakerConfig(this);
+    }
+
+    private static void checkRate(double rate, String name) {
+      checkArgument(rate > 0.0 && rate <= 1.0,
+          "'" + name + "' must be greater than 0 and at most 1. Was: " + rate);
+    }
+  }
+}
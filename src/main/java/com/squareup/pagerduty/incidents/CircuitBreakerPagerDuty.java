@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Stops sending notifications to a delegate while it is failing or slow, so that callers don't
+ * wait out timeouts against a degraded service. Use {@link PagerDuty#circuitBreaking} to create
+ * instances.
+ * <p>
+ * The circuit starts {@linkplain State#CLOSED closed} and counts calls over a rolling window. When
+ * too many of them failed or were slow it {@linkplain State#OPEN opens}: calls are sent to the
+ * fallback, or rejected with {@link NotifyRejectedException} if there is none. After a while it
+ * becomes {@linkplain State#HALF_OPEN half-open} and lets a few probe calls through to decide
+ * whether to close again.
+ */
+public final class CircuitBreakerPagerDuty extends PagerDuty {
+  private static final int HTTP_SERVER_ERROR = 500;
+  private static final int BUCKETS = 10;
+  private static final long REJECTED = -1L;
+
+  /** The state of the circuit. */
+  public enum State {
+    /** Calls are sent to the delegate and counted. */
+    CLOSED,
+    /** Calls are sent to the fallback or rejected. */
+    OPEN,
+    /** A limited number of probe calls are sent to the delegate. */
+    HALF_OPEN
+  }
+
+  /** Notified when the circuit changes state. */
+  public interface Listener {
+    /** Invoked on the thread whose call caused the change. */
+    void onStateChange(CircuitBreakerPagerDuty circuitBreaker, State from, State to);
+  }
+
+  private final PagerDuty delegate;
+  private final CircuitBreakerConfig config;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  // Guarded by this.
+  private State state = State.CLOSED;
+  /** Incremented on each state change so that calls permitted in an earlier state are ignored. */
+  private long generation;
+  private long openedAtNanos;
+  private int probesPermitted;
+  private int probesSucceeded;
+  private final long startNanos = System.nanoTime();
+  private final long bucketNanos;
+  private final long[] bucketEpochs = new long[BUCKETS];
+  private final int[] bucketCalls = new int[BUCKETS];
+  private final int[] bucketFailures = new int[BUCKETS];
+  private final int[] bucketSlowCalls = new int[BUCKETS];
+
+  CircuitBreakerPagerDuty(PagerDuty delegate, CircuitBreakerConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+    this.bucketNanos = Math.max(1L, config.windowNanos / BUCKETS);
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  /** The current state of the circuit. */
+  public synchronized State state() {
+    return state;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(checkNotNull(listener, "listener"));
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    sendAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sendAsync(resolution, callback);
+  }
+
+  private NotifyResult send(Event event) throws IOException {
+    long permit = acquire(System.nanoTime());
+    if (permit == REJECTED) {
+      if (config.fallback == null) {
+        throw new NotifyRejectedException("Circuit breaker is open.");
+      }
+      return event instanceof Trigger
+          ? config.fallback.notify((Trigger) event)
+          : config.fallback.notify((Resolution) event);
+    }
+
+    long start = System.nanoTime();
+    NotifyResult result;
+    try {
+      result = event instanceof Trigger
+          ? delegate.notify((Trigger) event)
+          : delegate.notify((Resolution) event);
+    } catch (IOException | RuntimeException e) {
+      record(permit, start, isFailure(null, e));
+      throw e;
+    }
+    record(permit, start, isFailure(result, null));
+    return result;
+  }
+
+  private void sendAsync(Event event, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final long permit = acquire(System.nanoTime());
+    if (permit == REJECTED) {
+      if (config.fallback == null) {
+        callback.onFailure(new NotifyRejectedException("Circuit breaker is open."));
+      } else if (event instanceof Trigger) {
+        config.fallback.notifyAsync((Trigger) event, callback);
+      } else {
+        config.fallback.notifyAsync((Resolution) event, callback);
+      }
+      return;
+    }
+
+    final long start = System.nanoTime();
+    NotifyCallback recording = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        record(permit, start, isFailure(result, null));
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        record(permit, start, isFailure(null, t));
+        callback.onFailure(t);
+      }
+    };
+    if (event instanceof Trigger) {
+      delegate.notifyAsync((Trigger) event, recording);
+    } else {
+      delegate.notifyAsync((Resolution) event, recording);
+    }
+  }
+
+  /**
+   * Returns true if a call failed in a way that suggests PagerDuty is unhealthy. A null result
+   * says nothing about PagerDuty's health, so like a client error it counts as a success.
+   */
+  static boolean isFailure(NotifyResult result, Throwable failure) {
+    if (failure != null) {
+      return !(failure instanceof NotifyRejectedException);
+    }
+    return result != null && result.code >= HTTP_SERVER_ERROR;
+  }
+
+  /** Returns the generation a call may be sent in, or {@link #REJECTED}. */
+  private long acquire(long now) {
+    State from;
+    State to;
+    long permit;
+    synchronized (this) {
+      from = state;
+      if (state == State.OPEN && now - openedAtNanos >= config.openNanos) {
+        transition(State.HALF_OPEN, now);
+      }
+      switch (state) {
+        case CLOSED:
+          permit = generation;
+          break;
+        case HALF_OPEN:
+          permit = probesPermitted < config.halfOpenProbes ? generation : REJECTED;
+          if (permit != REJECTED) {
+            probesPermitted++;
+          }
+          break;
+        default:
+          permit = REJECTED;
+          break;
+      }
+      to = state;
+    }
+    notifyListeners(from, to);
+    return permit;
+  }
+
+  private void record(long permit, long startNanos, boolean failure) {
+    long now = System.nanoTime();
+    boolean slow = now - startNanos >= config.slowCallNanos;
+    State from;
+    State to;
+    synchronized (this) {
+      from = state;
+      if (permit != generation) {
+        return; // Permitted before the last state change; its outcome is stale.
+      }
+      if (state == State.CLOSED) {
+        if (recordInWindow(now, failure, slow)) {
+          transition(State.OPEN, now);
+        }
+      } else if (state == State.HALF_OPEN) {
+        if (failure || slow) {
+          transition(State.OPEN, now);
+        } else if (++probesSucceeded == config.halfOpenProbes) {
+          transition(State.CLOSED, now);
+        }
+      }
+      to = state;
+    }
+    notifyListeners(from, to);
+  }
+
+  /** Counts a call in the window and returns true if the circuit should open. */
+  private boolean recordInWindow(long now, boolean failure, boolean slow) {
+    long epoch = (now - startNanos) / bucketNanos;
+    int index = (int) (epoch % BUCKETS);
+    if (bucketEpochs[index] != epoch) {
+      bucketEpochs[index] = epoch;
+      bucketCalls[index] = 0;
+      bucketFailures[index] = 0;
+      bucketSlowCalls[index] = 0;
+    }
+    bucketCalls[index]++;
+    if (failure) {
+      bucketFailures[index]++;
+    }
+    if (slow) {
+      bucketSlowCalls[index]++;
+    }
+
+    int calls = 0;
+    int failures = 0;
+    int slowCalls = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      if (epoch - bucketEpochs[i] < BUCKETS) {
+        calls += bucketCalls[i];
+        failures += bucketFailures[i];
+        slowCalls += bucketSlowCalls[i];
+      }
+    }
+    return calls >= config.minimumCalls
+        && (failures >= config.failureRateThreshold * calls
+        || slowCalls >= config.slowCallRateThreshold * calls);
+  }
+
+  private void transition(State to, long now) {
+    state = to;
+    generation++;
+    if (to == State.OPEN) {
+      openedAtNanos = now;
+    } else if (to == State.HALF_OPEN) {
+      probesPermitted = 0;
+      probesSucceeded = 0;
+    } else {
+      for (int i = 0; i < BUCKETS; i++) {
+        bucketCalls[i] = 0;
+        bucketFailures[i] = 0;
+        bucketSlowCalls[i] = 0;
+      }
+    }
+  }
+
+  private void notifyListeners(State from, State to) {
+    if (from == to) {
+      return;
+    }
+    for (Listener listener : listeners) {
+      try {
+        listener.onStateChange(this, from, to);
+      } catch (RuntimeException ignored) {
+        // A listener only observes the breaker, so its failures don't change the outcome.
+      }
+    }
+  }
+}
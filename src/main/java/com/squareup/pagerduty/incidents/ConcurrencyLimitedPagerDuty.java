@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Waits for a slot from a {@link ConcurrencyLimiter} before each notification to a delegate. */
+final class ConcurrencyLimitedPagerDuty extends PagerDuty {
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final String MESSAGE_REJECTED = "Concurrency limit exceeded.";
+
+  private final PagerDuty delegate;
+  private final ConcurrencyLimiter limiter;
+
+  ConcurrencyLimitedPagerDuty(PagerDuty delegate, ConcurrencyLimiter limiter) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    sendAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sendAsync(resolution, callback);
+  }
+
+  private NotifyResult send(Event event) throws IOException {
+    ConcurrencyLimiter.Limit limit = limiter.forKey(delegate.serviceKey());
+    try {
+      if (!limit.acquire(limiter.maxWaitNanos)) {
+        throw new NotifyRejectedException(MESSAGE_REJECTED);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a concurrency limit slot.");
+    }
+
+    long start = System.nanoTime();
+    NotifyResult result;
+    try {
+      result = event instanceof Trigger
+          ? delegate.notify((Trigger) event)
+          : delegate.notify((Resolution) event);
+    } catch (IOException | RuntimeException e) {
+      release(limit, start, null, e);
+      throw e;
+    }
+    release(limit, start, result, null);
+    return result;
+  }
+
+  private void sendAsync(final Event event, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final ConcurrencyLimiter.Limit limit = limiter.forKey(delegate.serviceKey());
+    Runnable send = new Runnable() {
+      @Override public void run() {
+        final long start = System.nanoTime();
+        final AtomicBoolean released = new AtomicBoolean();
+        NotifyCallback releasing = new NotifyCallback() {
+          @Override public void onResult(NotifyResult result) {
+            if (released.compareAndSet(false, true)) {
+              release(limit, start, result, null);
+              callback.onResult(result);
+            }
+          }
+
+          @Override public void onFailure(Throwable t) {
+            if (released.compareAndSet(false, true)) {
+              release(limit, start, null, t);
+              callback.onFailure(t);
+            }
+          }
+        };
+        try {
+          if (event instanceof Trigger) {
+            delegate.notifyAsync((Trigger) event, releasing);
+          } else {
+            delegate.notifyAsync((Resolution) event, releasing);
+          }
+        } catch (RuntimeException e) {
+          releasing.onFailure(e); // Otherwise the slot would never be given back.
+        }
+      }
+    };
+    Runnable reject = new Runnable() {
+      @Override public void run() {
+        callback.onFailure(new NotifyRejectedException(MESSAGE_REJECTED));
+      }
+    };
+    limit.acquireAsync(send, reject, limiter.maxWaitNanos);
+  }
+
+  /**
+   * Throttling, server errors, and I/O failures signal congestion. Requests rejected locally by
+   * another decorator say nothing about PagerDuty and don't adjust the limit.
+   */
+  private static void release(ConcurrencyLimiter.Limit limit, long start, NotifyResult result,
+      Throwable failure) {
+    boolean sample = !(failure instanceof NotifyRejectedException);
+    boolean dropped = result != null
+        ? result.code == HTTP_TOO_MANY_REQUESTS || CircuitBreakerPagerDuty.isFailure(result, null)
+        : sample;
+    limit.release(start, System.nanoTime(), sample, dropped);
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Adaptive limits on the number of notifications in flight at once, one per API key. Apply a
+ * limiter with {@link PagerDuty#concurrencyLimited}; share one limiter between every instance in
+ * the process so that instances using the same API key share a limit.
+ * <p>
+ * Limits adjust themselves with additive increase and multiplicative decrease, like TCP's
+ * congestion window. Each notification that completes promptly while the limit is in use raises
+ * it by roughly one per round trip. A throttled request ({@code 429 Too Many Requests}), a server
+ * error, an I/O failure, or a round trip much slower than the fastest seen recently cuts it, at
+ * most once per round trip, so that requests don't queue up at PagerDuty or in the HTTP client.
+ */
+public final class ConcurrencyLimiter {
+  /** Limit used by instances that don't send to PagerDuty directly, such as fakes. */
+  private static final String UNKNOWN_SERVICE_KEY = "";
+
+  final long maxWaitNanos;
+  private final int initialLimit;
+  private final int maxLimit;
+  private final double latencyTolerance;
+  private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+  private ConcurrencyLimiter(Builder builder) {
+    this.initialLimit = builder.initialLimit;
+    this.maxLimit = builder.maxLimit;
+    this.latencyTolerance = builder.latencyTolerance;
+    this.maxWaitNanos = builder.maxWaitNanos;
+  }
+
+  /** The number of notifications currently allowed in flight for {@code serviceKey}. */
+  public int limit(String serviceKey) {
+    return forKey(serviceKey).limit();
+  }
+
+  /** The number of notifications currently in flight for {@code serviceKey}. */
+  public int inFlight(String serviceKey) {
+    return forKey(serviceKey).inFlight();
+  }
+
+  Limit forKey(String serviceKey) {
+    String key = serviceKey != null ? serviceKey : UNKNOWN_SERVICE_KEY;
+    Limit limit = limits.get(key);
+    if (limit == null) {
+      Limit created = new Limit(initialLimit, maxLimit, latencyTolerance);
+      limit = limits.putIfAbsent(key, created);
+      if (limit == null) {
+        limit = created;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * An AIMD limit and the notifications waiting for it. Synchronous callers wait on this object's
+   * monitor; asynchronous callers wait in a queue and are sent as slots are released.
+   */
+  static final class Limit {
+    /** The factor the limit is multiplied by when PagerDuty throttles or fails a request. */
+    static final double DROP_BACKOFF = 0.5;
+    /** The factor the limit is multiplied by when round trips grow too slow. */
+    static final double LATENCY_BACKOFF = 0.9;
+    /** The number of samples after which the fastest round trip is forgotten. */
+    static final int RTT_WINDOW = 500;
+
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    /** The fastest round trip in the previous window, or {@link Long#MAX_VALUE} if none. */
+    private long minRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private long lastDecreaseNanos;
+    private boolean decreased;
+
+    Limit(int initialLimit, int maxLimit, double latencyTolerance) {
+      this.limit = initialLimit;
+      this.maxLimit = maxLimit;
+      this.latencyTolerance = latencyTolerance;
+    }
+
+    synchronized int limit() {
+      return (int) limit;
+    }
+
+    synchronized int inFlight() {
+      return inFlight;
+    }
+
+    /**
+     * Takes a slot, waiting up to {@code maxWaitNanos} for one. Returns false if none was free in
+     * time. Waiting asynchronous sends are served first.
+     */
+    synchronized boolean acquire(long maxWaitNanos) throws InterruptedException {
+      long deadline = System.nanoTime() + maxWaitNanos;
+      while (inFlight >= (int) limit || !waiting.isEmpty()) {
+        if (maxWaitNanos == Long.MAX_VALUE) {
+          wait();
+          continue;
+        }
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0L) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      }
+      inFlight++;
+      return true;
+    }
+
+    /**
+     * Runs {@code send} once a slot is free, taking it. If no slot is freed within
+     * {@code maxWaitNanos}, {@code reject} is run instead.
+     */
+    void acquireAsync(Runnable send, final Runnable reject, long maxWaitNanos) {
+      boolean acquired = false;
+      Waiter queued = null;
+      synchronized (this) {
+        if (inFlight < (int) limit && waiting.isEmpty()) {
+          inFlight++;
+          acquired = true;
+        } else if (maxWaitNanos != 0L) {
+          queued = new Waiter(send);
+          waiting.add(queued);
+        }
+      }
+      if (acquired) {
+        send.run();
+        return;
+      }
+      if (queued == null) {
+        reject.run();
+        return;
+      }
+      final Waiter waiter = queued;
+      if (maxWaitNanos != Long.MAX_VALUE) {
+        waiter.timeout = SharedScheduler.INSTANCE.schedule(new Runnable() {
+          @Override public void run() {
+            boolean expired;
+            synchronized (Limit.this) {
+              expired = waiting.remove(waiter);
+            }
+            if (expired) {
+              reject.run();
+            }
+          }
+        }, maxWaitNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    /**
+     * Releases a slot taken at {@code startNanos}. If {@code sample} the round trip adjusts the
+     * limit; if {@code dropped} PagerDuty throttled or failed the request.
+     */
+    void release(long startNanos, long nowNanos, boolean sample, boolean dropped) {
+      List<Waiter> admitted = new ArrayList<>();
+      synchronized (this) {
+        inFlight--;
+        if (sample) {
+          update(nowNanos - startNanos, nowNanos, dropped);
+        }
+        while (!waiting.isEmpty() && inFlight < (int) limit) {
+          inFlight++;
+          admitted.add(waiting.removeFirst());
+        }
+        notifyAll();
+      }
+      for (Waiter waiter : admitted) {
+        ScheduledFuture<?> timeout = waiter.timeout;
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        try {
+          waiter.send.run();
+        } catch (RuntimeException ignored) {
+          // A failing waiter must not keep the others from being sent.
+        }
+      }
+    }
+
+    private void update(long rttNanos, long nowNanos, boolean dropped) {
+      if (dropped) {
+        decrease(DROP_BACKOFF, rttNanos, nowNanos);
+        return; // Quick error responses say nothing about the round trip of a successful one.
+      }
+
+      // The baseline is the fastest round trip over the last one or two windows, so that it
+      // follows lasting changes in network latency.
+      windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+      if (++windowSamples >= RTT_WINDOW) {
+        minRttNanos = windowMinRttNanos;
+        windowMinRttNanos = Long.MAX_VALUE;
+        windowSamples = 0;
+      }
+      long baselineNanos = Math.min(minRttNanos, windowMinRttNanos);
+
+      if (rttNanos > baselineNanos * latencyTolerance) {
+        decrease(LATENCY_BACKOFF, rttNanos, nowNanos);
+      } else if (inFlight + 1 >= limit / 2) {
+        // Only grow while the limit is in use; an idle limit says nothing about capacity.
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+    }
+
+    /** Cuts the limit unless it was already cut within the last round trip. */
+    private void decrease(double backoff, long rttNanos, long nowNanos) {
+      if (decreased && nowNanos - lastDecreaseNanos < rttNanos) {
+        return; // This request was in flight when the limit was last cut.
+      }
+      limit = Math.max(1.0, limit * backoff);
+      lastDecreaseNanos = nowNanos;
+      decreased = true;
+    }
+  }
+
+  private static final class Waiter {
+    final Runnable send;
+    volatile ScheduledFuture<?> timeout;
+
+    Waiter(Runnable send) {
+      this.send = send;
+    }
+  }
+
+  /**
+   * Fluent interface for building concurrency limiters.
+   * <p>
+   * By default each API key starts with 5 notifications in flight and may grow to 50. A round trip
+   * more than twice as slow as the fastest one seen recently counts as congestion, and callers
+   * wait as long as needed for a slot.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_INITIAL_LIMIT = 5;
+    private static final int DEFAULT_MAX_LIMIT = 50;
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private long maxWaitNanos = Long.MAX_VALUE;
+
+    /** The number of notifications allowed in flight before any have completed. */
+    public Builder initialLimit(int initialLimit) {
+      checkArgument(initialLimit > 0, "'initialLimit' must be positive. Was: " + initialLimit);
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /** The most notifications ever allowed in flight at once. */
+    public Builder maxLimit(int maxLimit) {
+      checkArgument(maxLimit > 0, "'maxLimit' must be positive. Was: " + maxLimit);
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * How many times slower than the fastest recent round trip a notification may be before the
+     * limit is cut. Lower values keep queues shorter; higher values tolerate jittery networks.
+     */
+    public Builder latencyTolerance(double tolerance) {
+      checkArgument(tolerance > 1.0, "'tolerance' must be greater than 1. Was: " + tolerance);
+      this.latencyTolerance = tolerance;
+      return this;
+    }
+
+    /**
+     * The longest a caller will wait for a slot. If none is freed within this time the
+     * notification is rejected with {@link NotifyRejectedException}. Use zero to reject
+     * immediately instead of waiting.
+     */
+    public Builder maxWait(long maxWait, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(maxWait >= 0, "'maxWait' must not be negative. Was: " + maxWait);
+      this.maxWaitNanos = unit.toNanos(maxWait);
+      return this;
+    }
+
+    public ConcurrencyLimiter build() {
+      checkArgument(initialLimit <= maxLimit,
+          "'initialLimit' must not exceed 'maxLimit'. Was: " + initialLimit + " > " + maxLimit);
+      return new ConcurrencyLimiter(this);
+    }
+  }
+}
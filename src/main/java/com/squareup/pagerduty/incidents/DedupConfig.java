@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Suppression settings for a {@link DeduplicatingPagerDuty}. */
+public final class DedupConfig {
+  final long windowNanos;
+  final int maxKeys;
+  final boolean matchDetails;
+
+  private DedupConfig(Builder builder) {
+    this.windowNanos = builder.windowNanos;
+    this.maxKeys = builder.maxKeys;
+    this.matchDetails = builder.matchDetails;
+  }
+
+  /**
+   * Fluent interface for building suppression settings.
+   * <p>
+   * Only the window is required. By default up to 10,000 incident keys are remembered and
+   * triggers are duplicates regardless of their details.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_MAX_KEYS = 10000;
+
+    private final long windowNanos;
+    private int maxKeys = DEFAULT_MAX_KEYS;
+    private boolean matchDetails;
+
+    /**
+     * Build settings which suppress a trigger if one with the same incident key was sent less
+     * than {@code window} ago.
+     */
+    public Builder(long window, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(window > 0, "'window' must be positive. Was: " + window);
+      this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * The most incident keys to remember. When full, the keys sent longest ago are forgotten
+     * first, which only means their next trigger is sent.
+     */
+    public Builder maxKeys(int maxKeys) {
+      checkArgument(maxKeys > 0, "'maxKeys' must be positive. Was: " + maxKeys);
+      this.maxKeys = maxKeys;
+      return this;
+    }
+
+    /**
+     * Only suppress a trigger if its details equal those of the trigger which was sent. Triggers
+     * with changed details are sent and restart the window.
+     */
+    public Builder matchDetails(boolean matchDetails) {
+      this.matchDetails = matchDetails;
+      return this;
+    }
+
+    public DedupConfig build() {
+      return new DedupConfig(this);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Answers triggers locally when a trigger with the same incident key was sent to a delegate
+ * recently. Use {@link PagerDuty#deduplicating} to create instances.
+ * <p>
+ * The window starts when a trigger is successfully sent and is not extended by suppressed
+ * duplicates, so a condition which keeps firing is still sent about once per window. Resolving
+ * an incident forgets its key. Triggers without an incident key are always sent. Suppressed
+ * duplicates don't restart the quiet period of {@link Trigger.Builder#autoResolveAfter}, so the
+ * window should be shorter than it.
+ */
+public final class DeduplicatingPagerDuty extends PagerDuty {
+  static final String MESSAGE_SUPPRESSED = "Duplicate trigger suppressed";
+
+  private final PagerDuty delegate;
+  private final DedupConfig config;
+  private final ConcurrentMap<String, Sent> sent = new ConcurrentHashMap<>();
+  /** Entries in the order they were sent, which is also the order they expire in. */
+  private final Queue<Sent> sendOrder = new ConcurrentLinkedQueue<>();
+  private final AtomicLong suppressedCount = new AtomicLong();
+
+  DeduplicatingPagerDuty(PagerDuty delegate, DedupConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    long now = System.nanoTime();
+    if (isDuplicate(trigger, now)) {
+      return suppressed(trigger);
+    }
+    NotifyResult result = delegate.notify(trigger);
+    onResult(trigger, result, now);
+    return result;
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    sent.remove(resolution.incident_key);
+    return delegate.notify(resolution);
+  }
+
+  @Override public void notifyAsync(final Trigger trigger, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final long now = System.nanoTime();
+    if (isDuplicate(trigger, now)) {
+      callback.onResult(suppressed(trigger));
+      return;
+    }
+    delegate.notifyAsync(trigger, new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        DeduplicatingPagerDuty.this.onResult(trigger, result, now);
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        callback.onFailure(t);
+      }
+    });
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sent.remove(resolution.incident_key);
+    delegate.notifyAsync(resolution, callback);
+  }
+
+  /** The number of triggers answered locally instead of being sent. */
+  public long suppressedCount() {
+    return suppressedCount.get();
+  }
+
+  /** The number of incident keys currently remembered. */
+  public int trackedKeyCount() {
+    return sent.size();
+  }
+
+  private boolean isDuplicate(Trigger trigger, long now) {
+    if (trigger.incident_key == null) {
+      return false;
+    }
+    Sent previous = sent.get(trigger.incident_key);
+    if (previous == null || now - previous.sentAtNanos >= config.windowNanos) {
+      return false;
+    }
+    return !config.matchDetails || previous.details.equals(trigger.details);
+  }
+
+  private NotifyResult suppressed(Trigger trigger) {
+    suppressedCount.incrementAndGet();
+    return new NotifyResult("success", MESSAGE_SUPPRESSED, trigger.incident_key);
+  }
+
+  private void onResult(Trigger trigger, NotifyResult result, long sentAtNanos) {
+    if (trigger.incident_key == null
+        || result == null
+        || result.code != 0
+        || !"success".equals(result.status())) {
+      return;
+    }
+    Sent entry = new Sent(trigger.incident_key, trigger, sentAtNanos);
+    sent.put(entry.incidentKey, entry);
+    sendOrder.add(entry);
+    evict(System.nanoTime());
+  }
+
+  /** Forget entries which have expired, and the oldest entries while over capacity. */
+  private void evict(long now) {
+    while (true) {
+      Sent oldest = sendOrder.peek();
+      if (oldest == null) {
+        return;
+      }
+      boolean expired = now - oldest.sentAtNanos >= config.windowNanos;
+      if (!expired && sent.size() <= config.maxKeys) {
+        return;
+      }
+      if (sendOrder.remove(oldest)) {
+        // A no-op if the key was sent again since; that newer entry is further back in the queue.
+        sent.remove(oldest.incidentKey, oldest);
+      }
+    }
+  }
+
+  private static final class Sent {
+    final String incidentKey;
+    final Map<String, String> details;
+    final long sentAtNanos;
+
+    Sent(String incidentKey, Trigger trigger, long sentAtNanos) {
+      this.incidentKey = incidentKey;
+      this.details = trigger.details;
+      this.sentAtNanos = sentAtNanos;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * A {@link PagerDuty} which writes every event to an on-disk outbox before sending it, so that
+ * events survive network outages and process crashes.
+ * <p>
+ * An event is removed from the outbox once the delegate returns a result which shouldn't be
+ * retried. Events which failed with an exception, were throttled, or met a server error are
+ * replayed later: immediately when the outbox is next opened, and then periodically. Delivery is
+ * therefore at-least-once. PagerDuty de-duplicates replayed events which have an incident key.
+ * <p>
+ * Create instances with {@link PagerDuty#durable}. Call {@link #close()} to stop replaying and
+ * release the outbox.
+ */
+public final class DurablePagerDuty extends PagerDuty implements Closeable {
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  private final PagerDuty delegate;
+  private final Outbox outbox;
+  /**
+   * Runs syncs, which block on the disk, and replays, which block on the delegate for as long as
+   * it takes to fail. They get their own threads, one per task, so that neither stalls the shared
+   * scheduler or the other.
+   */
+  private final ScheduledExecutorService executor;
+
+  DurablePagerDuty(PagerDuty delegate, OutboxConfig config) throws IOException {
+    this.delegate = delegate;
+    this.outbox = Outbox.open(config.directory, config.segmentSize, config.syncEvery);
+    int tasks = (config.syncIntervalMillis > 0 ? 1 : 0) + (config.replayIntervalMillis > 0 ? 1 : 0);
+    this.executor = tasks > 0
+        ? Executors.newScheduledThreadPool(tasks, new ThreadFactory() {
+            @Override public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "PagerDuty Outbox");
+              thread.setDaemon(true);
+              return thread;
+            }
+          })
+        : null;
+    if (config.syncIntervalMillis > 0) {
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override public void run() {
+          outbox.sync();
+        }
+      }, config.syncIntervalMillis, config.syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    if (config.replayIntervalMillis > 0) {
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override public void run() {
+          replay();
+        }
+      }, 0L, config.replayIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(outbox.append(trigger));
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(outbox.append(resolution));
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    sendAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sendAsync(resolution, callback);
+  }
+
+  /** The number of events in the outbox which have not been sent successfully. */
+  public int pendingCount() {
+    return outbox.pending().size();
+  }
+
+  /**
+   * Send the events in the outbox which have not been sent successfully, oldest first. Stops at
+   * the first event which fails with an exception since later events would likely fail too.
+   * Returns the number of events removed from the outbox.
+   */
+  public int replay() {
+    int replayed = 0;
+    for (Outbox.Entry entry : outbox.pending()) {
+      if (!entry.claimed.compareAndSet(false, true)) {
+        continue; // Already being sent by another thread.
+      }
+      try {
+        NotifyResult result = entry.event instanceof Trigger
+            ? delegate.notify((Trigger) entry.event)
+            : delegate.notify((Resolution) entry.event);
+        if (complete(entry, result)) {
+          replayed++;
+        }
+      } catch (IOException | RuntimeException e) {
+        entry.claimed.set(false);
+        break;
+      }
+    }
+    return replayed;
+  }
+
+  /** Sends {@code entry}, which {@link Outbox#append} returned already claimed. */
+  private NotifyResult send(Outbox.Entry entry) throws IOException {
+    NotifyResult result;
+    try {
+      result = entry.event instanceof Trigger
+          ? delegate.notify((Trigger) entry.event)
+          : delegate.notify((Resolution) entry.event);
+    } catch (IOException | RuntimeException e) {
+      entry.claimed.set(false);
+      throw e;
+    }
+    complete(entry, result);
+    return result;
+  }
+
+  private void sendAsync(Event event, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final Outbox.Entry entry;
+    try {
+      entry = outbox.append(event);
+    } catch (IOException e) {
+      callback.onFailure(e);
+      return;
+    }
+    NotifyCallback ackCallback = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        complete(entry, result);
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        entry.claimed.set(false);
+        callback.onFailure(t);
+      }
+    };
+    if (event instanceof Trigger) {
+      delegate.notifyAsync((Trigger) event, ackCallback);
+    } else {
+      delegate.notifyAsync((Resolution) event, ackCallback);
+    }
+  }
+
+  /** Acknowledges {@code entry} unless {@code result} asks for it to be sent again. */
+  private boolean complete(Outbox.Entry entry, NotifyResult result) {
+    if (result != null
+        && (result.code == HTTP_TOO_MANY_REQUESTS || result.code >= HTTP_SERVER_ERROR)) {
+      entry.claimed.set(false);
+      return false;
+    }
+    outbox.acknowledge(entry);
+    return true;
+  }
+
+  /** Stop replaying events and flush the outbox to disk. Pending events are kept for later. */
+  @Override public void close() {
+    if (executor != null) {
+      executor.shutdown(); // A replay in progress finishes; acknowledging it stays safe.
+    }
+    outbox.close();
+  }
+}
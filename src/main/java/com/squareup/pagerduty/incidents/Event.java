@@ -15,10 +15,10 @@
  */
 package com.squareup.pagerduty.incidents;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
-class Event {
+/** An incident {@link Trigger} or {@link Resolution}. */
+public class Event {
   static final String TYPE_TRIGGER = "trigger";
   static final String TYPE_RESOLVE = "resolve";
 
@@ -38,10 +38,11 @@ class Event {
     this.description = description;
     this.client = client;
     this.client_url = clientUrl;
-    this.details = new LinkedHashMap<>(details);
+    this.details = EventDetails.copyOf(details);
   }
 
-  Event withApiKey(String apiKey) {
-    return new Event(apiKey, incident_key, event_type, description, client, client_url, details);
+  /** The priority this event was built with, or null to let a {@link PriorityRouter} choose. */
+  Priority priority() {
+    return null;
   }
 }
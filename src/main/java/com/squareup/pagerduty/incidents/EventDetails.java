@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The immutable details of an {@link Event}, stored as one flat array of alternating names and
+ * values in insertion order. Details are frozen once when an event is built and then shared, as
+ * is, by everything derived from it. Lookups by name scan the array; details are meant to be
+ * written out rather than queried.
+ */
+final class EventDetails extends AbstractMap<String, String> {
+  static final EventDetails EMPTY = new EventDetails(new String[0]);
+
+  private final String[] namesAndValues;
+  private int hashCode;
+
+  private EventDetails(String[] namesAndValues) {
+    this.namesAndValues = namesAndValues;
+  }
+
+  /** Returns {@code details} if it is already frozen, or a frozen copy of it. */
+  static EventDetails copyOf(Map<String, String> details) {
+    if (details instanceof EventDetails) {
+      return (EventDetails) details;
+    }
+    if (details.isEmpty()) {
+      return EMPTY;
+    }
+    String[] namesAndValues = new String[details.size() * 2];
+    int i = 0;
+    for (Map.Entry<String, String> detail : details.entrySet()) {
+      namesAndValues[i++] = detail.getKey();
+      namesAndValues[i++] = detail.getValue();
+    }
+    return new EventDetails(namesAndValues);
+  }
+
+  @Override public int size() {
+    return namesAndValues.length / 2;
+  }
+
+  /** The name of the detail at {@code index}, in insertion order. */
+  String name(int index) {
+    return namesAndValues[index * 2];
+  }
+
+  /** The value of the detail at {@code index}, in insertion order. */
+  String value(int index) {
+    return namesAndValues[index * 2 + 1];
+  }
+
+  @Override public String get(Object name) {
+    int index = indexOf(name);
+    return index != -1 ? value(index) : null;
+  }
+
+  @Override public boolean containsKey(Object name) {
+    return indexOf(name) != -1;
+  }
+
+  private int indexOf(Object name) {
+    for (int i = 0, size = size(); i < size; i++) {
+      String candidate = name(i);
+      if (name == null ? candidate == null : name.equals(candidate)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override public int size() {
+        return EventDetails.this.size();
+      }
+
+      @Override public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next;
+
+          @Override public boolean hasNext() {
+            return next < size();
+          }
+
+          @Override public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int index = next++;
+            return new AbstractMap.SimpleImmutableEntry<>(name(index), value(index));
+          }
+
+          @Override public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  @Override public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (other instanceof EventDetails
+        && Arrays.equals(namesAndValues, ((EventDetails) other).namesAndValues)) {
+      return true;
+    }
+    return super.equals(other);
+  }
+
+  @Override public int hashCode() {
+    int result = hashCode;
+    if (result == 0) {
+      result = super.hashCode();
+      hashCode = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Hand-written JSON encoding of {@link Event} and decoding of {@link NotifyResult}.
+ * <p>
+ * Events are written field by field directly into the destination sink, so encoding allocates
+ * nothing beyond what the sink itself needs. Like Gson, null fields and null detail values are
+ * omitted. Results are read with a small streaming parser which ignores unknown fields.
+ */
+final class EventJson {
+  static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+  static final ByteString SERVICE_KEY = ByteString.encodeUtf8("\"service_key\":");
+  static final ByteString INCIDENT_KEY = ByteString.encodeUtf8("\"incident_key\":");
+  private static final ByteString EVENT_TYPE = ByteString.encodeUtf8("\"event_type\":");
+  private static final ByteString DESCRIPTION = ByteString.encodeUtf8("\"description\":");
+  static final ByteString CLIENT = ByteString.encodeUtf8("\"client\":");
+  static final ByteString CLIENT_URL = ByteString.encodeUtf8("\"client_url\":");
+  static final ByteString DETAILS = ByteString.encodeUtf8("\"details\":{");
+
+  private static final ByteString QUOTE_OR_BACKSLASH = ByteString.encodeUtf8("\"\\");
+  private static final ByteString LITERAL_END = ByteString.encodeUtf8(",}] \t\r\n");
+  private static final char ONE_BYTE_LIMIT = 0x80;
+  private static final char TWO_BYTE_LIMIT = 0x800;
+  private static final int THREE_BYTES = 3;
+  private static final int FOUR_BYTES = 4;
+  private static final char FIRST_PRINTABLE = 0x20;
+  private static final char LINE_SEPARATOR = '\u2028';
+  private static final char PARAGRAPH_SEPARATOR = '\u2029';
+  private static final int HEX_DIGITS = 4;
+  private static final int HEX_RADIX = 16;
+  private static final String[] REPLACEMENTS = new String[ONE_BYTE_LIMIT];
+  static {
+    for (int i = 0; i < FIRST_PRINTABLE; i++) {
+      REPLACEMENTS[i] = String.format("\\u%04x", i);
+    }
+    REPLACEMENTS['"'] = "\\\"";
+    REPLACEMENTS['\\'] = "\\\\";
+    REPLACEMENTS['\t'] = "\\t";
+    REPLACEMENTS['\b'] = "\\b";
+    REPLACEMENTS['\n'] = "\\n";
+    REPLACEMENTS['\r'] = "\\r";
+    REPLACEMENTS['\f'] = "\\f";
+  }
+  private static final String LINE_SEPARATOR_REPLACEMENT = "\\u2028";
+  private static final String PARAGRAPH_SEPARATOR_REPLACEMENT = "\\u2029";
+
+  private EventJson() {
+    throw new AssertionError("No instances.");
+  }
+
+  /** Writes {@code event} as JSON to {@code sink}. */
+  static void write(Event event, BufferedSink sink) throws IOException {
+    writeEvent(null, event, sink);
+  }
+
+  /**
+   * Writes {@code event} as JSON to {@code sink} with {@code serviceKey} in place of the event's
+   * own service key. This is how API keys are attached to events as they are sent.
+   */
+  static void write(String serviceKey, Event event, BufferedSink sink) throws IOException {
+    writeEvent(serviceKey, event, sink);
+  }
+
+  /** The number of bytes {@link #write(Event, BufferedSink)} produces for {@code event}. */
+  static long byteCount(Event event) {
+    return byteCount(null, event);
+  }
+
+  /** The number of bytes {@link #write(String, Event, BufferedSink)} produces. */
+  static long byteCount(String serviceKey, Event event) {
+    try {
+      return writeEvent(serviceKey, event, null);
+    } catch (IOException e) {
+      throw new AssertionError(e); // Counting doesn't perform I/O.
+    }
+  }
+
+  /** Writes {@code event} to {@code sink}, or only counts its bytes if {@code sink} is null. */
+  private static long writeEvent(String serviceKey, Event event, BufferedSink sink)
+      throws IOException {
+    if (event instanceof Trigger && ((Trigger) event).template != null) {
+      return ((Trigger) event).template.write(serviceKey, (Trigger) event, sink);
+    }
+    long byteCount = 1L;
+    if (sink != null) {
+      sink.writeByte('{');
+    }
+    boolean first = true;
+    String key = serviceKey != null ? serviceKey : event.service_key;
+    if (key != null) {
+      byteCount += field(sink, SERVICE_KEY, key, first);
+      first = false;
+    }
+    if (event.incident_key != null) {
+      byteCount += field(sink, INCIDENT_KEY, event.incident_key, first);
+      first = false;
+    }
+    if (event.event_type != null) {
+      byteCount += field(sink, EVENT_TYPE, event.event_type, first);
+      first = false;
+    }
+    if (event.description != null) {
+      byteCount += field(sink, DESCRIPTION, event.description, first);
+      first = false;
+    }
+    if (event.client != null) {
+      byteCount += field(sink, CLIENT, event.client, first);
+      first = false;
+    }
+    if (event.client_url != null) {
+      byteCount += field(sink, CLIENT_URL, event.client_url, first);
+      first = false;
+    }
+    if (event.details != null) {
+      if (!first) {
+        byteCount++;
+        if (sink != null) {
+          sink.writeByte(',');
+        }
+      }
+      byteCount += DETAILS.size();
+      if (sink != null) {
+        sink.write(DETAILS);
+      }
+      boolean firstDetail = true;
+      EventDetails details = EventDetails.copyOf(event.details);
+      for (int i = 0, size = details.size(); i < size; i++) {
+        String value = details.value(i);
+        if (value == null) {
+          continue;
+        }
+        if (!firstDetail) {
+          byteCount++;
+          if (sink != null) {
+            sink.writeByte(',');
+          }
+        }
+        byteCount += string(sink, details.name(i)) + 1;
+        if (sink != null) {
+          sink.writeByte(':');
+        }
+        byteCount += string(sink, value);
+        firstDetail = false;
+      }
+      byteCount++;
+      if (sink != null) {
+        sink.writeByte('}');
+      }
+    }
+    byteCount++;
+    if (sink != null) {
+      sink.writeByte('}');
+    }
+    return byteCount;
+  }
+
+  private static long field(BufferedSink sink, ByteString name, String value, boolean first)
+      throws IOException {
+    long byteCount = name.size();
+    if (sink != null) {
+      if (!first) {
+        sink.writeByte(',');
+      }
+      sink.write(name);
+    }
+    if (!first) {
+      byteCount++;
+    }
+    return byteCount + string(sink, value);
+  }
+
+  /** Writes {@code value} as a quoted and escaped JSON string, returning its size in bytes. */
+  static long string(BufferedSink sink, String value) throws IOException {
+    long byteCount = 2L;
+    if (sink != null) {
+      sink.writeByte('"');
+    }
+    int last = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      String replacement;
+      if (c < REPLACEMENTS.length) {
+        replacement = REPLACEMENTS[c];
+        if (replacement == null) {
+          continue;
+        }
+      } else if (c == LINE_SEPARATOR) {
+        replacement = LINE_SEPARATOR_REPLACEMENT;
+      } else if (c == PARAGRAPH_SEPARATOR) {
+        replacement = PARAGRAPH_SEPARATOR_REPLACEMENT;
+      } else {
+        continue;
+      }
+      byteCount += utf8Length(value, last, i) + replacement.length();
+      if (sink != null) {
+        sink.writeUtf8(value, last, i);
+        sink.writeUtf8(replacement);
+      }
+      last = i + 1;
+    }
+    byteCount += utf8Length(value, last, length);
+    if (sink != null) {
+      sink.writeUtf8(value, last, length);
+      sink.writeByte('"');
+    }
+    return byteCount;
+  }
+
+  /** The number of bytes needed to encode {@code s[begin..end)} as UTF-8, like Okio does. */
+  static long utf8Length(String s, int begin, int end) {
+    long result = 0;
+    int i = begin;
+    while (i < end) {
+      char c = s.charAt(i);
+      if (c < ONE_BYTE_LIMIT) {
+        result++;
+      } else if (c < TWO_BYTE_LIMIT) {
+        result += 2;
+      } else if (!Character.isSurrogate(c)) {
+        result += THREE_BYTES;
+      } else if (Character.isHighSurrogate(c) && i + 1 < end
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        result += FOUR_BYTES;
+        i++;
+      } else {
+        result++; // Okio replaces a malformed surrogate with '?'.
+      }
+      i++;
+    }
+    return result;
+  }
+
+  /** Reads a {@link NotifyResult} from a JSON object, ignoring fields it doesn't know. */
+  static NotifyResult readResult(BufferedSource source) throws IOException {
+    String status = null;
+    String message = null;
+    String incidentKey = null;
+    List<String> errors = null;
+
+    expect(source, '{');
+    if (peek(source) == '}') {
+      source.skip(1);
+    } else {
+      while (true) {
+        String name = readString(source);
+        expect(source, ':');
+        switch (name) {
+          case "status":
+            status = readScalar(source);
+            break;
+          case "message":
+            message = readScalar(source);
+            break;
+          case "incident_key":
+            incidentKey = readScalar(source);
+            break;
+          case "errors":
+            errors = readStringArray(source);
+            break;
+          default:
+            skipValue(source);
+            break;
+        }
+        if (!nextElement(source, '}')) {
+          break;
+        }
+      }
+    }
+    return new NotifyResult(status, message, incidentKey, errors, 0, 0L);
+  }
+
+  /**
+   * Consumes a separator after an element. Returns true if another element follows, or false if
+   * {@code close} ended the enclosing object or array.
+   */
+  private static boolean nextElement(BufferedSource source, char close) throws IOException {
+    byte b = peek(source);
+    source.skip(1);
+    if (b == ',') {
+      return true;
+    }
+    if (b == close) {
+      return false;
+    }
+    throw syntaxError("Expected ',' or '" + close + "' but was '" + (char) b + "'");
+  }
+
+  private static List<String> readStringArray(BufferedSource source) throws IOException {
+    if (peek(source) != '[') {
+      return readLiteral(source) == null ? null : new ArrayList<String>();
+    }
+    source.skip(1);
+    List<String> result = new ArrayList<>();
+    if (peek(source) == ']') {
+      source.skip(1);
+      return result;
+    }
+    do {
+      result.add(readScalar(source));
+    } while (nextElement(source, ']'));
+    return result;
+  }
+
+  /** Reads a string, number, boolean, or null as a string. */
+  private static String readScalar(BufferedSource source) throws IOException {
+    return peek(source) == '"' ? readString(source) : readLiteral(source);
+  }
+
+  /** Reads an unquoted literal, returning null for JSON's {@code null}. */
+  private static String readLiteral(BufferedSource source) throws IOException {
+    long end = source.indexOfElement(LITERAL_END);
+    String literal = end != -1 ? source.readUtf8(end) : source.readUtf8();
+    if (literal.isEmpty()) {
+      throw syntaxError("Expected a value");
+    }
+    return "null".equals(literal) ? null : literal;
+  }
+
+  private static String readString(BufferedSource source) throws IOException {
+    expect(source, '"');
+    StringBuilder builder = null;
+    while (true) {
+      long index = source.indexOfElement(QUOTE_OR_BACKSLASH);
+      if (index == -1) {
+        throw new EOFException("Unterminated string");
+      }
+      if (source.buffer().getByte(index) == '"') {
+        String chunk = source.readUtf8(index);
+        source.skip(1);
+        if (builder == null) {
+          return chunk;
+        }
+        return builder.append(chunk).toString();
+      }
+      if (builder == null) {
+        builder = new StringBuilder();
+      }
+      builder.append(source.readUtf8(index));
+      source.skip(1);
+      builder.append(readEscape(source));
+    }
+  }
+
+  private static char readEscape(BufferedSource source) throws IOException {
+    byte escaped = source.readByte();
+    switch (escaped) {
+      case 'u':
+        return (char) Integer.parseInt(source.readUtf8(HEX_DIGITS), HEX_RADIX);
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      case '"':
+      case '\\':
+      case '/':
+      case '\'':
+        return (char) escaped;
+      default:
+        throw syntaxError("Invalid escape sequence: \\" + (char) escaped);
+    }
+  }
+
+  private static void skipValue(BufferedSource source) throws IOException {
+    switch (peek(source)) {
+      case '"':
+        readString(source);
+        break;
+      case '[':
+        source.skip(1);
+        if (peek(source) == ']') {
+          source.skip(1);
+          break;
+        }
+        do {
+          skipValue(source);
+        } while (nextElement(source, ']'));
+        break;
+      case '{':
+        source.skip(1);
+        if (peek(source) == '}') {
+          source.skip(1);
+          break;
+        }
+        do {
+          readString(source);
+          expect(source, ':');
+          skipValue(source);
+        } while (nextElement(source, '}'));
+        break;
+      default:
+        readLiteral(source);
+        break;
+    }
+  }
+
+  private static void expect(BufferedSource source, char expected) throws IOException {
+    byte b = peek(source);
+    if (b != expected) {
+      throw syntaxError("Expected '" + expected + "' but was '" + (char) b + "'");
+    }
+    source.skip(1);
+  }
+
+  /** Skips whitespace and returns the next byte without consuming it. */
+  private static byte peek(BufferedSource source) throws IOException {
+    while (true) {
+      source.require(1);
+      byte b = source.buffer().getByte(0);
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        return b;
+      }
+      source.skip(1);
+    }
+  }
+
+  private static IOException syntaxError(String message) {
+    return new IOException("Malformed JSON: " + message);
+  }
+}
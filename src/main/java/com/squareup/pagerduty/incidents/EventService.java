@@ -15,15 +15,19 @@
  */
 package com.squareup.pagerduty.incidents;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.POST;
 
 /**
+ * Request bodies are events encoded by {@link PagerDutyConverterFactory.EventRequestBody}, which
+ * writes the API key as the event is sent rather than copying the event to attach it.
+ *
  * @see <a href="http://developer.pagerduty.com/documentation/integration/events">PagerDuty
  * documentation</a>.
  */
 interface EventService {
-  @POST("/generic/2010-04-15/create_event.json") //
-  Call<NotifyResult> notify(@Body Event event);
+  @POST(EventTransport.PATH) //
+  Call<NotifyResult> notify(@Body RequestBody event);
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
+
+/**
+ * Carries encoded events to PagerDuty and its responses back. {@link PagerDuty} instances send
+ * through a transport so that the HTTP stack can be chosen independently of the API.
+ * <p>
+ * {@link PagerDuty#create(String)} and {@link PagerDutyClient} send through Retrofit and OkHttp.
+ * {@link #jdk()} sends through the JDK's built-in {@link java.net.HttpURLConnection} and the
+ * hand-written JSON codec alone, which suits short-lived processes that page once and exit:
+ * <pre>{@code
+ * PagerDuty pagerDuty = PagerDuty.create("API key", EventTransport.jdk());
+ * }</pre>
+ * Neither Retrofit, OkHttp, nor Gson is loaded on that path and nothing is done reflectively, so it
+ * also works in native images without reflection configuration.
+ */
+public abstract class EventTransport {
+  static final String PATH = "/generic/2010-04-15/create_event.json";
+
+  private volatile AutoResolver autoResolver;
+
+  EventTransport() {
+  }
+
+  /** A transport which sends to {@link PagerDuty#HOST} through {@code HttpURLConnection}. */
+  public static EventTransport jdk() {
+    return jdk(PagerDuty.HOST);
+  }
+
+  /** A transport which sends to the server at {@code baseUrl} through {@code HttpURLConnection}. */
+  public static EventTransport jdk(String baseUrl) {
+    checkStringArgument(baseUrl, "baseUrl");
+
+    String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    URL url;
+    try {
+      url = new URL(base + PATH);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("'baseUrl' must be an HTTP URL. Was: " + baseUrl, e);
+    }
+    checkArgument("http".equals(url.getProtocol()) || "https".equals(url.getProtocol()),
+        "'baseUrl' must be an HTTP URL. Was: " + baseUrl);
+    return new JdkEventTransport(url);
+  }
+
+  /** Send {@code event} with {@code serviceKey} attached and return the result. */
+  abstract NotifyResult send(String serviceKey, Event event) throws IOException;
+
+  /**
+   * Send {@code event} with {@code serviceKey} attached without blocking the calling thread, and
+   * deliver the outcome to {@code callback}.
+   */
+  abstract void sendAsync(String serviceKey, Event event, NotifyCallback callback);
+
+  /**
+   * The timer which resolves incidents triggered through this transport with
+   * {@link Trigger.Builder#autoResolveAfter}, created when first needed.
+   */
+  AutoResolver autoResolver() {
+    AutoResolver result = autoResolver;
+    if (result == null) {
+      synchronized (this) {
+        result = autoResolver;
+        if (result == null) {
+          result = new AutoResolver(this, AutoResolver.TICK_NANOS, AutoResolver.WHEEL_SIZE);
+          autoResolver = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Like {@link #autoResolver()}, but returns null instead of creating one. */
+  AutoResolver autoResolverIfStarted() {
+    return autoResolver;
+  }
+
+  /**
+   * Returns the result for an unsuccessful response. {@code decoded} is the error document from
+   * the response body, or null if it had none that could be read.
+   */
+  static NotifyResult errorResult(Event event, int code, String message, NotifyResult decoded,
+      long retryAfterMillis) {
+    NotifyResult error = decoded;
+    if (error == null || error.status() == null) {
+      String description = "HTTP " + code + " " + (message != null ? message : "");
+      error = new NotifyResult("error", description.trim(), event.incident_key);
+    }
+    return error.withResponse(code, retryAfterMillis);
+  }
+
+  /**
+   * Parses a {@code Retry-After} header in either its delay-seconds or HTTP-date form.
+   * {@code dateMillis} is the header already parsed as an HTTP-date, or -1 if it isn't one.
+   */
+  static long retryAfterMillis(String retryAfter, long dateMillis) {
+    if (retryAfter == null) {
+      return 0L;
+    }
+    try {
+      return Math.max(0L, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+    } catch (NumberFormatException e) {
+      return dateMillis != -1L ? Math.max(0L, dateMillis - System.currentTimeMillis()) : 0L;
+    }
+  }
+}
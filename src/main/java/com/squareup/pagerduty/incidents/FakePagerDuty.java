@@ -15,19 +15,43 @@
  */
 package com.squareup.pagerduty.incidents;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
 import static java.util.Collections.unmodifiableMap;
 
 /**
  * A fake implementation of {@link PagerDuty} that keeps track of open and closed incidents in
  * memory.
+ * <p>
+ * This class is safe for use by many threads. Notifications for different incident keys never
+ * contend with each other, and taking a snapshot doesn't block notifications. Each incident
+ * appears in exactly one snapshot state, but a snapshot taken while notifications are in flight
+ * may or may not reflect them.
  */
 public final class FakePagerDuty extends PagerDuty {
-  private final Map<String, String> openIncidents;
-  private final Map<String, String> closedIncidents;
+  private static final Comparator<Map.Entry<String, Incident>> BY_SEQUENCE =
+      new Comparator<Map.Entry<String, Incident>>() {
+        @Override public int compare(Map.Entry<String, Incident> a, Map.Entry<String, Incident> b) {
+          long x = a.getValue().sequence;
+          long y = b.getValue().sequence;
+          return x < y ? -1 : (x == y ? 0 : 1);
+        }
+      };
+
+  /** Open and closed incidents in one map so that moving between them is a single swap. */
+  private final ConcurrentMap<String, Incident> incidents = new ConcurrentHashMap<>();
+  /** Orders snapshots by when each incident entered its current state. */
+  private final AtomicLong sequence = new AtomicLong();
   private final Random random;
 
   public FakePagerDuty() {
@@ -35,8 +59,6 @@ public final class FakePagerDuty extends PagerDuty {
   }
 
   public FakePagerDuty(Random random) {
-    openIncidents = new LinkedHashMap<>();
-    closedIncidents = new LinkedHashMap<>();
     this.random = random;
   }
 
@@ -45,10 +67,16 @@ public final class FakePagerDuty extends PagerDuty {
     if (incidentKey == null) {
       incidentKey = "incident-" + random.nextLong();
     }
-    synchronized (this) {
-      closedIncidents.remove(incidentKey);
-      if (!openIncidents.containsKey(incidentKey)) {
-        openIncidents.put(incidentKey, trigger.description);
+    while (true) {
+      Incident current = incidents.get(incidentKey);
+      if (current != null && current.open) {
+        break; // Already open. Keep the first description.
+      }
+      Incident opened = new Incident(trigger.description, true, sequence.incrementAndGet());
+      if (current == null
+          ? incidents.putIfAbsent(incidentKey, opened) == null
+          : incidents.replace(incidentKey, current, opened)) {
+        break;
       }
     }
     return new NotifyResult("success", "Event recorded", incidentKey);
@@ -56,34 +84,72 @@ public final class FakePagerDuty extends PagerDuty {
 
   @Override public NotifyResult notify(Resolution resolution) {
     String incidentKey = resolution.incident_key;
-    synchronized (this) {
-      String description = openIncidents.remove(incidentKey);
-      if (description != null) {
-        closedIncidents.put(incidentKey, description);
+    while (true) {
+      Incident current = incidents.get(incidentKey);
+      if (current == null || !current.open) {
+        break;
+      }
+      Incident closed = new Incident(current.description, false, sequence.incrementAndGet());
+      if (incidents.replace(incidentKey, current, closed)) {
+        break;
       }
     }
     return new NotifyResult("success", "Event recorded", incidentKey);
   }
 
+  /** Records {@code trigger} immediately and invokes {@code callback} on the calling thread. */
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    callback.onResult(notify(trigger));
+  }
+
+  /** Records {@code resolution} immediately and invokes {@code callback} on the calling thread. */
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    callback.onResult(notify(resolution));
+  }
+
   /** A snapshot of the current open incidents and their descriptions. */
   public Map<String, String> openIncidents() {
-    synchronized (this) {
-      return unmodifiableMap(new LinkedHashMap<>(openIncidents));
-    }
+    return snapshot(true);
   }
 
   /** A snapshot of the current closed incidents and their descriptions. */
   public Map<String, String> closedIncidents() {
-    synchronized (this) {
-      return unmodifiableMap(new LinkedHashMap<>(closedIncidents));
-    }
+    return snapshot(false);
   }
 
   /** Clear open and closed incidents. */
   public void clearIncidents() {
-    synchronized (this) {
-      openIncidents.clear();
-      closedIncidents.clear();
+    incidents.clear();
+  }
+
+  private Map<String, String> snapshot(boolean open) {
+    List<Map.Entry<String, Incident>> entries = new ArrayList<>();
+    for (Map.Entry<String, Incident> entry : incidents.entrySet()) {
+      if (entry.getValue().open == open) {
+        entries.add(entry);
+      }
+    }
+    Collections.sort(entries, BY_SEQUENCE);
+
+    Map<String, String> snapshot = new LinkedHashMap<>();
+    for (Map.Entry<String, Incident> entry : entries) {
+      snapshot.put(entry.getKey(), entry.getValue().description);
+    }
+    return unmodifiableMap(snapshot);
+  }
+
+  /** The immutable state of one incident. Replaced, never mutated, on each transition. */
+  private static final class Incident {
+    final String description;
+    final boolean open;
+    final long sequence;
+
+    Incident(String description, boolean open, long sequence) {
+      this.description = description;
+      this.open = open;
+      this.sequence = sequence;
     }
   }
 }
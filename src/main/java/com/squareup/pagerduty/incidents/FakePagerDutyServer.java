@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * A local HTTP server which emulates the PagerDuty events API on top of a {@link FakePagerDuty}.
+ * Point a {@link PagerDuty} created with {@link PagerDuty#create(String, retrofit2.Retrofit)} at
+ * {@link #url()} to exercise the real HTTP client end to end without a PagerDuty account.
+ * <p>
+ * The server can be configured to delay responses, fail with server errors, throttle with
+ * {@code 429 Too Many Requests}, and reset connections, each with a given probability.
+ * <pre>{@code
+ * FakePagerDutyServer server = new FakePagerDutyServer.Builder()
+ *     .latency(FakePagerDutyServer.Latency.exponential(20, TimeUnit.MILLISECONDS))
+ *     .throttleRate(0.01)
+ *     .start();
+ * Retrofit retrofit = new Retrofit.Builder()
+ *     .baseUrl(server.url())
+ *     .addConverterFactory(GsonConverterFactory.create())
+ *     .build();
+ * PagerDuty pagerDuty = PagerDuty.create(apiKey, retrofit);
+ * }</pre>
+ */
+public final class FakePagerDutyServer implements Closeable {
+  static final String PATH = EventTransport.PATH;
+
+  private static final int HTTP_OK = 200;
+  private static final int HTTP_BAD_REQUEST = 400;
+  private static final int HTTP_NOT_FOUND = 404;
+  private static final int HTTP_BAD_METHOD = 405;
+  private static final int HTTP_LENGTH_REQUIRED = 411;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_INTERNAL_ERROR = 500;
+  private static final int HEX = 16;
+  private static final int REQUEST_LINE_PARTS = 3;
+  /** Stands in for a Content-Length header that isn't a non-negative number. */
+  private static final long MALFORMED_LENGTH = -2L;
+
+  private final FakePagerDuty pagerDuty;
+  private final Latency latency;
+  private final double errorRate;
+  private final double throttleRate;
+  private final long retryAfterSeconds;
+  private final double resetRate;
+  private final Random random;
+  private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final Set<Socket> sockets =
+      Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+  private volatile boolean closed;
+
+  private final AtomicLong connectionCount = new AtomicLong();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong errorCount = new AtomicLong();
+  private final AtomicLong throttleCount = new AtomicLong();
+  private final AtomicLong resetCount = new AtomicLong();
+
+  FakePagerDutyServer(Builder builder) throws IOException {
+    this.pagerDuty = builder.pagerDuty != null ? builder.pagerDuty : new FakePagerDuty();
+    this.latency = builder.latency;
+    this.errorRate = builder.errorRate;
+    this.throttleRate = builder.throttleRate;
+    this.retryAfterSeconds = builder.retryAfterSeconds;
+    this.resetRate = builder.resetRate;
+    this.random = builder.random != null ? builder.random : new Random();
+
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), builder.port));
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override public Thread newThread(Runnable runnable) {
+        Thread thread =
+            new Thread(runnable, "FakePagerDutyServer " + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        acceptConnections();
+      }
+    });
+  }
+
+  /** The base URL of this server, suitable for {@code Retrofit.Builder.baseUrl}. */
+  public String url() {
+    return "http://127.0.0.1:" + port() + "/";
+  }
+
+  /** The local port this server is listening on. */
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** The fake which records the incidents triggered and resolved through this server. */
+  public FakePagerDuty pagerDuty() {
+    return pagerDuty;
+  }
+
+  /** The number of connections accepted. */
+  public long connectionCount() {
+    return connectionCount.get();
+  }
+
+  /** The number of requests received, including those answered with an error or reset. */
+  public long requestCount() {
+    return requestCount.get();
+  }
+
+  /** The number of requests answered with a simulated server error. */
+  public long errorCount() {
+    return errorCount.get();
+  }
+
+  /** The number of requests answered with {@code 429 Too Many Requests}. */
+  public long throttleCount() {
+    return throttleCount.get();
+  }
+
+  /** The number of requests answered by resetting the connection. */
+  public long resetCount() {
+    return resetCount.get();
+  }
+
+  /** Stop accepting connections and close any open ones. */
+  @Override public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+    for (Socket socket : sockets) {
+      closeQuietly(socket);
+    }
+    executor.shutdown();
+  }
+
+  private void acceptConnections() {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        return; // Closed.
+      }
+      connectionCount.incrementAndGet();
+      sockets.add(socket);
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            serveConnection(socket);
+          } catch (IOException ignored) {
+            // The client went away.
+          } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+          }
+        }
+      });
+    }
+  }
+
+  private void serveConnection(Socket socket) throws IOException {
+    socket.setTcpNoDelay(true);
+    BufferedSource source = Okio.buffer(Okio.source(socket));
+    BufferedSink sink = Okio.buffer(Okio.sink(socket));
+
+    while (!closed) {
+      String requestLine;
+      try {
+        requestLine = source.readUtf8LineStrict();
+      } catch (EOFException e) {
+        return; // The client closed an idle connection.
+      }
+      if (requestLine.isEmpty()) {
+        continue;
+      }
+
+      long contentLength = -1L;
+      boolean chunked = false;
+      boolean keepAlive = !requestLine.endsWith("HTTP/1.0");
+      while (true) {
+        String header = source.readUtf8LineStrict();
+        if (header.isEmpty()) {
+          break;
+        }
+        int colon = header.indexOf(':');
+        if (colon == -1) {
+          continue;
+        }
+        String name = header.substring(0, colon).trim();
+        String value = header.substring(colon + 1).trim();
+        if ("Content-Length".equalsIgnoreCase(name)) {
+          contentLength = parseContentLength(value);
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+          chunked = "chunked".equalsIgnoreCase(value);
+        } else if ("Connection".equalsIgnoreCase(name)) {
+          keepAlive = !"close".equalsIgnoreCase(value);
+        }
+      }
+
+      Buffer body = new Buffer();
+      if (chunked) {
+        if (!readChunkedBody(source, body)) {
+          respond(sink, HTTP_BAD_REQUEST, "Bad Request", result("invalid request", null), 0L);
+          return; // The rest of the body can't be framed.
+        }
+      } else if (contentLength == MALFORMED_LENGTH) {
+        respond(sink, HTTP_BAD_REQUEST, "Bad Request", result("invalid request", null), 0L);
+        return; // The body can't be framed.
+      } else if (contentLength > 0) {
+        source.readFully(body, contentLength);
+      }
+      requestCount.incrementAndGet();
+
+      String[] parts = requestLine.split(" ", -1); // Method, target, and version.
+      if (parts.length != REQUEST_LINE_PARTS) {
+        respond(sink, HTTP_BAD_REQUEST, "Bad Request", result("invalid request", null), 0L);
+        return;
+      }
+      if (!PATH.equals(parts[1])) {
+        // Answer HEAD with headers only, as clients warming up a connection expect.
+        respond(sink, HTTP_NOT_FOUND, "Not Found", result("not found", null), 0L,
+            !"HEAD".equals(parts[0]));
+      } else if (!"POST".equals(parts[0])) {
+        respond(sink, HTTP_BAD_METHOD, "Method Not Allowed", result("invalid method", null), 0L);
+      } else if (!chunked && contentLength == -1L) {
+        respond(sink, HTTP_LENGTH_REQUIRED, "Length Required", result("invalid request", null),
+            0L);
+      } else if (!serveEvent(socket, sink, body.readUtf8())) {
+        return; // Reset.
+      }
+      if (!keepAlive) {
+        return;
+      }
+    }
+  }
+
+  /** Answers one event. Returns false if the connection was reset instead. */
+  private boolean serveEvent(Socket socket, BufferedSink sink, String body) throws IOException {
+    sleep(latency.nanos(random));
+
+    double roll = random.nextDouble();
+    if (roll < resetRate) {
+      resetCount.incrementAndGet();
+      socket.setSoLinger(true, 0); // Closing now sends a TCP RST.
+      return false;
+    }
+    roll -= resetRate;
+    if (roll < throttleRate) {
+      throttleCount.incrementAndGet();
+      respond(sink, HTTP_TOO_MANY_REQUESTS, "Too Many Requests",
+          result("throttle exceeded", null), retryAfterSeconds);
+      return true;
+    }
+    roll -= throttleRate;
+    if (roll < errorRate) {
+      errorCount.incrementAndGet();
+      respond(sink, HTTP_INTERNAL_ERROR, "Internal Server Error",
+          result("internal server error", null), 0L);
+      return true;
+    }
+
+    List<String> errors = new ArrayList<>();
+    NotifyResult result = handle(body, errors);
+    if (result == null) {
+      respond(sink, HTTP_BAD_REQUEST, "Bad Request",
+          new NotifyResult("invalid event", "Event object is invalid", null, errors, 0, 0L), 0L);
+    } else {
+      respond(sink, HTTP_OK, "OK", result, 0L);
+    }
+    return true;
+  }
+
+  /** Applies the event in {@code body} to the fake, or returns null and fills {@code errors}. */
+  private NotifyResult handle(String body, List<String> errors) {
+    JsonObject event;
+    try {
+      JsonElement element = new JsonParser().parse(body);
+      if (!element.isJsonObject()) {
+        errors.add("Event object is not a JSON object");
+        return null;
+      }
+      event = element.getAsJsonObject();
+    } catch (JsonParseException e) {
+      errors.add("Malformed JSON: " + e.getMessage());
+      return null;
+    }
+
+    String serviceKey = string(event, "service_key");
+    String eventType = string(event, "event_type");
+    String incidentKey = string(event, "incident_key");
+    String description = string(event, "description");
+    if (serviceKey == null || serviceKey.trim().isEmpty()) {
+      errors.add("'service_key' is missing or blank");
+    }
+    if (Event.TYPE_TRIGGER.equals(eventType)) {
+      if (description == null || description.trim().isEmpty()) {
+        errors.add("'description' is missing or blank");
+      }
+    } else if (Event.TYPE_RESOLVE.equals(eventType) || "acknowledge".equals(eventType)) {
+      if (incidentKey == null || incidentKey.trim().isEmpty()) {
+        errors.add("'incident_key' is missing or blank");
+      }
+    } else {
+      errors.add("'event_type' must be one of trigger, acknowledge, resolve");
+    }
+    if (!errors.isEmpty()) {
+      return null;
+    }
+
+    if (Event.TYPE_TRIGGER.equals(eventType)) {
+      Trigger.Builder trigger = new Trigger.Builder(description);
+      if (incidentKey != null) {
+        trigger.withIncidentKey(incidentKey);
+      }
+      String client = string(event, "client");
+      if (client != null) {
+        trigger.client(client);
+      }
+      String clientUrl = string(event, "client_url");
+      if (clientUrl != null) {
+        trigger.clientUrl(clientUrl);
+      }
+      addDetails(event, trigger, null);
+      return pagerDuty.notify(trigger.build());
+    }
+    if (Event.TYPE_RESOLVE.equals(eventType)) {
+      Resolution.Builder resolution = new Resolution.Builder(incidentKey);
+      if (description != null) {
+        resolution.withDescription(description);
+      }
+      addDetails(event, null, resolution);
+      return pagerDuty.notify(resolution.build());
+    }
+    return new NotifyResult("success", "Event processed", incidentKey);
+  }
+
+  private static void addDetails(JsonObject event, Trigger.Builder trigger,
+      Resolution.Builder resolution) {
+    JsonElement details = event.get("details");
+    if (details == null || !details.isJsonObject()) {
+      return;
+    }
+    for (Map.Entry<String, JsonElement> entry : details.getAsJsonObject().entrySet()) {
+      JsonElement value = entry.getValue();
+      if (value.isJsonNull()) {
+        continue;
+      }
+      String string = value.isJsonPrimitive() ? value.getAsString() : value.toString();
+      if (trigger != null) {
+        trigger.addDetails(entry.getKey(), string);
+      } else {
+        resolution.addDetails(entry.getKey(), string);
+      }
+    }
+  }
+
+  private static String string(JsonObject object, String name) {
+    JsonElement element = object.get(name);
+    return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+  }
+
+  private NotifyResult result(String status, String incidentKey) {
+    return new NotifyResult(status, status, incidentKey);
+  }
+
+  private void respond(BufferedSink sink, int code, String reason, NotifyResult result,
+      long retryAfterSeconds) throws IOException {
+    respond(sink, code, reason, result, retryAfterSeconds, true);
+  }
+
+  private void respond(BufferedSink sink, int code, String reason, NotifyResult result,
+      long retryAfterSeconds, boolean includeBody) throws IOException {
+    Buffer body = new Buffer().writeUtf8(gson.toJson(result));
+    sink.writeUtf8("HTTP/1.1 ").writeUtf8(Integer.toString(code)).writeUtf8(" ")
+        .writeUtf8(reason).writeUtf8("\r\n");
+    sink.writeUtf8("Content-Type: application/json\r\n");
+    sink.writeUtf8("Content-Length: ").writeUtf8(Long.toString(body.size())).writeUtf8("\r\n");
+    if (retryAfterSeconds > 0L) {
+      sink.writeUtf8("Retry-After: ").writeUtf8(Long.toString(retryAfterSeconds))
+          .writeUtf8("\r\n");
+    }
+    sink.writeUtf8("\r\n");
+    if (includeBody) {
+      sink.writeAll(body);
+    }
+    sink.flush();
+  }
+
+  /** Returns the value of a Content-Length header, or {@link #MALFORMED_LENGTH}. */
+  private static long parseContentLength(String value) {
+    try {
+      long contentLength = Long.parseLong(value);
+      return contentLength >= 0L ? contentLength : MALFORMED_LENGTH;
+    } catch (NumberFormatException e) {
+      return MALFORMED_LENGTH;
+    }
+  }
+
+  /** Reads a chunked body into {@code body}. Returns false if a chunk size is malformed. */
+  private static boolean readChunkedBody(BufferedSource source, Buffer body) throws IOException {
+    while (true) {
+      String sizeLine = source.readUtf8LineStrict();
+      int semicolon = sizeLine.indexOf(';');
+      if (semicolon != -1) {
+        sizeLine = sizeLine.substring(0, semicolon);
+      }
+      long size;
+      try {
+        size = Long.parseLong(sizeLine.trim(), HEX);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      if (size < 0L) {
+        return false;
+      }
+      if (size == 0L) {
+        while (!source.readUtf8LineStrict().isEmpty()) {
+          // Discard trailers.
+        }
+        return true;
+      }
+      source.readFully(body, size);
+      source.readUtf8LineStrict();
+    }
+  }
+
+  private static void sleep(long nanos) throws IOException {
+    if (nanos <= 0L) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SocketException("Interrupted");
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /** A distribution of response delays. */
+  public abstract static class Latency {
+    /** No delay. */
+    public static final Latency NONE = fixed(0L, TimeUnit.NANOSECONDS);
+
+    /** Always delay by {@code duration}. */
+    public static Latency fixed(long duration, TimeUnit unit) {
+      checkArgument(duration >= 0L, "'duration' must not be negative. Was: " + duration);
+      checkNotNull(unit, "unit");
+      final long nanos = unit.toNanos(duration);
+      return new Latency() {
+        @Override long nanos(Random random) {
+          return nanos;
+        }
+      };
+    }
+
+    /** Delay by a duration chosen uniformly between {@code min} and {@code max}. */
+    public static Latency uniform(long min, long max, TimeUnit unit) {
+      checkArgument(min >= 0L, "'min' must not be negative. Was: " + min);
+      checkArgument(max >= min, "'max' must not be less than 'min'. Was: " + max);
+      checkNotNull(unit, "unit");
+      final long minNanos = unit.toNanos(min);
+      final long rangeNanos = unit.toNanos(max) - minNanos;
+      return new Latency() {
+        @Override long nanos(Random random) {
+          return minNanos + (long) (random.nextDouble() * rangeNanos);
+        }
+      };
+    }
+
+    /**
+     * Delay by an exponentially distributed duration with the given {@code mean}. Most delays are
+     * short but a few are several times the mean, which is useful to exercise tail latency.
+     */
+    public static Latency exponential(long mean, TimeUnit unit) {
+      checkArgument(mean >= 0L, "'mean' must not be negative. Was: " + mean);
+      checkNotNull(unit, "unit");
+      final double meanNanos = unit.toNanos(mean);
+      return new Latency() {
+        @Override long nanos(Random random) {
+          return (long) (-meanNanos * Math.log(1.0 - random.nextDouble()));
+        }
+      };
+    }
+
+    /**
+     * Delay according to {@code slow} with the given {@code probability}, and according to
+     * {@code fast} otherwise. Models a service with occasional slow responses.
+     */
+    public static Latency bimodal(final Latency fast, final Latency slow,
+        final double probability) {
+      checkNotNull(fast, "fast");
+      checkNotNull(slow, "slow");
+      checkRate(probability, "probability");
+      return new Latency() {
+        @Override long nanos(Random random) {
+          return random.nextDouble() < probability ? slow.nanos(random) : fast.nanos(random);
+        }
+      };
+    }
+
+    Latency() {
+    }
+
+    abstract long nanos(Random random);
+  }
+
+  static void checkRate(double rate, String name) {
+    checkArgument(rate >= 0.0 && rate <= 1.0,
+        "'" + name + "' must be between 0 and 1. Was: " + rate);
+  }
+
+  public static final class Builder {
+    private FakePagerDuty pagerDuty;
+    private Latency latency = Latency.NONE;
+    private double errorRate;
+    private double throttleRate;
+    private long retryAfterSeconds = 1L;
+    private double resetRate;
+    private Random random;
+    private int port;
+
+    /** The fake to record incidents in. Defaults to a new instance. */
+    public Builder pagerDuty(FakePagerDuty pagerDuty) {
+      this.pagerDuty = checkNotNull(pagerDuty, "pagerDuty");
+      return this;
+    }
+
+    /** How long to wait before answering each request. Defaults to {@link Latency#NONE}. */
+    public Builder latency(Latency latency) {
+      this.latency = checkNotNull(latency, "latency");
+      return this;
+    }
+
+    /** The fraction of requests answered with {@code 500 Internal Server Error}. */
+    public Builder errorRate(double errorRate) {
+      checkRate(errorRate, "errorRate");
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /** The fraction of requests answered with {@code 429 Too Many Requests}. */
+    public Builder throttleRate(double throttleRate) {
+      checkRate(throttleRate, "throttleRate");
+      this.throttleRate = throttleRate;
+      return this;
+    }
+
+    /** The {@code Retry-After} delay sent with throttled responses. Defaults to one second. */
+    public Builder retryAfter(long duration, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      long seconds = unit.toSeconds(duration);
+      checkArgument(seconds >= 0L, "'duration' must not be negative. Was: " + duration);
+      this.retryAfterSeconds = seconds;
+      return this;
+    }
+
+    /** The fraction of requests answered by resetting the connection. */
+    public Builder resetRate(double resetRate) {
+      checkRate(resetRate, "resetRate");
+      this.resetRate = resetRate;
+      return this;
+    }
+
+    /** The source of randomness for latencies and failures. Seed it for repeatable runs. */
+    public Builder random(Random random) {
+      this.random = checkNotNull(random, "random");
+      return this;
+    }
+
+    /** The local port to listen on. Defaults to 0, which picks a free port. */
+    public Builder port(int port) {
+      checkArgument(port >= 0, "'port' must not be negative. Was: " + port);
+      this.port = port;
+      return this;
+    }
+
+    /** Bind the server and start accepting connections. */
+    public FakePagerDutyServer start() throws IOException {
+      double failureRate = errorRate + throttleRate + resetRate;
+      checkArgument(failureRate <= 1.0,
+          "Error, throttle, and reset rates must not add up to more than 1. Was: " + failureRate);
+      return new FakePagerDutyServer(this);
+    }
+  }
+}
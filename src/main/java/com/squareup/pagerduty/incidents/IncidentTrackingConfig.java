@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Bookkeeping settings for an {@link IncidentTrackingPagerDuty}. */
+public final class IncidentTrackingConfig {
+  final long ttlNanos;
+  final int maxKeys;
+
+  private IncidentTrackingConfig(Builder builder) {
+    this.ttlNanos = builder.ttlNanos;
+    this.maxKeys = builder.maxKeys;
+  }
+
+  /**
+   * Fluent interface for building incident tracking settings.
+   * <p>
+   * Only the time to live is required. By default up to 100,000 incident keys are remembered.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_MAX_KEYS = 100000;
+
+    private final long ttlNanos;
+    private int maxKeys = DEFAULT_MAX_KEYS;
+
+    /**
+     * Build settings which skip a resolution if one with the same incident key was sent less
+     * than {@code ttl} ago and the key hasn't been triggered since. This also bounds how long a
+     * resolution may be skipped for an incident opened by another process.
+     */
+    public Builder(long ttl, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(ttl > 0, "'ttl' must be positive. Was: " + ttl);
+      this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * The most incident keys to remember. When full, the keys recorded longest ago are forgotten
+     * first, which only means their next resolution is sent.
+     */
+    public Builder maxKeys(int maxKeys) {
+      checkArgument(maxKeys > 0, "'maxKeys' must be positive. Was: " + maxKeys);
+      this.maxKeys = maxKeys;
+      return this;
+    }
+
+    public IncidentTrackingConfig build() {
+      return new IncidentTrackingConfig(this);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Answers resolutions locally when the incident is known to be resolved already, so that health
+ * checks which resolve on every healthy cycle don't send a request each time. Use
+ * {@link PagerDuty#incidentTracking} to create instances.
+ * <p>
+ * An incident is known to be resolved when a resolution for its key was successfully sent less
+ * than the configured time to live ago and no trigger for the key has been sent since. Keys which
+ * aren't known, including ones forgotten to stay within the configured size, are always sent, so
+ * the bookkeeping can only save requests, never lose one. Incidents triggered by another process
+ * may wait up to the time to live for a skipped resolution to be sent again.
+ */
+public final class IncidentTrackingPagerDuty extends PagerDuty {
+  static final String MESSAGE_SKIPPED = "Incident already resolved";
+
+  private final PagerDuty delegate;
+  private final IncidentTrackingConfig config;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /** Entries in the order they were recorded, which is also the order they expire in. */
+  private final Queue<Entry> recordOrder = new ConcurrentLinkedQueue<>();
+  private final AtomicLong skippedCount = new AtomicLong();
+
+  IncidentTrackingPagerDuty(PagerDuty delegate, IncidentTrackingConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    opened(trigger);
+    return delegate.notify(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    Entry seen = entries.get(resolution.incident_key);
+    if (isResolved(seen, System.nanoTime())) {
+      return skipped(resolution);
+    }
+    int seenTriggers = seen != null ? seen.triggerCount.get() : 0;
+    NotifyResult result = delegate.notify(resolution);
+    onResult(resolution, seen, seenTriggers, result);
+    return result;
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    opened(trigger);
+    delegate.notifyAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(final Resolution resolution, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final Entry seen = entries.get(resolution.incident_key);
+    if (isResolved(seen, System.nanoTime())) {
+      callback.onResult(skipped(resolution));
+      return;
+    }
+    final int seenTriggers = seen != null ? seen.triggerCount.get() : 0;
+    delegate.notifyAsync(resolution, new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        IncidentTrackingPagerDuty.this.onResult(resolution, seen, seenTriggers, result);
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        callback.onFailure(t);
+      }
+    });
+  }
+
+  /** The number of resolutions answered locally instead of being sent. */
+  public long skippedCount() {
+    return skippedCount.get();
+  }
+
+  /** The number of incident keys currently remembered. */
+  public int trackedKeyCount() {
+    return entries.size();
+  }
+
+  private boolean isResolved(Entry entry, long now) {
+    return entry != null && entry.resolved && now - entry.recordedAtNanos < config.ttlNanos;
+  }
+
+  private NotifyResult skipped(Resolution resolution) {
+    skippedCount.incrementAndGet();
+    return new NotifyResult("success", MESSAGE_SKIPPED, resolution.incident_key);
+  }
+
+  /**
+   * Records that {@code trigger}'s incident may be open. This happens before it is sent, so that
+   * a resolution racing with it is neither skipped nor recorded as the latest state. A key which
+   * is already open only has its trigger counted, so repeated triggers don't grow
+   * {@link #recordOrder}.
+   */
+  private void opened(Trigger trigger) {
+    String incidentKey = trigger.incident_key;
+    if (incidentKey == null) {
+      return;
+    }
+    while (true) {
+      Entry current = entries.get(incidentKey);
+      if (current != null && !current.resolved) {
+        current.triggerCount.incrementAndGet();
+        if (entries.get(incidentKey) == current) {
+          return;
+        }
+        continue; // Resolved concurrently. Record it as open again.
+      }
+      Entry entry = new Entry(incidentKey, false, System.nanoTime());
+      boolean recorded = current == null
+          ? entries.putIfAbsent(incidentKey, entry) == null
+          : entries.replace(incidentKey, current, entry);
+      if (recorded) {
+        record(entry);
+        return;
+      }
+    }
+  }
+
+  /** Records that the incident is resolved, unless it was triggered while resolving. */
+  private void onResult(Resolution resolution, Entry seen, int seenTriggers,
+      NotifyResult result) {
+    if (result == null || result.code != 0 || !"success".equals(result.status())) {
+      return;
+    }
+    Entry entry = new Entry(resolution.incident_key, true, System.nanoTime());
+    boolean recorded = seen == null
+        ? entries.putIfAbsent(entry.incidentKey, entry) == null
+        : entries.replace(entry.incidentKey, seen, entry);
+    if (!recorded) {
+      return;
+    }
+    if (seen != null && seen.triggerCount.get() != seenTriggers) {
+      // Triggered while resolving, so the incident may be open. Not knowing is safe.
+      entries.remove(entry.incidentKey, entry);
+      return;
+    }
+    record(entry);
+  }
+
+  private void record(Entry entry) {
+    recordOrder.add(entry);
+    evict(entry.recordedAtNanos);
+  }
+
+  /** Forget entries which have expired, and the oldest entries while over capacity. */
+  private void evict(long now) {
+    while (true) {
+      Entry oldest = recordOrder.peek();
+      if (oldest == null) {
+        return;
+      }
+      boolean expired = now - oldest.recordedAtNanos >= config.ttlNanos;
+      if (!expired && entries.size() <= config.maxKeys) {
+        return;
+      }
+      if (recordOrder.remove(oldest)) {
+        // A no-op if the key was recorded again since; that newer entry is further back.
+        entries.remove(oldest.incidentKey, oldest);
+      }
+    }
+  }
+
+  private static final class Entry {
+    final String incidentKey;
+    /** True if a resolution was sent; false if a trigger may have opened the incident. */
+    final boolean resolved;
+    final long recordedAtNanos;
+    /** Triggers counted against this entry while it was open, for racing resolutions to check. */
+    final AtomicInteger triggerCount = new AtomicInteger();
+
+    Entry(String incidentKey, boolean resolved, long recordedAtNanos) {
+      this.incidentKey = incidentKey;
+      this.resolved = resolved;
+      this.recordedAtNanos = recordedAtNanos;
+    }
+  }
+}
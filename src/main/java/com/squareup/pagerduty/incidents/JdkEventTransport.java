@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Sends events through {@link HttpURLConnection}, encoding and decoding them with
+ * {@link EventJson}. The JDK keeps connections alive between requests as long as each response is
+ * read and closed. Asynchronous sends run on up to {@value #MAX_CONCURRENT_REQUESTS} daemon
+ * threads created on first use, like OkHttp's per-host limit; further sends wait in a queue.
+ */
+final class JdkEventTransport extends EventTransport {
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_MILLIS = 10000;
+  private static final int HTTP_OK = 200;
+  private static final int HTTP_MULTIPLE_CHOICES = 300;
+  /** Each blocking request holds a thread, so a slow endpoint mustn't get one per send. */
+  static final int MAX_CONCURRENT_REQUESTS = 5;
+  private static final long IDLE_THREAD_SECONDS = 60L;
+
+  final URL url;
+  private ExecutorService executor; // Guarded by this.
+
+  JdkEventTransport(URL url) {
+    this.url = url;
+  }
+
+  @Override NotifyResult send(String serviceKey, Event event) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", EventJson.CONTENT_TYPE);
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(EventJson.byteCount(serviceKey, event));
+    try (BufferedSink sink = Okio.buffer(Okio.sink(connection.getOutputStream()))) {
+      EventJson.write(serviceKey, event, sink);
+    }
+
+    int code = connection.getResponseCode();
+    if (code == -1) {
+      connection.disconnect();
+      throw new IOException("Malformed HTTP response from " + url);
+    }
+    if (code >= HTTP_OK && code < HTTP_MULTIPLE_CHOICES) {
+      try (BufferedSource source = Okio.buffer(Okio.source(connection.getInputStream()))) {
+        return EventJson.readResult(source);
+      }
+    }
+
+    NotifyResult error = null;
+    InputStream errorStream = connection.getErrorStream();
+    if (errorStream != null) {
+      try (BufferedSource source = Okio.buffer(Okio.source(errorStream))) {
+        error = EventJson.readResult(source);
+      } catch (IOException | RuntimeException e) {
+        // Not a PagerDuty error document (e.g., an HTML page from a proxy). Synthesize one.
+      }
+    }
+    long retryAfterMillis = retryAfterMillis(connection.getHeaderField("Retry-After"),
+        connection.getHeaderFieldDate("Retry-After", -1L));
+    return errorResult(event, code, connection.getResponseMessage(), error, retryAfterMillis);
+  }
+
+  @Override void sendAsync(final String serviceKey, final Event event,
+      final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    executor().execute(new Runnable() {
+      @Override public void run() {
+        NotifyResult result;
+        try {
+          result = send(serviceKey, event);
+        } catch (IOException | RuntimeException e) {
+          callback.onFailure(e);
+          return;
+        }
+        callback.onResult(result);
+      }
+    });
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS,
+          MAX_CONCURRENT_REQUESTS, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "PagerDuty JDK Transport");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+    return executor;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * A lock-free histogram of durations with a bounded relative error, in the style of HdrHistogram.
+ * <p>
+ * Values below 128 ns are counted exactly. Larger values fall into buckets covering 1/64 of a
+ * power of two each, so any percentile is reported to within about 1.6% of the recorded value.
+ * Recording updates a few atomic counters without locking; reading scans all buckets without
+ * blocking writers, so a read concurrent with writes may reflect only some of them.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS + 1);
+  private static final double PERCENT = 100.0;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /** Record a duration. Negative durations are recorded as zero. */
+  public void record(long nanos) {
+    long value = Math.max(0L, nanos);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    totalNanos.addAndGet(value);
+    while (true) {
+      long max = maxNanos.get();
+      if (value <= max || maxNanos.compareAndSet(max, value)) {
+        return;
+      }
+    }
+  }
+
+  /** The number of durations recorded. */
+  public long count() {
+    return count.get();
+  }
+
+  /** The longest duration recorded, or 0 if none were. */
+  public long max(TimeUnit unit) {
+    checkNotNull(unit, "unit");
+    return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /** The mean of the durations recorded, or 0 if none were. */
+  public long mean(TimeUnit unit) {
+    checkNotNull(unit, "unit");
+    long count = this.count.get();
+    return count == 0L ? 0L : unit.convert(totalNanos.get() / count, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The duration which {@code percentile} percent of recorded durations do not exceed, such as
+   * 99.9 for the 999th of every 1000. Returns 0 if nothing was recorded.
+   */
+  public long percentile(double percentile, TimeUnit unit) {
+    checkArgument(percentile >= 0.0 && percentile <= PERCENT,
+        "'percentile' must be between 0 and 100. Was: " + percentile);
+    checkNotNull(unit, "unit");
+
+    long total = 0L;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / PERCENT * total));
+    long seen = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        long nanos = Math.min(highestEquivalentValue(i), maxNanos.get());
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /** Forget everything recorded so far. */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0L);
+    }
+    count.set(0L);
+    totalNanos.set(0L);
+    maxNanos.set(0L);
+  }
+
+  static int index(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /** The largest value which falls in bucket {@code index}. */
+  static long highestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1L;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Reports each notification sent to a delegate, and its outcome, to a {@link NotifyListener}. */
+final class ListeningPagerDuty extends PagerDuty {
+  private final PagerDuty delegate;
+  private final NotifyListener listener;
+
+  ListeningPagerDuty(PagerDuty delegate, NotifyListener listener) {
+    this.delegate = delegate;
+    this.listener = listener;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    sendAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sendAsync(resolution, callback);
+  }
+
+  private NotifyResult send(Event event) throws IOException {
+    sendStart(event);
+    long start = System.nanoTime();
+    NotifyResult result;
+    try {
+      result = event instanceof Trigger
+          ? delegate.notify((Trigger) event)
+          : delegate.notify((Resolution) event);
+    } catch (IOException | RuntimeException e) {
+      sendFailed(event, e, System.nanoTime() - start);
+      throw e;
+    }
+    sendEnd(event, result, System.nanoTime() - start);
+    return result;
+  }
+
+  private void sendAsync(final Event event, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    sendStart(event);
+    final long start = System.nanoTime();
+    NotifyCallback listening = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        sendEnd(event, result, System.nanoTime() - start);
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        sendFailed(event, t, System.nanoTime() - start);
+        callback.onFailure(t);
+      }
+    };
+    if (event instanceof Trigger) {
+      delegate.notifyAsync((Trigger) event, listening);
+    } else {
+      delegate.notifyAsync((Resolution) event, listening);
+    }
+  }
+
+  // A listener only observes sends, so its failures are ignored rather than changing the outcome.
+
+  private void sendStart(Event event) {
+    try {
+      listener.sendStart(event.event_type, event.incident_key);
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  private void sendEnd(Event event, NotifyResult result, long durationNanos) {
+    try {
+      listener.sendEnd(event.event_type, event.incident_key, result, durationNanos);
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  private void sendFailed(Event event, Throwable failure, long durationNanos) {
+    try {
+      listener.sendFailed(event.event_type, event.incident_key, failure, durationNanos);
+    } catch (RuntimeException ignored) {
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+/** Receives the outcome of an asynchronous {@link PagerDuty} notification. */
+public interface NotifyCallback {
+  /** Invoked with the response data once PagerDuty has answered the request. */
+  void onResult(NotifyResult result);
+
+  /** Invoked when the request could not be sent or its response could not be read. */
+  void onFailure(Throwable t);
+}
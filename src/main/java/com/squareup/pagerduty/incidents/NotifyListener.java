@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+/**
+ * Observes notifications as they pass through a {@link PagerDuty}. Override the methods for the
+ * events of interest; the others do nothing.
+ * <p>
+ * Attach a listener with {@link PagerDuty#listening} to see each send and its outcome, with
+ * {@link BufferConfig.Builder#listener} to see events being queued, and with {@link
+ * RetryPolicy.Builder#listener} to see retries. {@link NotifyMetrics} is a ready-made listener
+ * which counts outcomes and records latencies.
+ * <p>
+ * Methods are invoked on the thread doing the work, often concurrently, and must be fast and
+ * thread-safe. The {@code eventType} is {@code "trigger"} or {@code "resolve"}, and the
+ * {@code incidentKey} may be null for triggers.
+ */
+public abstract class NotifyListener {
+  /** A listener which ignores everything. */
+  public static final NotifyListener NONE = new NotifyListener() {
+  };
+
+  /** An event was added to a dispatch queue. */
+  public void eventEnqueued(String eventType, String incidentKey) {
+  }
+
+  /** An event is about to be sent. */
+  public void sendStart(String eventType, String incidentKey) {
+  }
+
+  /**
+   * PagerDuty answered an event, successfully or not, {@code durationNanos} after it was sent.
+   * {@code result} is null if the {@link PagerDuty} being observed returned none.
+   */
+  public void sendEnd(String eventType, String incidentKey, NotifyResult result,
+      long durationNanos) {
+  }
+
+  /** Sending an event failed {@code durationNanos} after it started. */
+  public void sendFailed(String eventType, String incidentKey, Throwable failure,
+      long durationNanos) {
+  }
+
+  /** An event will be sent again after {@code delayMillis}. {@code retry} counts from 1. */
+  public void retryScheduled(String eventType, String incidentKey, int retry, long delayMillis) {
+  }
+}
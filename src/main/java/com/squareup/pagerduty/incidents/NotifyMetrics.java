@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link NotifyListener} which counts notifications by event type and outcome, and records send
+ * latencies in a {@link LatencyHistogram} per event type. Recording is lock-free.
+ * <pre>{@code
+ * NotifyMetrics metrics = new NotifyMetrics();
+ * PagerDuty pagerDuty = PagerDuty.listening(PagerDuty.create(apiKey), metrics);
+ * ...
+ * long p99 = metrics.latency("trigger").percentile(99.0, TimeUnit.MILLISECONDS);
+ * }</pre>
+ */
+public final class NotifyMetrics extends NotifyListener {
+  /** The status under which sends that failed without a response are counted. */
+  public static final String STATUS_FAILURE = "failure";
+
+  private final ConcurrentMap<String, TypeMetrics> types = new ConcurrentHashMap<>();
+
+  @Override public void eventEnqueued(String eventType, String incidentKey) {
+    type(eventType).enqueued.incrementAndGet();
+  }
+
+  @Override public void sendEnd(String eventType, String incidentKey, NotifyResult result,
+      long durationNanos) {
+    TypeMetrics type = type(eventType);
+    type.status(result != null ? result.status() : null).incrementAndGet();
+    type.latency.record(durationNanos);
+  }
+
+  @Override public void sendFailed(String eventType, String incidentKey, Throwable failure,
+      long durationNanos) {
+    TypeMetrics type = type(eventType);
+    type.status(STATUS_FAILURE).incrementAndGet();
+    type.latency.record(durationNanos);
+  }
+
+  @Override public void retryScheduled(String eventType, String incidentKey, int retry,
+      long delayMillis) {
+    type(eventType).retries.incrementAndGet();
+  }
+
+  /**
+   * The number of {@code eventType} events answered with {@code status}, such as
+   * {@code "success"}. Use {@link #STATUS_FAILURE} for those which got no answer.
+   */
+  public long count(String eventType, String status) {
+    AtomicLong counter = type(eventType).statuses.get(String.valueOf(status));
+    return counter != null ? counter.get() : 0L;
+  }
+
+  /** The number of {@code eventType} events added to a dispatch queue. */
+  public long enqueuedCount(String eventType) {
+    return type(eventType).enqueued.get();
+  }
+
+  /** The number of retries scheduled for {@code eventType} events. */
+  public long retryCount(String eventType) {
+    return type(eventType).retries.get();
+  }
+
+  /** Send latencies of {@code eventType} events, whether they succeeded or not. */
+  public LatencyHistogram latency(String eventType) {
+    return type(eventType).latency;
+  }
+
+  private TypeMetrics type(String eventType) {
+    TypeMetrics type = types.get(eventType);
+    if (type == null) {
+      TypeMetrics created = new TypeMetrics();
+      type = types.putIfAbsent(eventType, created);
+      if (type == null) {
+        type = created;
+      }
+    }
+    return type;
+  }
+
+  private static final class TypeMetrics {
+    final AtomicLong enqueued = new AtomicLong();
+    final AtomicLong retries = new AtomicLong();
+    final ConcurrentMap<String, AtomicLong> statuses = new ConcurrentHashMap<>();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    AtomicLong status(String status) {
+      String key = String.valueOf(status); // PagerDuty may omit the status of an error.
+      AtomicLong counter = statuses.get(key);
+      if (counter == null) {
+        AtomicLong created = new AtomicLong();
+        counter = statuses.putIfAbsent(key, created);
+        if (counter == null) {
+          counter = created;
+        }
+      }
+      return counter;
+    }
+  }
+}
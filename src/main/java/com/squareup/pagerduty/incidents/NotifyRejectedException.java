@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a notification is refused locally, before it is sent to PagerDuty. This happens
+ * when a dispatch queue is full or closed, when a rate limit would be exceeded, or when a circuit
+ * breaker is open.
+ */
+public final class NotifyRejectedException extends IOException {
+  private static final long serialVersionUID = 0L;
+
+  public NotifyRejectedException(String message) {
+    super(message);
+  }
+}
@@ -15,16 +15,38 @@
  */
 package com.squareup.pagerduty.incidents;
 
+import java.util.Collections;
+import java.util.List;
+
 /** Response data from triggering or resolving an incident. */
 public final class NotifyResult {
   private final String status;
   private final String message;
   private final String incident_key;
+  private final List<String> errors;
+
+  /** The HTTP code of an unsuccessful response, or 0 for successful or locally made results. */
+  final transient int code;
+  /** How long the server asked us to wait before retrying, or 0 if it didn't say. */
+  final transient long retryAfterMillis;
 
   NotifyResult(String status, String message, String incidentKey) {
+    this(status, message, incidentKey, null, 0, 0L);
+  }
+
+  NotifyResult(String status, String message, String incidentKey, List<String> errors, int code,
+      long retryAfterMillis) {
     this.status = status;
     this.message = message;
     this.incident_key = incidentKey;
+    this.errors = errors;
+    this.code = code;
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  /** Returns a copy of this result annotated with the HTTP response that carried it. */
+  NotifyResult withResponse(int code, long retryAfterMillis) {
+    return new NotifyResult(status, message, incident_key, errors, code, retryAfterMillis);
   }
 
   /** {@code "success"} for well-formed requests. A short status description otherwise. */
@@ -47,4 +69,12 @@ public final class NotifyResult {
   public String incidentKey() {
     return incident_key;
   }
+
+  /**
+   * Details of why PagerDuty rejected the request, such as which field of the event was invalid.
+   * Empty for successful requests.
+   */
+  public List<String> errors() {
+    return errors != null ? Collections.unmodifiableList(errors) : Collections.<String>emptyList();
+  }
 }
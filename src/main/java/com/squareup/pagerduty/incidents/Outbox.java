@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of events, stored as a sequence of memory-mapped segment files.
+ * <p>
+ * Each record is laid out as {@code [int length][int crc32][byte state][payload]}. The length is
+ * written last so that a record torn by a crash is recognized and ignored when the log is
+ * reopened. Acknowledging a record flips its state byte in place. A segment file is deleted once it
+ * has been filled and every record in it has been acknowledged.
+ */
+final class Outbox implements Closeable {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String PREFIX = "outbox-";
+  private static final String SUFFIX = ".log";
+  private static final int CRC_OFFSET = 4;
+  private static final int STATE_OFFSET = 8;
+  private static final int HEADER_SIZE = STATE_OFFSET + 1;
+  private static final byte STATE_PENDING = 1;
+  private static final byte STATE_ACKED = 2;
+  private static final byte TYPE_TRIGGER = 0;
+  private static final byte TYPE_RESOLVE = 1;
+
+  private final File directory;
+  private final int segmentSize;
+  private final int syncEvery;
+  private final ConcurrentSkipListMap<Long, Entry> pending = new ConcurrentSkipListMap<>();
+
+  // Guarded by this.
+  private Segment active;
+  private long nextSegmentIndex;
+  private int unsynced;
+  private boolean closed;
+
+  private Outbox(File directory, int segmentSize, int syncEvery) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.syncEvery = syncEvery;
+  }
+
+  /** Opens the log in {@code directory}, loading the records which were never acknowledged. */
+  static Outbox open(File directory, int segmentSize, int syncEvery) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create outbox directory " + directory);
+    }
+    Outbox outbox = new Outbox(directory, segmentSize, syncEvery);
+    outbox.load();
+    return outbox;
+  }
+
+  private void load() throws IOException {
+    File[] files = directory.listFiles();
+    List<Long> indexes = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+          try {
+            indexes.add(Long.parseLong(name.substring(PREFIX.length(),
+                name.length() - SUFFIX.length())));
+          } catch (NumberFormatException ignored) {
+            // Not one of ours.
+          }
+        }
+      }
+    }
+    Long[] sorted = indexes.toArray(new Long[indexes.size()]);
+    Arrays.sort(sorted);
+    for (long index : sorted) {
+      Segment segment = Segment.open(segmentFile(index), index, 0);
+      scan(segment);
+      segment.sealed = true;
+      if (segment.pendingCount.get() == 0) {
+        segment.delete();
+      }
+      nextSegmentIndex = index + 1;
+    }
+  }
+
+  private void scan(Segment segment) {
+    ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+    while (offset + HEADER_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || length > buffer.capacity() - offset - HEADER_SIZE) {
+        break;
+      }
+      byte[] payload = new byte[length];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset + HEADER_SIZE);
+      source.get(payload);
+      if (buffer.getInt(offset + CRC_OFFSET) != crc(payload)) {
+        break; // Torn write: nothing after this point was completely written.
+      }
+      if (buffer.get(offset + STATE_OFFSET) == STATE_PENDING) {
+        Event event = decode(payload);
+        if (event != null) {
+          track(new Entry(segment, offset, event));
+        }
+      }
+      offset += HEADER_SIZE + length;
+    }
+    segment.writeOffset = offset;
+  }
+
+  /**
+   * Durably records {@code event}, returning a handle used to acknowledge it once it is sent. The
+   * entry is returned {@linkplain Entry#claimed claimed} by the caller, so that a concurrent replay
+   * can't send it too.
+   */
+  Entry append(Event event) throws IOException {
+    byte[] payload = encode(event);
+    int recordSize = HEADER_SIZE + payload.length;
+    Entry entry;
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Outbox is closed.");
+      }
+      if (active == null || active.writeOffset + recordSize > active.buffer.capacity()) {
+        roll(recordSize);
+      }
+      Segment segment = active;
+      int offset = segment.writeOffset;
+      MappedByteBuffer buffer = segment.buffer;
+      buffer.putInt(offset + CRC_OFFSET, crc(payload));
+      buffer.put(offset + STATE_OFFSET, STATE_PENDING);
+      ByteBuffer target = buffer.duplicate();
+      target.position(offset + HEADER_SIZE);
+      target.put(payload);
+      buffer.putInt(offset, payload.length);
+      segment.writeOffset = offset + recordSize;
+
+      entry = new Entry(segment, offset, event);
+      entry.claimed.set(true);
+      track(entry);
+      unsynced++;
+      if (syncEvery > 0 && unsynced >= syncEvery) {
+        sync();
+      }
+    }
+    return entry;
+  }
+
+  private void roll(int recordSize) throws IOException {
+    Segment previous = active;
+    active = Segment.open(segmentFile(nextSegmentIndex), nextSegmentIndex,
+        Math.max(segmentSize, recordSize));
+    nextSegmentIndex++;
+    if (previous != null) {
+      previous.buffer.force();
+      previous.sealed = true;
+      if (previous.pendingCount.get() == 0) {
+        previous.delete();
+      }
+    }
+  }
+
+  private void track(Entry entry) {
+    entry.segment.pendingCount.incrementAndGet();
+    pending.put(entry.id, entry);
+  }
+
+  /** Marks {@code entry} as sent so that it is never replayed. */
+  void acknowledge(Entry entry) {
+    if (pending.remove(entry.id) == null) {
+      return;
+    }
+    Segment segment = entry.segment;
+    segment.buffer.put(entry.offset + STATE_OFFSET, STATE_ACKED);
+    if (segment.pendingCount.decrementAndGet() == 0 && segment.sealed) {
+      segment.delete();
+    }
+  }
+
+  /** The records which have not been acknowledged, oldest first. */
+  Collection<Entry> pending() {
+    return pending.values();
+  }
+
+  /** Forces appended records to disk. */
+  synchronized void sync() {
+    if (active != null && unsynced > 0) {
+      active.buffer.force();
+    }
+    unsynced = 0;
+  }
+
+  @Override public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    if (active != null) {
+      active.buffer.force();
+    }
+    closed = true;
+  }
+
+  private File segmentFile(long index) {
+    return new File(directory, String.format("%s%019d%s", PREFIX, index, SUFFIX));
+  }
+
+  private static int crc(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    return (int) crc.getValue();
+  }
+
+  static byte[] encode(Event event) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(Event.TYPE_TRIGGER.equals(event.event_type) ? TYPE_TRIGGER : TYPE_RESOLVE);
+      writeString(out, event.incident_key);
+      writeString(out, event.description);
+      writeString(out, event.client);
+      writeString(out, event.client_url);
+      EventDetails details = EventDetails.copyOf(event.details);
+      out.writeInt(details.size());
+      for (int i = 0, size = details.size(); i < size; i++) {
+        writeString(out, details.name(i));
+        writeString(out, details.value(i));
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e); // Writing to memory doesn't fail.
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Returns the event encoded in {@code payload}, or null if it is malformed. */
+  static Event decode(byte[] payload) {
+    ByteBuffer in = ByteBuffer.wrap(payload);
+    try {
+      byte type = in.get();
+      String incidentKey = readString(in);
+      String description = readString(in);
+      String client = readString(in);
+      String clientUrl = readString(in);
+      int detailCount = in.getInt();
+      Map<String, String> details = new LinkedHashMap<>();
+      for (int i = 0; i < detailCount; i++) {
+        details.put(readString(in), readString(in));
+      }
+
+      if (type == TYPE_TRIGGER) {
+        Trigger.Builder builder = new Trigger.Builder(description).addDetails(details);
+        if (incidentKey != null) {
+          builder.withIncidentKey(incidentKey);
+        }
+        if (client != null) {
+          builder.client(client);
+        }
+        if (clientUrl != null) {
+          builder.clientUrl(clientUrl);
+        }
+        return builder.build();
+      }
+      Resolution.Builder builder = new Resolution.Builder(incidentKey).addDetails(details);
+      if (description != null) {
+        builder.withDescription(description);
+      }
+      return builder.build();
+    } catch (BufferUnderflowException | IllegalArgumentException | NullPointerException e) {
+      return null;
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /** A record which has been appended but not yet acknowledged. */
+  static final class Entry {
+    final long id;
+    final Segment segment;
+    final int offset;
+    final Event event;
+    /** Set while a thread is sending this entry so that it isn't sent twice concurrently. */
+    final AtomicBoolean claimed = new AtomicBoolean();
+
+    Entry(Segment segment, int offset, Event event) {
+      this.id = (segment.index << Integer.SIZE) | offset;
+      this.segment = segment;
+      this.offset = offset;
+      this.event = event;
+    }
+  }
+
+  static final class Segment {
+    final long index;
+    final File file;
+    final MappedByteBuffer buffer;
+    final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    volatile boolean sealed;
+    int writeOffset;
+
+    private Segment(long index, File file, MappedByteBuffer buffer) {
+      this.index = index;
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    /** Maps {@code file}, creating it with {@code size} bytes if it doesn't exist. */
+    static Segment open(File file, long index, int size) throws IOException {
+      RandomAccessFile raf;
+      try {
+        raf = new RandomAccessFile(file, "rw");
+      } catch (FileNotFoundException e) {
+        throw new IOException("Unable to open outbox segment " + file, e);
+      }
+      try {
+        if (raf.length() == 0) {
+          raf.setLength(size);
+        }
+        MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+            raf.length());
+        return new Segment(index, file, buffer);
+      } finally {
+        raf.close();
+      }
+    }
+
+    void delete() {
+      if (deleted.compareAndSet(false, true)) {
+        file.delete();
+      }
+    }
+  }
+}
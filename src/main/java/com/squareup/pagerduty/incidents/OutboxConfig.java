@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Storage and replay settings for a {@link DurablePagerDuty}. */
+public final class OutboxConfig {
+  final File directory;
+  final int segmentSize;
+  final int syncEvery;
+  final long syncIntervalMillis;
+  final long replayIntervalMillis;
+
+  private OutboxConfig(Builder builder) {
+    this.directory = builder.directory;
+    this.segmentSize = builder.segmentSize;
+    this.syncEvery = builder.syncEvery;
+    this.syncIntervalMillis = builder.syncIntervalMillis;
+    this.replayIntervalMillis = builder.replayIntervalMillis;
+  }
+
+  /**
+   * Fluent interface for building outbox settings.
+   * <p>
+   * Only the directory is required. By default segments are 4 MiB, appends are synced to disk
+   * every 200 ms, and pending events are replayed on startup and every 30 seconds.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long DEFAULT_SYNC_INTERVAL_MILLIS = 200L;
+    private static final long DEFAULT_REPLAY_INTERVAL_MILLIS = 30000L;
+    private static final int MIN_SEGMENT_SIZE = 1024;
+
+    private final File directory;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int syncEvery;
+    private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    private long replayIntervalMillis = DEFAULT_REPLAY_INTERVAL_MILLIS;
+
+    /**
+     * Build settings for an outbox stored in {@code directory}. The directory is created if it
+     * doesn't exist and must not be shared with another outbox.
+     */
+    public Builder(File directory) {
+      this.directory = checkNotNull(directory, "directory");
+    }
+
+    /** The size of each log file. Files are deleted once every event in them has been sent. */
+    public Builder segmentSize(int segmentSize) {
+      checkArgument(segmentSize >= MIN_SEGMENT_SIZE,
+          "'segmentSize' must be at least " + MIN_SEGMENT_SIZE + ". Was: " + segmentSize);
+      this.segmentSize = segmentSize;
+      return this;
+    }
+
+    /**
+     * Sync to disk after this many appends, in addition to any interval-based sync. Use 1 to sync
+     * every append before sending it, or 0 to rely on the interval only.
+     */
+    public Builder syncEvery(int appends) {
+      checkArgument(appends >= 0, "'appends' must not be negative. Was: " + appends);
+      this.syncEvery = appends;
+      return this;
+    }
+
+    /**
+     * How often appended events are synced to disk. Events appended since the last sync survive a
+     * process crash but may be lost if the machine loses power. Use 0 to disable.
+     */
+    public Builder syncInterval(long interval, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(interval >= 0, "'interval' must not be negative. Was: " + interval);
+      this.syncIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * How often events which could not be sent are retried. Pending events left by a previous
+     * process are replayed immediately on startup. Use 0 to disable automatic replay and call
+     * {@link DurablePagerDuty#replay()} instead.
+     */
+    public Builder replayInterval(long interval, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(interval >= 0, "'interval' must not be negative. Was: " + interval);
+      this.replayIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    public OutboxConfig build() {
+      return new OutboxConfig(this);
+    }
+  }
+}
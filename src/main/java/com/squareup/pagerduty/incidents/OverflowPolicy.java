@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+/** What a {@link BufferedPagerDuty} does with a new event when its queue is full. */
+public enum OverflowPolicy {
+  /** Wait until space is available in the queue. */
+  BLOCK,
+  /**
+   * Discard the oldest queued event to make room for the new one, taking it from the least urgent
+   * {@link Priority} with events queued.
+   */
+  DROP_OLDEST,
+  /** Discard the new event. */
+  DROP_NEWEST,
+  /** Reject the new event by throwing {@link NotifyRejectedException}. */
+  FAIL_FAST
+}
@@ -17,7 +17,6 @@ package com.squareup.pagerduty.incidents;
 
 import java.io.IOException;
 import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 import static com.squareup.pagerduty.incidents.Util.checkNotNull;
 import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
@@ -26,13 +25,14 @@ import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
 public abstract class PagerDuty {
   public static final String HOST = "https://events.pagerduty.com";
 
-  /** Create a new instance using the specified API key. */
+  /**
+   * Create a new instance using the specified API key. Instances created this way share one
+   * connection pool; use {@link PagerDutyClient} to control it.
+   */
   public static PagerDuty create(String apiKey) {
-    Retrofit retrofit = new Retrofit.Builder() //
-        .baseUrl(HOST) //
-        .addConverterFactory(GsonConverterFactory.create())
-        .build();
-    return create(apiKey, retrofit);
+    checkStringArgument(apiKey, "apiKey");
+
+    return PagerDutyClient.defaultClient().forApiKey(apiKey);
   }
 
   /** Create a new instance using the specified API key and configured {@link Retrofit}. */
@@ -40,24 +40,271 @@ public abstract class PagerDuty {
     checkStringArgument(apiKey, "apiKey");
     checkNotNull(retrofit, "retrofit");
 
-    return realPagerDuty(apiKey, retrofit.create(EventService.class));
+    return PagerDutyClient.create(retrofit).forApiKey(apiKey);
+  }
+
+  /**
+   * Create a new instance using the specified API key which sends through {@code transport}. Use
+   * {@link EventTransport#jdk()} to avoid loading Retrofit and OkHttp.
+   */
+  public static PagerDuty create(String apiKey, EventTransport transport) {
+    checkStringArgument(apiKey, "apiKey");
+    checkNotNull(transport, "transport");
+
+    return realPagerDuty(apiKey, transport);
+  }
+
+  /**
+   * Create an instance which queues events in memory and sends them to {@code delegate} from
+   * background worker threads.
+   */
+  public static BufferedPagerDuty buffered(PagerDuty delegate, BufferConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new BufferedPagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which queues events in memory and sends them to {@code delegate} from one
+   * background worker per incident key partition, so that events for the same key are sent in
+   * order while different keys are sent in parallel. {@code config} sets the number of partitions
+   * with {@link BufferConfig.Builder#workers} and the settings of each one.
+   */
+  public static PartitionedPagerDuty partitioned(PagerDuty delegate, BufferConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new PartitionedPagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which retries failed notifications to {@code delegate} according to
+   * {@code policy}.
+   */
+  public static PagerDuty retrying(PagerDuty delegate, RetryPolicy policy) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(policy, "policy");
+
+    return new RetryingPagerDuty(delegate, policy);
+  }
+
+  /**
+   * Create an instance which limits the rate of notifications sent to {@code delegate} using the
+   * token bucket {@code limiter} keeps for its API key. One limiter may be shared by many
+   * instances.
+   */
+  public static PagerDuty rateLimited(PagerDuty delegate, RateLimiter limiter) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(limiter, "limiter");
+
+    return new RateLimitedPagerDuty(delegate, limiter);
+  }
+
+  /**
+   * Create an instance which limits the number of notifications in flight to {@code delegate} to
+   * the adaptive limit {@code limiter} keeps for its API key. One limiter may be shared by many
+   * instances.
+   */
+  public static PagerDuty concurrencyLimited(PagerDuty delegate, ConcurrencyLimiter limiter) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(limiter, "limiter");
+
+    return new ConcurrencyLimitedPagerDuty(delegate, limiter);
+  }
+
+  /**
+   * Create an instance which records each event in an on-disk outbox before sending it to
+   * {@code delegate}, and replays events which could not be sent. Events left in the outbox by a
+   * previous process are replayed immediately.
+   */
+  public static DurablePagerDuty durable(PagerDuty delegate, OutboxConfig config)
+      throws IOException {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new DurablePagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which answers a trigger locally, without sending it to {@code delegate},
+   * when a trigger with the same incident key was sent within the window of {@code config}.
+   */
+  public static DeduplicatingPagerDuty deduplicating(PagerDuty delegate, DedupConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new DeduplicatingPagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which answers a resolution locally, without sending it to
+   * {@code delegate}, when a resolution with the same incident key was sent within the time to
+   * live of {@code config} and the key hasn't been triggered since.
+   */
+  public static IncidentTrackingPagerDuty incidentTracking(PagerDuty delegate,
+      IncidentTrackingConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new IncidentTrackingPagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which rolls triggers for many distinct incidents into one summary incident
+   * sent to {@code delegate} while their rate exceeds the threshold of {@code config}.
+   */
+  public static AggregatingPagerDuty aggregating(PagerDuty delegate, AggregationConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new AggregatingPagerDuty(delegate, config);
   }
 
-  static PagerDuty realPagerDuty(final String apiKey, final EventService service) {
+  /**
+   * Create an instance which stops sending to {@code delegate} while too many recent calls to it
+   * failed or were slow, as configured by {@code config}.
+   */
+  public static CircuitBreakerPagerDuty circuitBreaking(PagerDuty delegate,
+      CircuitBreakerConfig config) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(config, "config");
+
+    return new CircuitBreakerPagerDuty(delegate, config);
+  }
+
+  /**
+   * Create an instance which reports each notification sent to {@code delegate}, its outcome, and
+   * how long it took to {@code listener}. Exceptions thrown by {@code listener} are ignored.
+   */
+  public static PagerDuty listening(PagerDuty delegate, NotifyListener listener) {
+    checkNotNull(delegate, "delegate");
+    checkNotNull(listener, "listener");
+
+    return new ListeningPagerDuty(delegate, listener);
+  }
+
+  static PagerDuty realPagerDuty(String apiKey, EventService service) {
+    return realPagerDuty(apiKey,
+        new RetrofitEventTransport(service, PagerDutyConverterFactory.RESPONSE_BODY_CONVERTER));
+  }
+
+  static PagerDuty realPagerDuty(final String apiKey, final EventTransport transport) {
     return new PagerDuty() {
+      @Override String serviceKey() {
+        return apiKey;
+      }
+
       @Override public NotifyResult notify(Trigger trigger) throws IOException {
-        return service.notify(trigger.withApiKey(apiKey)).execute().body();
+        NotifyResult result = transport.send(apiKey, trigger);
+        onTriggered(trigger, result);
+        return result;
       }
 
       @Override public NotifyResult notify(Resolution resolution) throws IOException {
-        return service.notify(resolution.withApiKey(apiKey)).execute().body();
+        cancelAutoResolve(resolution.incident_key);
+        return transport.send(apiKey, resolution);
+      }
+
+      @Override public void notifyAsync(final Trigger trigger, final NotifyCallback callback) {
+        checkNotNull(callback, "callback");
+        transport.sendAsync(apiKey, trigger, new NotifyCallback() {
+          @Override public void onResult(NotifyResult result) {
+            onTriggered(trigger, result);
+            callback.onResult(result);
+          }
+
+          @Override public void onFailure(Throwable t) {
+            callback.onFailure(t);
+          }
+        });
+      }
+
+      @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+        checkNotNull(callback, "callback");
+        cancelAutoResolve(resolution.incident_key);
+        transport.sendAsync(apiKey, resolution, callback);
+      }
+
+      /** Starts, restarts, or cancels the auto-resolve deadline of a successful trigger. */
+      private void onTriggered(Trigger trigger, NotifyResult result) {
+        if (trigger.autoResolveNanos == 0L && transport.autoResolverIfStarted() == null) {
+          return; // Auto-resolve was never used, so there is nothing to cancel.
+        }
+        if (result == null) {
+          return;
+        }
+        String incidentKey = trigger.incident_key != null
+            ? trigger.incident_key
+            : result.incidentKey();
+        if (incidentKey == null || result.code != 0 || !"success".equals(result.status())) {
+          return;
+        }
+        if (trigger.autoResolveNanos > 0L) {
+          transport.autoResolver().schedule(apiKey, incidentKey, trigger.autoResolveNanos);
+        } else {
+          cancelAutoResolve(incidentKey);
+        }
+      }
+
+      private void cancelAutoResolve(String incidentKey) {
+        AutoResolver autoResolver = transport.autoResolverIfStarted();
+        if (autoResolver != null) {
+          autoResolver.cancel(apiKey, incidentKey);
+        }
       }
     };
   }
 
+  /**
+   * The API key events are sent with, or null if this instance doesn't send to PagerDuty. Used to
+   * keep per-key state such as rate limits.
+   */
+  String serviceKey() {
+    return null;
+  }
+
   /** Send an incident trigger notification to PagerDuty. */
   public abstract NotifyResult notify(Trigger trigger) throws IOException;
 
   /** Send an incident resolution notification to PagerDuty. */
   public abstract NotifyResult notify(Resolution resolution) throws IOException;
+
+  /**
+   * Send an incident trigger notification to PagerDuty without blocking the calling thread. The
+   * outcome is delivered to {@code callback}, typically on an HTTP client thread.
+   * <p>
+   * The default implementation delegates to {@link #notify(Trigger)} on the calling thread.
+   * Subclasses backed by a network transport should override this to avoid blocking.
+   */
+  public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    NotifyResult result;
+    try {
+      result = notify(trigger);
+    } catch (IOException e) {
+      callback.onFailure(e);
+      return;
+    }
+    callback.onResult(result);
+  }
+
+  /**
+   * Send an incident resolution notification to PagerDuty without blocking the calling thread.
+   * The outcome is delivered to {@code callback}, typically on an HTTP client thread.
+   * <p>
+   * The default implementation delegates to {@link #notify(Resolution)} on the calling thread.
+   * Subclasses backed by a network transport should override this to avoid blocking.
+   */
+  public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    NotifyResult result;
+    try {
+      result = notify(resolution);
+    } catch (IOException e) {
+      callback.onFailure(e);
+      return;
+    }
+    callback.onResult(result);
+  }
 }
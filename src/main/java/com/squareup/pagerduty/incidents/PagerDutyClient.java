@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
+
+/**
+ * One HTTP stack shared by {@link PagerDuty} instances for many API keys. Instances for each key
+ * share connections, the dispatcher's request limits, and codecs, and are cheap enough to create
+ * per notification.
+ * <pre>{@code
+ * PagerDutyClient client = PagerDutyClient.create();
+ * ...
+ * client.forApiKey(service.integrationKey()).notify(trigger);
+ * }</pre>
+ * {@link PagerDuty#create(String)} uses a default client shared by the whole process.
+ * <p>
+ * The first notification normally pays for DNS, TCP, and TLS before its request is sent. Clients
+ * which page rarely but must page quickly can open that connection ahead of time with
+ * {@link #warmUp()}, or hold it open with {@link #keepWarm}:
+ * <pre>{@code
+ * PagerDutyClient client = PagerDutyClient.create().keepWarm(1, TimeUnit.MINUTES);
+ * }</pre>
+ */
+public final class PagerDutyClient {
+  private final EventTransport transport;
+  private final Call.Factory callFactory;
+  private final HttpUrl baseUrl;
+  private final AtomicBoolean warmingUp = new AtomicBoolean();
+  private ScheduledFuture<?> keepWarm; // Guarded by this.
+
+  PagerDutyClient(EventService service, Converter<ResponseBody, ?> errorConverter) {
+    this(service, errorConverter, null, null);
+  }
+
+  PagerDutyClient(EventService service, Converter<ResponseBody, ?> errorConverter,
+      Call.Factory callFactory, HttpUrl baseUrl) {
+    this.transport = new RetrofitEventTransport(service, errorConverter);
+    this.callFactory = callFactory;
+    this.baseUrl = baseUrl;
+  }
+
+  /**
+   * Create a client with its own connection pool and dispatcher. It prefers HTTP/2 where the
+   * platform supports ALPN, so that concurrent notifications share one connection rather than
+   * opening one each.
+   */
+  public static PagerDutyClient create() {
+    return create(new OkHttpClient.Builder()
+        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .build());
+  }
+
+  /** Create a client which sends requests through {@code client}. */
+  public static PagerDutyClient create(OkHttpClient client) {
+    checkNotNull(client, "client");
+
+    return create(new Retrofit.Builder() //
+        .baseUrl(PagerDuty.HOST) //
+        .client(client)
+        .addConverterFactory(PagerDutyConverterFactory.create())
+        .build());
+  }
+
+  /** Create a client which sends requests through a configured {@link Retrofit}. */
+  public static PagerDutyClient create(Retrofit retrofit) {
+    checkNotNull(retrofit, "retrofit");
+
+    Converter<ResponseBody, ?> errorConverter =
+        retrofit.responseBodyConverter(NotifyResult.class, new Annotation[0]);
+    return new PagerDutyClient(retrofit.create(EventService.class), errorConverter,
+        retrofit.callFactory(), retrofit.baseUrl());
+  }
+
+  /** The client used by {@link PagerDuty#create(String)}. */
+  static PagerDutyClient defaultClient() {
+    return DefaultClientHolder.INSTANCE;
+  }
+
+  /** Returns an instance which sends events with {@code apiKey} through this client. */
+  public PagerDuty forApiKey(String apiKey) {
+    checkStringArgument(apiKey, "apiKey");
+
+    return PagerDuty.realPagerDuty(apiKey, transport);
+  }
+
+  /**
+   * Open a connection to the PagerDuty host in the background, if none is idle, so that the next
+   * notification doesn't wait for the handshake. The connection is returned to the pool and
+   * closed once it has been idle for the pool's keep-alive duration (5 minutes by default). Does
+   * nothing while a previous warm-up is still in flight.
+   */
+  public PagerDutyClient warmUp() {
+    if (callFactory == null) {
+      return this; // Not backed by HTTP.
+    }
+    if (!warmingUp.compareAndSet(false, true)) {
+      return this;
+    }
+    Request request = new Request.Builder().url(baseUrl).head().build();
+    callFactory.newCall(request).enqueue(new Callback() {
+      @Override public void onResponse(Call call, Response response) {
+        response.body().close(); // Any response will do. Release the connection to the pool.
+        warmingUp.set(false);
+      }
+
+      @Override public void onFailure(Call call, IOException e) {
+        warmingUp.set(false); // The next warm-up or notification will try again.
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Warm up now and every {@code interval} until {@link #stopKeepingWarm()}, keeping a connection
+   * to the PagerDuty host open while no notifications are sent. Use an interval shorter than both
+   * the connection pool's keep-alive duration and the server's idle timeout; a minute suits the
+   * defaults. Calling this again replaces the previous interval.
+   */
+  public PagerDutyClient keepWarm(long interval, TimeUnit unit) {
+    checkNotNull(unit, "unit");
+    checkArgument(interval > 0, "'interval' must be positive. Was: " + interval);
+
+    Runnable warmUp = new Runnable() {
+      @Override public void run() {
+        warmUp();
+      }
+    };
+    synchronized (this) {
+      if (keepWarm != null) {
+        keepWarm.cancel(false);
+      }
+      keepWarm = SharedScheduler.INSTANCE.scheduleWithFixedDelay(warmUp, 0L, interval, unit);
+    }
+    return this;
+  }
+
+  /** Stop the periodic warm-ups started by {@link #keepWarm}. Idle connections expire normally. */
+  public synchronized void stopKeepingWarm() {
+    if (keepWarm != null) {
+      keepWarm.cancel(false);
+      keepWarm = null;
+    }
+  }
+
+  /** Defers creating the default client until it is first used. */
+  private static final class DefaultClientHolder {
+    static final PagerDutyClient INSTANCE = create();
+  }
+}
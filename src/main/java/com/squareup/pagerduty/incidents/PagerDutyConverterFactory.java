@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * A Retrofit converter for the PagerDuty events API which encodes and decodes JSON by hand rather
+ * than by reflection. {@link PagerDuty#create(String)} uses this automatically. Add it to a
+ * {@link Retrofit} passed to {@link PagerDuty#create(String, Retrofit)} to use it there too.
+ */
+public final class PagerDutyConverterFactory extends Converter.Factory {
+  static final MediaType MEDIA_TYPE = MediaType.parse(EventJson.CONTENT_TYPE);
+
+  private static final Converter<Event, RequestBody> REQUEST_BODY_CONVERTER =
+      new Converter<Event, RequestBody>() {
+        @Override public RequestBody convert(Event event) {
+          return new EventRequestBody(null, event);
+        }
+      };
+
+  static final Converter<ResponseBody, NotifyResult> RESPONSE_BODY_CONVERTER =
+      new Converter<ResponseBody, NotifyResult>() {
+        @Override public NotifyResult convert(ResponseBody body) throws IOException {
+          try {
+            return EventJson.readResult(body.source());
+          } finally {
+            body.close();
+          }
+        }
+      };
+
+  public static PagerDutyConverterFactory create() {
+    return new PagerDutyConverterFactory();
+  }
+
+  private PagerDutyConverterFactory() {
+  }
+
+  @Override public Converter<?, RequestBody> requestBodyConverter(Type type,
+      Annotation[] parameterAnnotations, Annotation[] methodAnnotations, Retrofit retrofit) {
+    if (type instanceof Class && Event.class.isAssignableFrom((Class<?>) type)) {
+      return REQUEST_BODY_CONVERTER;
+    }
+    return null;
+  }
+
+  @Override public Converter<ResponseBody, ?> responseBodyConverter(Type type,
+      Annotation[] annotations, Retrofit retrofit) {
+    if (type == NotifyResult.class) {
+      return RESPONSE_BODY_CONVERTER;
+    }
+    return null;
+  }
+
+  /**
+   * Streams an event directly into the HTTP connection's buffer. A non-null {@code serviceKey}
+   * is written in place of the event's own, so the event needn't be copied to attach a key.
+   */
+  static final class EventRequestBody extends RequestBody {
+    final String serviceKey;
+    final Event event;
+    private long contentLength = -1L;
+
+    EventRequestBody(String serviceKey, Event event) {
+      this.serviceKey = serviceKey;
+      this.event = event;
+    }
+
+    @Override public MediaType contentType() {
+      return MEDIA_TYPE;
+    }
+
+    @Override public long contentLength() {
+      if (contentLength == -1L) {
+        contentLength = EventJson.byteCount(serviceKey, event);
+      }
+      return contentLength;
+    }
+
+    @Override public void writeTo(BufferedSink sink) throws IOException {
+      EventJson.write(serviceKey, event, sink);
+    }
+  }
+}
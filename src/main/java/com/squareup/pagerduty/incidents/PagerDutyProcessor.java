@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * A <a href="http://www.reactive-streams.org/">Reactive Streams</a> processor which sends each
+ * {@link Trigger} and {@link Resolution} it receives with {@link PagerDuty#notifyAsync} and
+ * publishes the results in the order their responses arrive.
+ * <pre>{@code
+ * Processor<Event, NotifyResult> processor = PagerDutyProcessor.create(pagerDuty, 8);
+ * events.subscribe(processor);
+ * processor.subscribe(resultSubscriber);
+ * }</pre>
+ * No more than {@code maxInFlight} events are requested from upstream beyond the results the
+ * downstream subscriber has taken, so a slow PagerDuty or a slow consumer of results slows the
+ * publisher rather than growing a queue.
+ * <p>
+ * If a notification fails, upstream is cancelled and the failure is signalled downstream after
+ * the results of notifications already in flight. Decorate {@code pagerDuty} with
+ * {@link PagerDuty#retrying} to retry failures first. Only one downstream subscriber is supported.
+ * <p>
+ * This class requires the optional {@code org.reactivestreams:reactive-streams} dependency.
+ */
+public final class PagerDutyProcessor implements Processor<Event, NotifyResult> {
+  private final PagerDuty pagerDuty;
+  private final int maxInFlight;
+  private final AtomicInteger wip = new AtomicInteger();
+
+  // Guarded by this.
+  private Subscription upstream;
+  private Subscriber<? super NotifyResult> downstream;
+  private final ArrayDeque<NotifyResult> results = new ArrayDeque<>();
+  private long demand;
+  private int inFlight;
+  private boolean finished;
+  private Throwable error;
+  private boolean cancelled;
+  private boolean terminated;
+
+  private PagerDutyProcessor(PagerDuty pagerDuty, int maxInFlight) {
+    this.pagerDuty = pagerDuty;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Create a processor which sends events to {@code pagerDuty} with at most {@code maxInFlight}
+   * notifications outstanding or awaiting downstream demand.
+   */
+  public static PagerDutyProcessor create(PagerDuty pagerDuty, int maxInFlight) {
+    checkNotNull(pagerDuty, "pagerDuty");
+    checkArgument(maxInFlight > 0, "'maxInFlight' must be positive. Was: " + maxInFlight);
+
+    return new PagerDutyProcessor(pagerDuty, maxInFlight);
+  }
+
+  @Override public void onSubscribe(Subscription subscription) {
+    checkNotNull(subscription, "subscription");
+    synchronized (this) {
+      if (upstream == null && !cancelled) {
+        upstream = subscription;
+        subscription = null;
+      }
+    }
+    if (subscription != null) {
+      subscription.cancel(); // Already subscribed, or cancelled before subscribing.
+      return;
+    }
+    upstream().request(maxInFlight);
+  }
+
+  @Override public void onNext(Event event) {
+    checkNotNull(event, "event");
+    synchronized (this) {
+      if (finished) {
+        return; // Arrived after a failure cancelled upstream.
+      }
+      inFlight++;
+    }
+
+    final AtomicBoolean done = new AtomicBoolean();
+    NotifyCallback callback = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        if (!done.compareAndSet(false, true)) {
+          return;
+        }
+        synchronized (PagerDutyProcessor.this) {
+          inFlight--;
+          if (!cancelled) {
+            results.add(result);
+          }
+        }
+        drain();
+      }
+
+      @Override public void onFailure(Throwable t) {
+        if (!done.compareAndSet(false, true)) {
+          return;
+        }
+        synchronized (PagerDutyProcessor.this) {
+          inFlight--;
+        }
+        fail(t);
+      }
+    };
+    try {
+      if (event instanceof Trigger) {
+        pagerDuty.notifyAsync((Trigger) event, callback);
+      } else {
+        pagerDuty.notifyAsync((Resolution) event, callback);
+      }
+    } catch (RuntimeException e) {
+      callback.onFailure(e); // Otherwise this event would stay in flight forever.
+    }
+  }
+
+  @Override public void onError(Throwable t) {
+    checkNotNull(t, "t");
+    synchronized (this) {
+      if (!finished) {
+        finished = true;
+        error = t;
+      }
+    }
+    drain();
+  }
+
+  @Override public void onComplete() {
+    synchronized (this) {
+      finished = true;
+    }
+    drain();
+  }
+
+  @Override public void subscribe(final Subscriber<? super NotifyResult> subscriber) {
+    checkNotNull(subscriber, "subscriber");
+    boolean accepted;
+    synchronized (this) {
+      accepted = downstream == null;
+      if (accepted) {
+        downstream = subscriber;
+      }
+    }
+    if (!accepted) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override public void request(long n) {
+        }
+
+        @Override public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException("Only one subscriber is supported."));
+      return;
+    }
+
+    subscriber.onSubscribe(new Subscription() {
+      @Override public void request(long n) {
+        if (n <= 0) {
+          fail(new IllegalArgumentException("'n' must be positive. Was: " + n));
+          return;
+        }
+        synchronized (PagerDutyProcessor.this) {
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n; // Saturate on overflow.
+        }
+        drain();
+      }
+
+      @Override public void cancel() {
+        Subscription subscription;
+        synchronized (PagerDutyProcessor.this) {
+          cancelled = true;
+          finished = true;
+          results.clear();
+          subscription = upstream;
+        }
+        if (subscription != null) {
+          subscription.cancel();
+        }
+      }
+    });
+    drain();
+  }
+
+  /** Stops taking events and signals {@code t} downstream once in-flight results are delivered. */
+  private void fail(Throwable t) {
+    Subscription subscription;
+    synchronized (this) {
+      if (error == null) {
+        error = t;
+      }
+      finished = true;
+      subscription = upstream;
+    }
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    drain();
+  }
+
+  private synchronized Subscription upstream() {
+    return upstream;
+  }
+
+  /**
+   * Delivers buffered results and terminal signals to the downstream subscriber. Only one thread
+   * drains at a time; calls made while another thread is draining make it loop again.
+   */
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    while (true) {
+      drainOnce();
+      missed = wip.addAndGet(-missed);
+      if (missed == 0) {
+        return;
+      }
+    }
+  }
+
+  private void drainOnce() {
+    while (true) {
+      Subscriber<? super NotifyResult> subscriber;
+      NotifyResult result = null;
+      Throwable terminalError = null;
+      Subscription replenish = null;
+      synchronized (this) {
+        subscriber = downstream;
+        if (subscriber == null || cancelled || terminated) {
+          return;
+        }
+        if (!results.isEmpty()) {
+          if (demand == 0) {
+            return;
+          }
+          result = results.poll();
+          if (demand != Long.MAX_VALUE) {
+            demand--;
+          }
+          if (!finished) {
+            replenish = upstream;
+          }
+        } else if (finished && inFlight == 0) {
+          terminated = true;
+          terminalError = error;
+        } else {
+          return;
+        }
+      }
+
+      if (result == null) {
+        if (terminalError != null) {
+          subscriber.onError(terminalError);
+        } else {
+          subscriber.onComplete();
+        }
+        return;
+      }
+      subscriber.onNext(result);
+      if (replenish != null) {
+        replenish.request(1); // Delivering a result frees a slot for another event.
+      }
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+
+/**
+ * Sends events from several single-worker {@link BufferedPagerDuty} partitions, choosing each
+ * event's partition by the hash of its incident key. Events for one incident key are always sent
+ * by the same worker in the order they were queued, so a resolution can't overtake its trigger,
+ * while events for different keys are sent in parallel. Triggers without an incident key are
+ * spread over the partitions in turn.
+ * <p>
+ * Create instances with {@link PagerDuty#partitioned}. Each partition has the capacity and
+ * policies of the {@link BufferConfig} it was created with. Call {@link #close()} to send any
+ * queued events and stop the workers.
+ */
+public final class PartitionedPagerDuty extends PagerDuty implements Closeable {
+  private final PagerDuty delegate;
+  private final BufferedPagerDuty[] partitions;
+  private final AtomicInteger nextKeyless = new AtomicInteger();
+
+  PartitionedPagerDuty(PagerDuty delegate, BufferConfig config) {
+    this.delegate = delegate;
+    this.partitions = new BufferedPagerDuty[config.workers];
+    BufferConfig partitionConfig = config.withWorkers(1);
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i] = new BufferedPagerDuty(delegate, partitionConfig);
+    }
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  /** Queue {@code trigger} in its partition. See {@link BufferedPagerDuty#notify(Trigger)}. */
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return partitionFor(trigger).notify(trigger);
+  }
+
+  /**
+   * Queue {@code resolution} in its partition. See {@link BufferedPagerDuty#notify(Resolution)}.
+   */
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return partitionFor(resolution).notify(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    partitionFor(trigger).notifyAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    partitionFor(resolution).notifyAsync(resolution, callback);
+  }
+
+  private BufferedPagerDuty partitionFor(Event event) {
+    if (event.incident_key == null) {
+      return partitions[(nextKeyless.getAndIncrement() & Integer.MAX_VALUE) % partitions.length];
+    }
+    return partitions[partition(event.incident_key, partitions.length)];
+  }
+
+  /** Returns the partition of {@code incidentKey} among {@code count}. */
+  static int partition(String incidentKey, int count) {
+    int hash = incidentKey.hashCode();
+    // Mix the high bits into the low bits, which choose the partition.
+    hash ^= hash >>> (Integer.SIZE / 2);
+    return (hash & Integer.MAX_VALUE) % count;
+  }
+
+  /** The number of partitions, each with one worker. */
+  public int partitionCount() {
+    return partitions.length;
+  }
+
+  /** The number of events currently waiting to be sent across all partitions. */
+  public int queueDepth() {
+    int depth = 0;
+    for (BufferedPagerDuty partition : partitions) {
+      depth += partition.queueDepth();
+    }
+    return depth;
+  }
+
+  /** The number of events currently waiting to be sent by {@code partition}. */
+  public int queueDepth(int partition) {
+    return partition(partition).queueDepth();
+  }
+
+  /** The number of events accepted into {@code partition}'s queue. */
+  public long enqueuedCount(int partition) {
+    return partition(partition).enqueuedCount();
+  }
+
+  /**
+   * How unevenly events have been spread over the partitions: the number of events accepted by
+   * the busiest partition divided by the average per partition. 1.0 is perfectly even; a value
+   * near {@link #partitionCount()} means one hot incident key is taking most of the traffic and
+   * its partition's worker is the bottleneck. Returns 1.0 before any events are accepted.
+   */
+  public double skew() {
+    long max = 0L;
+    long total = 0L;
+    for (BufferedPagerDuty partition : partitions) {
+      long count = partition.enqueuedCount();
+      max = Math.max(max, count);
+      total += count;
+    }
+    return total == 0L ? 1.0 : (double) max * partitions.length / total;
+  }
+
+  private BufferedPagerDuty partition(int partition) {
+    checkArgument(partition >= 0 && partition < partitions.length,
+        "'partition' must be in [0.." + partitions.length + "). Was: " + partition);
+    return partitions[partition];
+  }
+
+  /**
+   * Stop accepting events, wait for every partition to send what it has queued, and stop the
+   * workers.
+   */
+  @Override public void close() throws IOException {
+    for (BufferedPagerDuty partition : partitions) {
+      partition.stopAccepting(); // All at once, so none keeps accepting while another drains.
+    }
+    IOException failure = null;
+    for (BufferedPagerDuty partition : partitions) {
+      try {
+        partition.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+/**
+ * How urgently an event should be sent. A {@link BufferedPagerDuty} queues each priority in its
+ * own lane so that urgent events aren't stuck behind a backlog of less urgent ones.
+ */
+public enum Priority {
+  /** Pages which must not wait, and resolutions which stop them. */
+  HIGH,
+  /** The default for triggers. */
+  NORMAL,
+  /** Bulk or informational events. The first to be shed when the queue is overloaded. */
+  LOW
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.Map;
+
+/**
+ * Chooses the priority of events which weren't given one by {@link Trigger.Builder#priority} or
+ * {@link Resolution.Builder#priority}.
+ */
+public interface PriorityRouter {
+  /** Sends resolutions at {@link Priority#HIGH} and triggers at {@link Priority#NORMAL}. */
+  PriorityRouter DEFAULT = new PriorityRouter() {
+    @Override public Priority route(String eventType, String incidentKey,
+        Map<String, String> details) {
+      return Event.TYPE_RESOLVE.equals(eventType) ? Priority.HIGH : Priority.NORMAL;
+    }
+  };
+
+  /**
+   * Returns the priority of an event of {@code eventType} for {@code incidentKey}, which may be
+   * null, with {@code details}. Must not return null.
+   */
+  Priority route(String eventType, String incidentKey, Map<String, String> details);
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Waits for a permit from a {@link RateLimiter} before each notification to a delegate. */
+final class RateLimitedPagerDuty extends PagerDuty {
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private final PagerDuty delegate;
+  private final RateLimiter limiter;
+
+  RateLimitedPagerDuty(PagerDuty delegate, RateLimiter limiter) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    sendAsync(trigger, callback);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    sendAsync(resolution, callback);
+  }
+
+  private NotifyResult send(Event event) throws IOException {
+    RateLimiter.TokenBucket bucket = limiter.bucket(delegate.serviceKey());
+    long waitNanos = reserve(bucket);
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a rate limit permit.");
+      }
+    }
+    NotifyResult result = event instanceof Trigger
+        ? delegate.notify((Trigger) event)
+        : delegate.notify((Resolution) event);
+    onResult(bucket, result);
+    return result;
+  }
+
+  private void sendAsync(final Event event, final NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    final RateLimiter.TokenBucket bucket = limiter.bucket(delegate.serviceKey());
+    long waitNanos;
+    try {
+      waitNanos = reserve(bucket);
+    } catch (NotifyRejectedException e) {
+      callback.onFailure(e);
+      return;
+    }
+
+    final NotifyCallback resultCallback = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        RateLimitedPagerDuty.this.onResult(bucket, result);
+        callback.onResult(result);
+      }
+
+      @Override public void onFailure(Throwable t) {
+        callback.onFailure(t);
+      }
+    };
+    Runnable send = new Runnable() {
+      @Override public void run() {
+        if (event instanceof Trigger) {
+          delegate.notifyAsync((Trigger) event, resultCallback);
+        } else {
+          delegate.notifyAsync((Resolution) event, resultCallback);
+        }
+      }
+    };
+    if (waitNanos > 0) {
+      SharedScheduler.INSTANCE.schedule(send, waitNanos, TimeUnit.NANOSECONDS);
+    } else {
+      send.run();
+    }
+  }
+
+  private long reserve(RateLimiter.TokenBucket bucket) throws NotifyRejectedException {
+    long waitNanos = bucket.reserve(limiter.maxWaitNanos, System.nanoTime());
+    if (waitNanos < 0) {
+      throw new NotifyRejectedException("Rate limit exceeded.");
+    }
+    return waitNanos;
+  }
+
+  private void onResult(RateLimiter.TokenBucket bucket, NotifyResult result) {
+    if (result != null && result.code == HTTP_TOO_MANY_REQUESTS) {
+      bucket.onThrottled(TimeUnit.MILLISECONDS.toNanos(result.retryAfterMillis), System.nanoTime());
+    } else {
+      bucket.onAccepted();
+    }
+  }
+}
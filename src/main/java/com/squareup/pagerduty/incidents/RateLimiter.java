@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Token buckets that limit how fast notifications are sent, one per API key. Apply a limiter with
+ * {@link PagerDuty#rateLimited}; share one limiter between every instance in the process so that
+ * instances using the same API key draw from the same bucket.
+ * <p>
+ * Buckets adapt to throttling. When PagerDuty answers {@code 429 Too Many Requests} the bucket is
+ * emptied, its rate is halved, and any {@code Retry-After} is respected. Each successful send then
+ * restores a fraction of the configured rate.
+ */
+public final class RateLimiter {
+  /** Bucket used by instances that don't send to PagerDuty directly, such as fakes. */
+  private static final String UNKNOWN_SERVICE_KEY = "";
+  /** The slowest a throttled bucket may become, as a multiple of its configured interval. */
+  private static final long MAX_SLOWDOWN = 64L;
+  /** The number of successful sends needed to restore the configured rate after throttling. */
+  private static final int RECOVERY_STEPS = 20;
+
+  final long maxWaitNanos;
+  private final long intervalNanos;
+  private final int burst;
+  private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+  private RateLimiter(Builder builder) {
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / builder.permitsPerSecond);
+    this.intervalNanos = Math.max(1L, intervalNanos);
+    this.burst = builder.burst;
+    this.maxWaitNanos = builder.maxWaitNanos;
+  }
+
+  /**
+   * The rate currently permitted for {@code serviceKey}. This is lower than the configured rate
+   * while the bucket is recovering from throttling.
+   */
+  public double permitsPerSecond(String serviceKey) {
+    return bucket(serviceKey).permitsPerSecond();
+  }
+
+  TokenBucket bucket(String serviceKey) {
+    String key = serviceKey != null ? serviceKey : UNKNOWN_SERVICE_KEY;
+    TokenBucket bucket = buckets.get(key);
+    if (bucket == null) {
+      TokenBucket created = new TokenBucket(intervalNanos, burst, System.nanoTime());
+      bucket = buckets.putIfAbsent(key, created);
+      if (bucket == null) {
+        bucket = created;
+      }
+    }
+    return bucket;
+  }
+
+  /**
+   * A lock-free token bucket implemented as a generic cell rate algorithm: the only state is the
+   * time at which the bucket will next be full, and each permit pushes that time one interval
+   * further into the future.
+   */
+  static final class TokenBucket {
+    private final long baseIntervalNanos;
+    private final int burst;
+    private final AtomicLong intervalNanos;
+    private final AtomicLong fullAtNanos;
+
+    TokenBucket(long intervalNanos, int burst, long nowNanos) {
+      this.baseIntervalNanos = intervalNanos;
+      this.burst = burst;
+      this.intervalNanos = new AtomicLong(intervalNanos);
+      this.fullAtNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a permit, returning how long the caller must wait before using it, or -1 if that would
+     * be longer than {@code maxWaitNanos}. Nothing is taken when -1 is returned.
+     */
+    long reserve(long maxWaitNanos, long nowNanos) {
+      long interval = intervalNanos.get();
+      long tolerance = burst * interval;
+      while (true) {
+        long fullAt = fullAtNanos.get();
+        long next = (fullAt - nowNanos > 0 ? fullAt : nowNanos) + interval;
+        long waitNanos = next - nowNanos - tolerance;
+        if (waitNanos > maxWaitNanos) {
+          return -1L;
+        }
+        if (fullAtNanos.compareAndSet(fullAt, next)) {
+          return Math.max(0L, waitNanos);
+        }
+      }
+    }
+
+    /** Empty the bucket and halve its rate after PagerDuty throttled a request. */
+    void onThrottled(long retryAfterNanos, long nowNanos) {
+      long interval;
+      long slowed;
+      do {
+        interval = intervalNanos.get();
+        slowed = Math.min(interval * 2, baseIntervalNanos * MAX_SLOWDOWN);
+      } while (!intervalNanos.compareAndSet(interval, slowed));
+
+      long emptyUntil = nowNanos + Math.max(retryAfterNanos, burst * slowed);
+      long fullAt;
+      do {
+        fullAt = fullAtNanos.get();
+        if (fullAt - emptyUntil >= 0) {
+          return;
+        }
+      } while (!fullAtNanos.compareAndSet(fullAt, emptyUntil));
+    }
+
+    /** Restore part of the configured rate after a request was accepted. */
+    void onAccepted() {
+      long interval = intervalNanos.get();
+      if (interval <= baseIntervalNanos) {
+        return;
+      }
+      double rate = 1.0 / interval + 1.0 / baseIntervalNanos / RECOVERY_STEPS;
+      long recovered = Math.max(baseIntervalNanos, (long) (1.0 / rate));
+      intervalNanos.compareAndSet(interval, recovered);
+    }
+
+    double permitsPerSecond() {
+      return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos.get();
+    }
+  }
+
+  /**
+   * Fluent interface for building rate limiters.
+   * <p>
+   * By default a bucket holds one second's worth of permits and callers wait as long as needed
+   * for a permit.
+   */
+  public static final class Builder {
+    private final double permitsPerSecond;
+    private int burst;
+    private long maxWaitNanos = Long.MAX_VALUE;
+
+    /**
+     * Build a limiter allowing {@code permitsPerSecond} notifications per second for each API
+     * key.
+     */
+    public Builder(double permitsPerSecond) {
+      checkArgument(permitsPerSecond > 0,
+          "'permitsPerSecond' must be positive. Was: " + permitsPerSecond);
+      this.permitsPerSecond = permitsPerSecond;
+      this.burst = (int) Math.max(1L, (long) Math.ceil(permitsPerSecond));
+    }
+
+    /** The number of notifications which may be sent back-to-back after a quiet period. */
+    public Builder burst(int burst) {
+      checkArgument(burst > 0, "'burst' must be positive. Was: " + burst);
+      this.burst = burst;
+      return this;
+    }
+
+    /**
+     * The longest a caller will wait for a permit. If no permit is available within this time the
+     * notification is rejected with {@link NotifyRejectedException}. Use zero to reject
+     * immediately instead of waiting.
+     */
+    public Builder maxWait(long maxWait, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(maxWait >= 0, "'maxWait' must not be negative. Was: " + maxWait);
+      this.maxWaitNanos = unit.toNanos(maxWait);
+      return this;
+    }
+
+    public RateLimiter build() {
+      return new RateLimiter(this);
+    }
+  }
+}
@@ -23,8 +23,16 @@ import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
 
 /** Resolve an existing incident. */
 public final class Resolution extends Event {
-  private Resolution(String incidentKey, String description, Map<String, String> details) {
+  private final transient Priority priority;
+
+  private Resolution(String incidentKey, String description, Map<String, String> details,
+      Priority priority) {
     super(null, incidentKey, TYPE_RESOLVE, description, null, null, details);
+    this.priority = priority;
+  }
+
+  @Override Priority priority() {
+    return priority;
   }
 
   /** Fluent interface for building resolution data. */
@@ -32,6 +40,7 @@ public final class Resolution extends Event {
     private final String incidentKey;
     private String description;
     private Map<String, String> details = new LinkedHashMap<>();
+    private Priority priority;
 
     /**
      * Build data to resolve an incident with the specified {@code incidentKey}.
@@ -63,8 +72,17 @@ public final class Resolution extends Event {
       return this;
     }
 
+    /**
+     * How urgently to send this resolution when it is queued by a {@link BufferedPagerDuty}. By
+     * default the buffer's {@link PriorityRouter} decides.
+     */
+    public Builder priority(Priority priority) {
+      this.priority = checkNotNull(priority, "priority");
+      return this;
+    }
+
     public Resolution build() {
-      return new Resolution(incidentKey, description, details);
+      return new Resolution(incidentKey, description, details, priority);
     }
   }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Date;
+import okhttp3.Headers;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Converter;
+import retrofit2.Response;
+
+/** Sends events through a Retrofit {@link EventService}, and so through OkHttp. */
+final class RetrofitEventTransport extends EventTransport {
+  private final EventService service;
+  private final Converter<ResponseBody, ?> errorConverter;
+
+  RetrofitEventTransport(EventService service, Converter<ResponseBody, ?> errorConverter) {
+    this.service = service;
+    this.errorConverter = errorConverter;
+  }
+
+  @Override NotifyResult send(String serviceKey, Event event) throws IOException {
+    return toResult(service.notify(body(serviceKey, event)).execute(), event, errorConverter);
+  }
+
+  @Override void sendAsync(String serviceKey, final Event event, final NotifyCallback callback) {
+    service.notify(body(serviceKey, event)).enqueue(new Callback<NotifyResult>() {
+      @Override public void onResponse(Call<NotifyResult> call, Response<NotifyResult> response) {
+        callback.onResult(toResult(response, event, errorConverter));
+      }
+
+      @Override public void onFailure(Call<NotifyResult> call, Throwable t) {
+        callback.onFailure(t);
+      }
+    });
+  }
+
+  private static PagerDutyConverterFactory.EventRequestBody body(String serviceKey, Event event) {
+    return new PagerDutyConverterFactory.EventRequestBody(serviceKey, event);
+  }
+
+  /**
+   * Returns the result carried by {@code response}. Unsuccessful responses are decoded from their
+   * error body where possible so that callers can see why the event was refused.
+   */
+  static NotifyResult toResult(Response<NotifyResult> response, Event event,
+      Converter<ResponseBody, ?> errorConverter) {
+    if (response.isSuccessful()) {
+      return response.body();
+    }
+
+    ResponseBody errorBody = response.errorBody();
+    NotifyResult error = null;
+    if (errorBody != null) {
+      try {
+        error = (NotifyResult) errorConverter.convert(errorBody);
+      } catch (IOException | RuntimeException e) {
+        // Not a PagerDuty error document (e.g., an HTML page from a proxy). Synthesize one.
+      } finally {
+        errorBody.close();
+      }
+    }
+    return errorResult(event, response.code(), response.message(), error,
+        retryAfterMillis(response.headers()));
+  }
+
+  private static long retryAfterMillis(Headers headers) {
+    String retryAfter = headers.get("Retry-After");
+    if (retryAfter == null) {
+      return 0L;
+    }
+    Date date = headers.getDate("Retry-After");
+    return retryAfterMillis(retryAfter, date != null ? date.getTime() : -1L);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.pagerduty.incidents.Util.checkArgument;
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/**
+ * Controls how a {@linkplain PagerDuty#retrying retrying} {@link PagerDuty} resends failed
+ * notifications.
+ * <p>
+ * Only failures that can be retried safely are retried. Throttled requests ({@code 429}) were not
+ * processed by PagerDuty and are always retried. Server errors and I/O failures may or may not have
+ * been processed, so they are only retried for events with an incident key, which PagerDuty
+ * de-duplicates. Invalid events and locally {@linkplain NotifyRejectedException rejected} events
+ * are never retried.
+ * <p>
+ * Delays grow exponentially with "full jitter": each delay is chosen uniformly between zero and
+ * the exponential bound. A {@code Retry-After} header sent by PagerDuty takes precedence.
+ */
+public final class RetryPolicy {
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  final int maxRetries;
+  final long baseDelayMillis;
+  final long maxDelayMillis;
+  final double budgetRatio;
+  final int budgetBurst;
+  final NotifyListener listener;
+
+  private RetryPolicy(Builder builder) {
+    this.maxRetries = builder.maxRetries;
+    this.baseDelayMillis = builder.baseDelayMillis;
+    this.maxDelayMillis = builder.maxDelayMillis;
+    this.budgetRatio = builder.budgetRatio;
+    this.budgetBurst = builder.budgetBurst;
+    this.listener = builder.listener;
+  }
+
+  /** True if an attempt to send {@code event} that ended this way may be sent again. */
+  boolean isRetryable(Event event, NotifyResult result, Throwable failure) {
+    boolean idempotent = event.incident_key != null;
+    if (failure != null) {
+      return failure instanceof IOException
+          && !(failure instanceof NotifyRejectedException)
+          && idempotent;
+    }
+    if (result == null) {
+      return false;
+    }
+    if (result.code == HTTP_TOO_MANY_REQUESTS) {
+      return true;
+    }
+    return result.code >= HTTP_SERVER_ERROR && idempotent;
+  }
+
+  /**
+   * Returns how long to wait before retry number {@code retry} (starting at zero), or -1 if
+   * PagerDuty asked us to wait longer than the maximum delay.
+   */
+  long delayMillis(int retry, NotifyResult result, Random random) {
+    if (result != null && result.retryAfterMillis > 0) {
+      return result.retryAfterMillis <= maxDelayMillis ? result.retryAfterMillis : -1L;
+    }
+    long bound = maxDelayMillis;
+    if (retry < Long.numberOfLeadingZeros(baseDelayMillis) - 1) {
+      bound = Math.min(maxDelayMillis, baseDelayMillis << retry);
+    }
+    return bound > 0 ? (long) (random.nextDouble() * (bound + 1)) : 0L;
+  }
+
+  /**
+   * Fluent interface for building retry policies.
+   * <p>
+   * All settings are optional. By default an event is retried up to 3 times, starting from a
+   * 500 ms bound and capped at 30 seconds, and retries may add at most 20% to the traffic sent
+   * after an initial allowance of 10 retries.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 500L;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 30000L;
+    private static final double DEFAULT_BUDGET_RATIO = 0.2;
+    private static final int DEFAULT_BUDGET_BURST = 10;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private int budgetBurst = DEFAULT_BUDGET_BURST;
+    private NotifyListener listener = NotifyListener.NONE;
+
+    /** The maximum number of times a single event is resent after its first attempt. */
+    public Builder maxRetries(int maxRetries) {
+      checkArgument(maxRetries >= 0, "'maxRetries' must not be negative. Was: " + maxRetries);
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /** The upper bound of the first retry's delay. Each further retry doubles the bound. */
+    public Builder baseDelay(long delay, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(delay >= 0, "'delay' must not be negative. Was: " + delay);
+      this.baseDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * The longest time to wait before a retry. If PagerDuty's {@code Retry-After} asks for a
+     * longer wait the result is returned to the caller instead.
+     */
+    public Builder maxDelay(long delay, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(delay >= 0, "'delay' must not be negative. Was: " + delay);
+      this.maxDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * Limits retries across all events sent through one instance. Each event sent earns
+     * {@code ratio} of a retry, and up to {@code burst} unused retries are saved. Once the
+     * budget is spent, failures are returned to callers without retrying so that an outage does
+     * not multiply the load on PagerDuty.
+     */
+    public Builder retryBudget(double ratio, int burst) {
+      checkArgument(ratio >= 0, "'ratio' must not be negative. Was: " + ratio);
+      checkArgument(burst >= 0, "'burst' must not be negative. Was: " + burst);
+      this.budgetRatio = ratio;
+      this.budgetBurst = burst;
+      return this;
+    }
+
+    /** Told about each retry before waiting for it. */
+    public Builder listener(NotifyListener listener) {
+      this.listener = checkNotNull(listener, "listener");
+      return this;
+    }
+
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+}
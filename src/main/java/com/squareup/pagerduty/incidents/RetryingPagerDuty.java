@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+
+/** Resends failed notifications to a delegate according to a {@link RetryPolicy}. */
+final class RetryingPagerDuty extends PagerDuty {
+  /** Budget balances are kept in thousandths of a retry so that fractional ratios accumulate. */
+  private static final long UNITS_PER_RETRY = 1000L;
+
+  private final PagerDuty delegate;
+  private final RetryPolicy policy;
+  private final long budgetDeposit;
+  private final long budgetCapacity;
+  private final AtomicLong budget;
+
+  RetryingPagerDuty(PagerDuty delegate, RetryPolicy policy) {
+    this.delegate = delegate;
+    this.policy = policy;
+    this.budgetDeposit = (long) (policy.budgetRatio * UNITS_PER_RETRY);
+    this.budgetCapacity = policy.budgetBurst * UNITS_PER_RETRY;
+    this.budget = new AtomicLong(budgetCapacity);
+  }
+
+  @Override String serviceKey() {
+    return delegate.serviceKey();
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return send(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return send(resolution);
+  }
+
+  @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    deposit();
+    sendAsync(trigger, callback, 0);
+  }
+
+  @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+    checkNotNull(callback, "callback");
+    deposit();
+    sendAsync(resolution, callback, 0);
+  }
+
+  private NotifyResult send(Event event) throws IOException {
+    deposit();
+    for (int retry = 0; true; retry++) {
+      NotifyResult result = null;
+      IOException failure = null;
+      try {
+        result = event instanceof Trigger
+            ? delegate.notify((Trigger) event)
+            : delegate.notify((Resolution) event);
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      long delayMillis = retryDelayMillis(event, result, failure, retry);
+      if (delayMillis < 0) {
+        if (failure != null) {
+          throw failure;
+        }
+        return result;
+      }
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to retry.");
+      }
+    }
+  }
+
+  private void sendAsync(final Event event, final NotifyCallback callback, final int retry) {
+    NotifyCallback attemptCallback = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        if (!scheduleRetry(event, result, null, callback, retry)) {
+          callback.onResult(result);
+        }
+      }
+
+      @Override public void onFailure(Throwable t) {
+        if (!scheduleRetry(event, null, t, callback, retry)) {
+          callback.onFailure(t);
+        }
+      }
+    };
+    if (event instanceof Trigger) {
+      delegate.notifyAsync((Trigger) event, attemptCallback);
+    } else {
+      delegate.notifyAsync((Resolution) event, attemptCallback);
+    }
+  }
+
+  private boolean scheduleRetry(final Event event, NotifyResult result, Throwable failure,
+      final NotifyCallback callback, final int retry) {
+    long delayMillis = retryDelayMillis(event, result, failure, retry);
+    if (delayMillis < 0) {
+      return false;
+    }
+    SharedScheduler.INSTANCE.schedule(new Runnable() {
+      @Override public void run() {
+        sendAsync(event, callback, retry + 1);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  /** Returns how long to wait before retrying, or -1 if this attempt's outcome is final. */
+  private long retryDelayMillis(Event event, NotifyResult result, Throwable failure, int retry) {
+    if (retry >= policy.maxRetries || !policy.isRetryable(event, result, failure)) {
+      return -1L;
+    }
+    long delayMillis = policy.delayMillis(retry, result, ThreadLocalRandom.current());
+    if (delayMillis < 0 || !withdraw()) {
+      return -1L;
+    }
+    try {
+      policy.listener.retryScheduled(event.event_type, event.incident_key, retry + 1,
+          delayMillis);
+    } catch (RuntimeException ignored) {
+      // A listener only observes retries, so its failures don't change the outcome.
+    }
+    return delayMillis;
+  }
+
+  private void deposit() {
+    long balance;
+    do {
+      balance = budget.get();
+      if (balance >= budgetCapacity) {
+        return;
+      }
+    } while (!budget.compareAndSet(balance, Math.min(budgetCapacity, balance + budgetDeposit)));
+  }
+
+  private boolean withdraw() {
+    long balance;
+    do {
+      balance = budget.get();
+      if (balance < UNITS_PER_RETRY) {
+        return false;
+      }
+    } while (!budget.compareAndSet(balance, balance - UNITS_PER_RETRY));
+    return true;
+  }
+}
@@ -17,6 +17,7 @@ package com.squareup.pagerduty.incidents;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.squareup.pagerduty.incidents.Util.checkArgument;
 import static com.squareup.pagerduty.incidents.Util.checkNotNull;
@@ -24,11 +25,49 @@ import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
 
 /** Report a new or ongoing problem. */
 public final class Trigger extends Event {
-  private static final int MAX_DESCRIPTION_LENGTH = 1024;
+  static final int MAX_DESCRIPTION_LENGTH = 1024;
 
-  private Trigger(String incidentKey, String description, String client, String clientUrl,
-      Map<String, String> details) {
-    super(null, incidentKey, TYPE_TRIGGER, description, client, clientUrl, details);
+  /** The template this trigger was created from, if it can be encoded by that template. */
+  final transient TriggerTemplate template;
+  /** Details added to those of {@link #template}. */
+  final transient EventDetails extraDetails;
+  private final transient Priority priority;
+  /** Resolve the incident once it goes this long without another trigger, or 0 for never. */
+  final transient long autoResolveNanos;
+
+  private Trigger(Builder builder) {
+    super(null, builder.incidentKey, TYPE_TRIGGER, builder.description, builder.client,
+        builder.clientUrl, builder.details);
+    this.template = null;
+    this.extraDetails = EventDetails.EMPTY;
+    this.priority = builder.priority;
+    this.autoResolveNanos = builder.autoResolveNanos;
+  }
+
+  /**
+   * A trigger with the client, client URL, priority, and auto-resolve delay of
+   * {@code template}. It is encoded using the template if {@code encodeWithTemplate} is true.
+   */
+  Trigger(TriggerTemplate template, boolean encodeWithTemplate, String incidentKey,
+      String description, Map<String, String> details, EventDetails extraDetails) {
+    super(null, incidentKey, TYPE_TRIGGER, description, template.client, template.clientUrl,
+        details);
+    this.template = encodeWithTemplate ? template : null;
+    this.extraDetails = extraDetails;
+    this.priority = template.priority;
+    this.autoResolveNanos = template.autoResolveNanos;
+  }
+
+  @Override Priority priority() {
+    return priority;
+  }
+
+  static void checkDescription(String description) {
+    checkStringArgument(description, "description");
+    checkArgument(description.length() <= MAX_DESCRIPTION_LENGTH, "'description' length must be "
+        + MAX_DESCRIPTION_LENGTH
+        + " or less. Was: "
+        + description.length());
   }
 
   /**
@@ -42,6 +81,8 @@ public final class Trigger extends Event {
     private String client;
     private String clientUrl;
     private Map<String, String> details = new LinkedHashMap<>();
+    private Priority priority;
+    private long autoResolveNanos;
 
     /**
      * Build data to trigger a new incident.
@@ -52,11 +93,7 @@ public final class Trigger extends Event {
      * is 1024 characters.
      */
     public Builder(String description) {
-      checkStringArgument(description, "description");
-      checkArgument(description.length() <= MAX_DESCRIPTION_LENGTH, "'description' length must be "
-          + MAX_DESCRIPTION_LENGTH
-          + " or less. Was: "
-          + description.length());
+      checkDescription(description);
 
       this.description = description;
     }
@@ -98,8 +135,47 @@ public final class Trigger extends Event {
       return this;
     }
 
+    /**
+     * How urgently to send this trigger when it is queued by a {@link BufferedPagerDuty}. By
+     * default the buffer's {@link PriorityRouter} decides. Triggers created from a
+     * {@linkplain #buildTemplate() template} have the template's priority.
+     */
+    public Builder priority(Priority priority) {
+      this.priority = checkNotNull(priority, "priority");
+      return this;
+    }
+
+    /**
+     * Resolve the incident automatically once {@code quietPeriod} passes without another trigger
+     * for its incident key, which suits checks that only report while failing. Each successful
+     * trigger restarts the quiet period; a trigger without this option, or a resolution, cancels
+     * it. Deadlines are kept by the transport of the {@link PagerDuty} instance that sends the
+     * trigger and are accurate to about a second. Triggers without an incident key use the key
+     * PagerDuty generates.
+     * <p>
+     * Triggers answered locally, such as duplicates suppressed by a {@link
+     * DeduplicatingPagerDuty}, don't reach that transport and so don't restart the quiet period.
+     * A condition which keeps firing is still sent about once per deduplication window, so keep
+     * that window shorter than {@code quietPeriod} or the incident may be resolved while firing.
+     */
+    public Builder autoResolveAfter(long quietPeriod, TimeUnit unit) {
+      checkNotNull(unit, "unit");
+      checkArgument(quietPeriod > 0, "'quietPeriod' must be positive. Was: " + quietPeriod);
+      this.autoResolveNanos = unit.toNanos(quietPeriod);
+      return this;
+    }
+
     public Trigger build() {
-      return new Trigger(incidentKey, description, client, clientUrl, details);
+      return new Trigger(this);
+    }
+
+    /**
+     * Build a template for triggers with this builder's client, client URL, details, priority,
+     * and auto-resolve delay. The description and incident key are not part of the template; each
+     * trigger created from it supplies its own.
+     */
+    public TriggerTemplate buildTemplate() {
+      return new TriggerTemplate(client, clientUrl, details, priority, autoResolveNanos);
     }
   }
 }
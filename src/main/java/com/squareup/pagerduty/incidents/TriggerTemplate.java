@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+import static com.squareup.pagerduty.incidents.Util.checkNotNull;
+import static com.squareup.pagerduty.incidents.Util.checkStringArgument;
+
+/**
+ * Creates triggers which share a client, client URL, and details. Create instances with
+ * {@link Trigger.Builder#buildTemplate()}.
+ * <p>
+ * The shared fields are encoded to JSON once, when the template is built. Sending a trigger from a
+ * template only encodes its description, incident key, and any extra details, and copies the
+ * rest of the request body from the pre-encoded bytes.
+ * <pre>{@code
+ * TriggerTemplate diskFull = new Trigger.Builder("Disk full")
+ *     .client("Disk Monitor")
+ *     .addDetails("host", hostName)
+ *     .buildTemplate();
+ * ...
+ * pagerDuty.notify(diskFull.trigger("Disk /var is full", "disk-full/var"));
+ * }</pre>
+ */
+public final class TriggerTemplate {
+  private static final ByteString OPEN_SERVICE_KEY =
+      new Buffer().writeByte('{').write(EventJson.SERVICE_KEY).readByteString();
+  private static final ByteString INCIDENT_KEY =
+      new Buffer().writeByte(',').write(EventJson.INCIDENT_KEY).readByteString();
+  private static final ByteString TYPE_AND_DESCRIPTION =
+      ByteString.encodeUtf8(",\"event_type\":\"trigger\",\"description\":");
+  private static final ByteString FIRST_TYPE_AND_DESCRIPTION = TYPE_AND_DESCRIPTION.substring(1);
+  private static final ByteString CLOSE_DETAILS_AND_EVENT = ByteString.encodeUtf8("}}");
+
+  final String client;
+  final String clientUrl;
+  private final EventDetails details;
+  final Priority priority;
+  final long autoResolveNanos;
+  /** Everything after the description up to the last shared detail. */
+  private final ByteString sharedFields;
+  private final boolean hasSharedDetails;
+  /** The most recently used service key and its encoding, which rarely changes. */
+  private volatile EncodedServiceKey lastServiceKey;
+
+  TriggerTemplate(String client, String clientUrl, Map<String, String> details,
+      Priority priority, long autoResolveNanos) {
+    this.client = client;
+    this.clientUrl = clientUrl;
+    this.details = EventDetails.copyOf(details);
+    this.priority = priority;
+    this.autoResolveNanos = autoResolveNanos;
+
+    Buffer buffer = new Buffer();
+    try {
+      if (client != null) {
+        buffer.writeByte(',').write(EventJson.CLIENT);
+        EventJson.string(buffer, client);
+      }
+      if (clientUrl != null) {
+        buffer.writeByte(',').write(EventJson.CLIENT_URL);
+        EventJson.string(buffer, clientUrl);
+      }
+      buffer.writeByte(',').write(EventJson.DETAILS);
+      hasSharedDetails = writeDetails(buffer, this.details, false) > 0L;
+    } catch (IOException e) {
+      throw new AssertionError(e); // Writing to memory doesn't fail.
+    }
+    sharedFields = buffer.readByteString();
+  }
+
+  /** Create a trigger with {@code description} and no incident key. */
+  public Trigger trigger(String description) {
+    Trigger.checkDescription(description);
+    return new Trigger(this, true, null, description, details, EventDetails.EMPTY);
+  }
+
+  /** Create a trigger with {@code description} for the incident {@code incidentKey}. */
+  public Trigger trigger(String description, String incidentKey) {
+    Trigger.checkDescription(description);
+    checkStringArgument(incidentKey, "incidentKey");
+    return new Trigger(this, true, incidentKey, description, details, EventDetails.EMPTY);
+  }
+
+  /**
+   * Create a trigger with {@code description} for the incident {@code incidentKey}, with
+   * {@code extraDetails} in addition to the template's. An extra detail with the same name as one
+   * of the template's replaces it.
+   */
+  public Trigger trigger(String description, String incidentKey,
+      Map<String, String> extraDetails) {
+    Trigger.checkDescription(description);
+    checkStringArgument(incidentKey, "incidentKey");
+    checkNotNull(extraDetails, "extraDetails");
+    if (extraDetails.isEmpty()) {
+      return new Trigger(this, true, incidentKey, description, details, EventDetails.EMPTY);
+    }
+
+    Map<String, String> merged = new LinkedHashMap<>(details);
+    merged.putAll(extraDetails);
+    EventDetails extra = EventDetails.copyOf(extraDetails);
+    boolean replacesShared = merged.size() < details.size() + extra.size();
+    // Replacing a shared detail changes the pre-encoded bytes, so such triggers are encoded as
+    // usual instead.
+    return new Trigger(this, !replacesShared, incidentKey, description, merged, extra);
+  }
+
+  /** Writes {@code trigger} as JSON, or only counts its bytes if {@code sink} is null. */
+  long write(String serviceKey, Trigger trigger, BufferedSink sink) throws IOException {
+    long byteCount;
+    if (serviceKey != null) {
+      byteCount = write(sink, encodedServiceKey(serviceKey));
+    } else {
+      byteCount = 1L;
+      if (sink != null) {
+        sink.writeByte('{');
+      }
+    }
+    if (trigger.incident_key != null) {
+      if (serviceKey != null) {
+        byteCount += write(sink, INCIDENT_KEY);
+      } else {
+        // No leading comma when the incident key is the first field.
+        byteCount += write(sink, EventJson.INCIDENT_KEY);
+      }
+      byteCount += EventJson.string(sink, trigger.incident_key);
+    }
+    if (serviceKey == null && trigger.incident_key == null) {
+      byteCount += write(sink, FIRST_TYPE_AND_DESCRIPTION);
+    } else {
+      byteCount += write(sink, TYPE_AND_DESCRIPTION);
+    }
+    byteCount += EventJson.string(sink, trigger.description);
+    byteCount += write(sink, sharedFields);
+    byteCount += writeDetails(sink, trigger.extraDetails, hasSharedDetails);
+    return byteCount + write(sink, CLOSE_DETAILS_AND_EVENT);
+  }
+
+  private ByteString encodedServiceKey(String serviceKey) {
+    EncodedServiceKey last = lastServiceKey;
+    if (last == null || !last.serviceKey.equals(serviceKey)) {
+      Buffer buffer = new Buffer().write(OPEN_SERVICE_KEY);
+      try {
+        EventJson.string(buffer, serviceKey);
+      } catch (IOException e) {
+        throw new AssertionError(e); // Writing to memory doesn't fail.
+      }
+      last = new EncodedServiceKey(serviceKey, buffer.readByteString());
+      lastServiceKey = last;
+    }
+    return last.bytes;
+  }
+
+  /** Writes the non-null {@code details} as JSON members, returning the number of bytes. */
+  private static long writeDetails(BufferedSink sink, EventDetails details, boolean comma)
+      throws IOException {
+    long byteCount = 0L;
+    boolean first = !comma;
+    for (int i = 0, size = details.size(); i < size; i++) {
+      String value = details.value(i);
+      if (value == null) {
+        continue;
+      }
+      if (!first) {
+        byteCount++;
+        if (sink != null) {
+          sink.writeByte(',');
+        }
+      }
+      byteCount += EventJson.string(sink, details.name(i)) + 1;
+      if (sink != null) {
+        sink.writeByte(':');
+      }
+      byteCount += EventJson.string(sink, value);
+      first = false;
+    }
+    return byteCount;
+  }
+
+  private static long write(BufferedSink sink, ByteString bytes) throws IOException {
+    if (sink != null) {
+      sink.write(bytes);
+    }
+    return bytes.size();
+  }
+
+  private static final class EncodedServiceKey {
+    final String serviceKey;
+    final ByteString bytes;
+
+    EncodedServiceKey(String serviceKey, ByteString bytes) {
+      this.serviceKey = serviceKey;
+      this.bytes = bytes;
+    }
+  }
+}
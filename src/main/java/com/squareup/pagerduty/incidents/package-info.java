@@ -42,6 +42,13 @@
  *     .build()
  * pagerDuty.notify(resolution);
  * }</pre>
+ *
+ * Both kinds of events can also be sent without blocking the calling thread. The outcome is
+ * delivered to a {@link com.squareup.pagerduty.incidents.NotifyCallback NotifyCallback}:
+ * <pre>{@code
+ * pagerDuty.notifyAsync(trigger, callback);
+ * }</pre>
+ *
  * A {@link com.squareup.pagerduty.incidents.FakePagerDuty FakePagerDuty} class is provided for
  * testing purposes which behaves similarly to a real PagerDuty backend.
  */
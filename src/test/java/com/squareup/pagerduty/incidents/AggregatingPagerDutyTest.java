@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class AggregatingPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final AggregationConfig.Builder config =
+      new AggregationConfig.Builder(2, 1, TimeUnit.MINUTES).updateInterval(1, TimeUnit.MINUTES);
+
+  private static Trigger trigger(String incidentKey) {
+    return new Trigger.Builder("Host down").withIncidentKey(incidentKey).build();
+  }
+
+  private AggregatingPagerDuty pagerDuty() {
+    for (int i = 0; i < 500; i++) {
+      delegate.enqueueResult(success(null));
+    }
+    return PagerDuty.aggregating(delegate, config.build());
+  }
+
+  @Test public void triggersAtThresholdAreSentIndividually() throws IOException {
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    pagerDuty.notify(trigger("host-1"));
+    assertThat(delegate.events()).hasSize(3);
+    assertThat(pagerDuty.aggregatedCount()).isZero();
+  }
+
+  @Test public void stormIsRolledIntoSummary() throws IOException {
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    NotifyResult summaryResult = pagerDuty.notify(trigger("host-3"));
+    assertThat(summaryResult.status()).isEqualTo("success");
+    NotifyResult aggregated = pagerDuty.notify(trigger("host-4"));
+    assertThat(aggregated.status()).isEqualTo("success");
+    assertThat(aggregated.message()).isEqualTo(AggregatingPagerDuty.MESSAGE_AGGREGATED);
+    assertThat(aggregated.incidentKey()).isEqualTo("alert-storm");
+
+    List<Event> events = delegate.events();
+    assertThat(events).hasSize(3);
+    Event summary = events.get(2);
+    assertThat(summary.incident_key).isEqualTo("alert-storm");
+    assertThat(summary.description).isEqualTo("Alert storm: 1 incident");
+    assertThat(summary.details.get(AggregatingPagerDuty.DETAIL_KEYS)).isEqualTo("host-3");
+    assertThat(pagerDuty.aggregatedCount()).isEqualTo(2);
+    assertThat(pagerDuty.aggregatedKeyCount()).isEqualTo(2);
+  }
+
+  @Test public void summaryIsUpdatedAfterInterval() throws Exception {
+    config.updateInterval(50, TimeUnit.MILLISECONDS);
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    pagerDuty.notify(trigger("host-3"));
+    pagerDuty.notify(trigger("host-4"));
+    pagerDuty.notify(trigger("host-5"));
+    assertThat(delegate.events()).hasSize(3);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (delegate.events().size() < 4 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100); // Only one update is scheduled however many triggers were aggregated.
+    List<Event> events = delegate.events();
+    assertThat(events).hasSize(4);
+    Event update = events.get(3);
+    assertThat(update.incident_key).isEqualTo("alert-storm");
+    assertThat(update.details.get(AggregatingPagerDuty.DETAIL_COUNT)).isEqualTo("3");
+    assertThat(update.details.get(AggregatingPagerDuty.DETAIL_KEYS))
+        .isEqualTo("host-3\nhost-4\nhost-5");
+  }
+
+  @Test public void keysSentIndividuallyAreStillSentDuringStorm() throws IOException {
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    pagerDuty.notify(trigger("host-3"));
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(new Trigger.Builder("Keyless").build());
+    List<Event> events = delegate.events();
+    assertThat(events).hasSize(5);
+    assertThat(events.get(3).incident_key).isEqualTo("host-1");
+    assertThat(events.get(4).incident_key).isNull();
+  }
+
+  @Test public void resolvingEveryAggregatedKeyResolvesSummary() throws IOException {
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    pagerDuty.notify(trigger("host-3"));
+    pagerDuty.notify(trigger("host-4"));
+
+    NotifyResult local = pagerDuty.notify(new Resolution.Builder("host-3").build());
+    assertThat(local.message()).isEqualTo(AggregatingPagerDuty.MESSAGE_RESOLVED);
+    assertThat(local.incidentKey()).isEqualTo("host-3");
+    assertThat(delegate.events()).hasSize(3);
+
+    pagerDuty.notify(new Resolution.Builder("host-1").build());
+    assertThat(delegate.events()).hasSize(4);
+    assertThat(delegate.events().get(3).incident_key).isEqualTo("host-1");
+
+    pagerDuty.notify(new Resolution.Builder("host-4").build());
+    List<Event> events = delegate.events();
+    assertThat(events).hasSize(5);
+    assertThat(events.get(4)).isInstanceOf(Resolution.class);
+    assertThat(events.get(4).incident_key).isEqualTo("alert-storm");
+    assertThat(pagerDuty.aggregatedKeyCount()).isZero();
+  }
+
+  @Test public void summaryIsTruncatedToFit() throws IOException {
+    config.updateInterval(1, TimeUnit.NANOSECONDS).maxSummaryBytes(1024);
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+    pagerDuty.notify(trigger("host-a"));
+    pagerDuty.notify(trigger("host-b"));
+    for (int i = 0; i < 100; i++) {
+      pagerDuty.notify(trigger("host-" + (1000000 + i)));
+    }
+
+    List<Event> events = delegate.events();
+    Event summary = events.get(events.size() - 1);
+    assertThat(EventJson.byteCount(summary)).isLessThanOrEqualTo(1024);
+    assertThat(summary.details.get(AggregatingPagerDuty.DETAIL_COUNT)).isEqualTo("100");
+    String keys = summary.details.get(AggregatingPagerDuty.DETAIL_KEYS);
+    assertThat(keys).endsWith("host-1000099").doesNotContain("host-1000000");
+    int listed = keys.split("\n").length;
+    assertThat(summary.details.get(AggregatingPagerDuty.DETAIL_OMITTED))
+        .isEqualTo(Integer.toString(100 - listed));
+  }
+
+  @Test public void failedSummaryIsRetried() throws Exception {
+    config.updateInterval(50, TimeUnit.MILLISECONDS);
+    delegate.enqueueResult(success("host-1")).enqueueResult(success("host-2"))
+        .enqueueResult(error(503, "alert-storm"));
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+    pagerDuty.notify(trigger("host-1"));
+    pagerDuty.notify(trigger("host-2"));
+    assertThat(pagerDuty.notify(trigger("host-3")).code).isEqualTo(503);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (delegate.events().size() < 4 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(delegate.events().get(3).incident_key).isEqualTo("alert-storm");
+  }
+
+  @Test public void notifyAsync() throws Exception {
+    AggregatingPagerDuty pagerDuty = pagerDuty();
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(trigger("host-1"), callback);
+    pagerDuty.notifyAsync(trigger("host-2"), callback);
+    pagerDuty.notifyAsync(trigger("host-3"), callback);
+    pagerDuty.notifyAsync(trigger("host-4"), callback);
+    callback.takeResult();
+    callback.takeResult();
+    assertThat(callback.takeResult().message()).isEqualTo("Event processed");
+    assertThat(callback.takeResult().message())
+        .isEqualTo(AggregatingPagerDuty.MESSAGE_AGGREGATED);
+
+    pagerDuty.notifyAsync(new Resolution.Builder("host-3").build(), callback);
+    assertThat(callback.takeResult().message()).isEqualTo(AggregatingPagerDuty.MESSAGE_RESOLVED);
+    assertThat(delegate.events()).hasSize(3);
+  }
+
+  @Test public void thresholdMustBePositive() {
+    try {
+      new AggregationConfig.Builder(0, 1, TimeUnit.MINUTES);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'threshold' must be positive. Was: 0");
+    }
+  }
+
+  @Test public void maxSummaryBytesMustLeaveRoom() {
+    try {
+      config.maxSummaryBytes(100);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'maxSummaryBytes' must be at least 1024. Was: 100");
+    }
+  }
+
+  @Test public void summaryDescriptionMustLeaveRoomForCount() {
+    StringBuilder description = new StringBuilder();
+    while (description.length() < 993) {
+      description.append('x');
+    }
+    new AggregationConfig.Builder(1, 1, TimeUnit.MINUTES)
+        .summaryDescription(description.toString());
+    try {
+      new AggregationConfig.Builder(1, 1, TimeUnit.MINUTES)
+          .summaryDescription(description.append('x').toString());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'summaryDescription' length must be 993 or less. Was: 994");
+    }
+  }
+}
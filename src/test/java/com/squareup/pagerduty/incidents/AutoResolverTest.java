@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class AutoResolverTest {
+  private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final RecordingTransport transport = new RecordingTransport();
+  private final AutoResolver autoResolver = transport.autoResolver();
+
+  @Test public void expiredDeadlineSendsResolution() throws Exception {
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(30));
+    assertThat(autoResolver.pendingCount()).isEqualTo(1);
+
+    Event event = transport.takeEvent();
+    assertThat(event.event_type).isEqualTo("resolve");
+    assertThat(event.incident_key).isEqualTo("disk");
+    assertThat(event.description).isEqualTo(AutoResolver.DESCRIPTION);
+    assertThat(transport.serviceKeys.take()).isEqualTo("api-key");
+    assertThat(autoResolver.pendingCount()).isEqualTo(0);
+  }
+
+  @Test public void rescheduleDelaysResolution() throws Exception {
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(100));
+    Thread.sleep(60);
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(200));
+
+    // The first deadline passes while the wheel turns several times.
+    assertThat(transport.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(transport.takeEvent().incident_key).isEqualTo("disk");
+  }
+
+  @Test public void earlierDeadlineMovesUp() throws Exception {
+    autoResolver.schedule("api-key", "disk", TimeUnit.HOURS.toNanos(1));
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(20));
+
+    assertThat(transport.takeEvent().incident_key).isEqualTo("disk");
+  }
+
+  @Test public void cancelledDeadlineIsNotResolved() throws Exception {
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(20));
+    autoResolver.cancel("api-key", "disk");
+
+    assertThat(autoResolver.pendingCount()).isEqualTo(0);
+    assertThat(transport.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test public void keysArePerServiceKey() throws Exception {
+    autoResolver.schedule("api-key-1", "disk", TimeUnit.MILLISECONDS.toNanos(20));
+    autoResolver.schedule("api-key-2", "disk", TimeUnit.MILLISECONDS.toNanos(20));
+    autoResolver.cancel("api-key-1", "disk");
+
+    assertThat(transport.takeEvent().incident_key).isEqualTo("disk");
+    assertThat(transport.serviceKeys.take()).isEqualTo("api-key-2");
+  }
+
+  @Test public void expiredDeadlinesAreResolvedInBatches() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      autoResolver.schedule("api-key", "disk-" + i, TimeUnit.MILLISECONDS.toNanos(20));
+    }
+    for (int i = 0; i < 50; i++) {
+      transport.takeEvent();
+    }
+    assertThat(transport.maxInFlight()).isLessThanOrEqualTo(AutoResolver.MAX_BATCH_IN_FLIGHT);
+    assertThat(autoResolver.pendingCount()).isEqualTo(0);
+  }
+
+  @Test public void failedResolutionIsRetried() throws Exception {
+    transport.enqueueResult(error(500, "disk"));
+    autoResolver.schedule("api-key", "disk", TimeUnit.MILLISECONDS.toNanos(20));
+
+    transport.takeEvent();
+    awaitPendingCount(1); // Retried after a delay.
+    autoResolver.cancel("api-key", "disk");
+  }
+
+  @Test public void triggerSchedulesResolution() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("api-key", transport);
+    pagerDuty.notify(new Trigger.Builder("Disk full")
+        .withIncidentKey("disk")
+        .autoResolveAfter(20, TimeUnit.MILLISECONDS)
+        .build());
+
+    assertThat(transport.takeEvent().event_type).isEqualTo("trigger");
+    Event resolution = transport.takeEvent();
+    assertThat(resolution.event_type).isEqualTo("resolve");
+    assertThat(resolution.incident_key).isEqualTo("disk");
+  }
+
+  @Test public void generatedIncidentKeyIsResolved() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("api-key", transport);
+    transport.enqueueResult(success("generated"));
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Disk full")
+        .autoResolveAfter(20, TimeUnit.MILLISECONDS)
+        .build(), callback);
+
+    assertThat(callback.takeResult().incidentKey()).isEqualTo("generated");
+    transport.takeEvent();
+    assertThat(transport.takeEvent().incident_key).isEqualTo("generated");
+  }
+
+  @Test public void resolutionAndPlainTriggerCancelAutoResolve() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("api-key", transport);
+    Trigger.Builder autoResolving = new Trigger.Builder("Disk full")
+        .autoResolveAfter(1, TimeUnit.HOURS);
+    pagerDuty.notify(autoResolving.withIncidentKey("one").build());
+    pagerDuty.notify(autoResolving.withIncidentKey("two").build());
+    assertThat(autoResolver.pendingCount()).isEqualTo(2);
+
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    pagerDuty.notify(new Trigger.Builder("Disk full").withIncidentKey("two").build());
+    assertThat(autoResolver.pendingCount()).isEqualTo(0);
+  }
+
+  @Test public void failedTriggerIsNotScheduled() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("api-key", transport);
+    transport.enqueueResult(error(503, "disk"));
+    pagerDuty.notify(new Trigger.Builder("Disk full")
+        .withIncidentKey("disk")
+        .autoResolveAfter(1, TimeUnit.HOURS)
+        .build());
+
+    assertThat(autoResolver.pendingCount()).isEqualTo(0);
+  }
+
+  @Test public void wheelSizeMustBePowerOfTwo() {
+    try {
+      new AutoResolver(transport, TICK_NANOS, 12);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'wheelSize' must be a power of two. Was: 12");
+    }
+  }
+
+  /** The retry is scheduled by the send's callback, after the event was recorded. */
+  private void awaitPendingCount(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (autoResolver.pendingCount() != count && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(autoResolver.pendingCount()).isEqualTo(count);
+  }
+
+  /**
+   * Records events and answers each with the next scripted result, or success. Uses a small wheel
+   * with a short tick so that deadlines pass during tests and wrap around the wheel.
+   */
+  static final class RecordingTransport extends EventTransport {
+    final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    final BlockingQueue<String> serviceKeys = new LinkedBlockingQueue<>();
+    private final Deque<NotifyResult> results = new ArrayDeque<>();
+    private final AutoResolver autoResolver = new AutoResolver(this, TICK_NANOS, 8);
+    private int inFlight;
+    private int maxInFlight;
+
+    @Override AutoResolver autoResolver() {
+      return autoResolver;
+    }
+
+    @Override AutoResolver autoResolverIfStarted() {
+      return autoResolver;
+    }
+
+    synchronized int maxInFlight() {
+      return maxInFlight;
+    }
+
+    synchronized void enqueueResult(NotifyResult result) {
+      results.add(result);
+    }
+
+    Event takeEvent() throws InterruptedException {
+      Event event = events.poll(5, TimeUnit.SECONDS);
+      assertThat(event).isNotNull();
+      return event;
+    }
+
+    @Override NotifyResult send(String serviceKey, Event event) throws IOException {
+      serviceKeys.add(serviceKey);
+      events.add(event);
+      return nextResult(event);
+    }
+
+    @Override void sendAsync(final String serviceKey, final Event event,
+        final NotifyCallback callback) {
+      synchronized (this) {
+        maxInFlight = Math.max(maxInFlight, ++inFlight);
+      }
+      // Complete on another thread, as a real transport would.
+      SharedScheduler.INSTANCE.execute(new Runnable() {
+        @Override public void run() {
+          NotifyResult result;
+          try {
+            result = send(serviceKey, event);
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          synchronized (RecordingTransport.this) {
+            inFlight--;
+          }
+          callback.onResult(result);
+        }
+      });
+    }
+
+    private synchronized NotifyResult nextResult(Event event) {
+      NotifyResult result = results.poll();
+      return result != null ? result : success(event.incident_key);
+    }
+  }
+}
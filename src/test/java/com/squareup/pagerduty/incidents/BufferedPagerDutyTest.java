@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+
+public final class BufferedPagerDutyTest {
+  private final FakePagerDuty fake = new FakePagerDuty();
+
+  @Test public void queuedEventsAreDelivered() throws IOException {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(fake, new BufferConfig.Builder().build());
+    NotifyResult result =
+        pagerDuty.notify(new Trigger.Builder("One").withIncidentKey("incident-one").build());
+    assertThat(result.status()).isEqualTo(BufferedPagerDuty.STATUS_QUEUED);
+    assertThat(result.incidentKey()).isEqualTo("incident-one");
+    pagerDuty.notify(new Trigger.Builder("Two").withIncidentKey("incident-two").build());
+    pagerDuty.notify(new Resolution.Builder("incident-one").build());
+    pagerDuty.close();
+
+    assertThat(fake.openIncidents()).containsExactly(entry("incident-two", "Two"));
+    assertThat(fake.closedIncidents()).containsExactly(entry("incident-one", "One"));
+    assertThat(pagerDuty.enqueuedCount()).isEqualTo(3);
+    assertThat(pagerDuty.deliveredCount()).isEqualTo(3);
+    assertThat(pagerDuty.failedCount()).isEqualTo(0);
+    assertThat(pagerDuty.queueDepth()).isEqualTo(0);
+  }
+
+  @Test public void asyncCallbackReceivesDelegateResult() throws Exception {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(fake, new BufferConfig.Builder().build());
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("One").withIncidentKey("incident-one").build(),
+        callback);
+
+    NotifyResult result = callback.takeResult();
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(result.incidentKey()).isEqualTo("incident-one");
+    pagerDuty.close();
+  }
+
+  @Test public void delegateFailuresAreCounted() throws Exception {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        throw new IOException("Connection reset");
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        throw new IOException("Connection reset");
+      }
+    }, new BufferConfig.Builder().build());
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("incident-one").build(), callback);
+
+    assertThat(callback.takeFailure()).hasMessage("Connection reset");
+    pagerDuty.close();
+    assertThat(pagerDuty.failedCount()).isEqualTo(1);
+    assertThat(pagerDuty.deliveredCount()).isEqualTo(0);
+  }
+
+  @Test public void throwingCallbackDoesNotStopTheQueue() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty =
+        blocked(gated, new BufferConfig.Builder().coalesceByIncidentKey(true));
+    NotifyCallback throwing = new NotifyCallback() {
+      @Override public void onResult(NotifyResult result) {
+        throw new IllegalStateException("boom");
+      }
+
+      @Override public void onFailure(Throwable t) {
+        throw new IllegalStateException("boom");
+      }
+    };
+    RecordingNotifyCallback merged = new RecordingNotifyCallback();
+    RecordingNotifyCallback later = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("A").withIncidentKey("a").build(), throwing);
+    pagerDuty.notifyAsync(new Trigger.Builder("A").withIncidentKey("a").build(), merged);
+    pagerDuty.notifyAsync(new Trigger.Builder("B").build(), later);
+
+    gated.open();
+    assertThat(merged.takeResult().status()).isEqualTo("success");
+    assertThat(later.takeResult().status()).isEqualTo("success");
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "A", "B");
+  }
+
+  @Test public void dropNewestDiscardsIncomingEvent() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = fillQueue(gated, OverflowPolicy.DROP_NEWEST);
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Three").build());
+    assertThat(result.status()).isEqualTo(BufferedPagerDuty.STATUS_DROPPED);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("One", "Two");
+    assertThat(pagerDuty.droppedCount()).isEqualTo(1);
+  }
+
+  @Test public void dropOldestDiscardsQueuedEvent() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = fillQueue(gated, OverflowPolicy.DROP_OLDEST);
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Three").build());
+    assertThat(result.status()).isEqualTo(BufferedPagerDuty.STATUS_QUEUED);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("One", "Three");
+    assertThat(pagerDuty.droppedCount()).isEqualTo(1);
+  }
+
+  @Test public void failFastRejectsIncomingEvent() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = fillQueue(gated, OverflowPolicy.FAIL_FAST);
+
+    try {
+      pagerDuty.notify(new Trigger.Builder("Three").build());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Dispatch queue is full.");
+    }
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("One", "Two");
+    assertThat(pagerDuty.rejectedCount()).isEqualTo(1);
+  }
+
+  @Test public void closeReleasesBlockedProducers() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    final BufferedPagerDuty pagerDuty = fillQueue(gated, OverflowPolicy.BLOCK);
+    final RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Thread producer = new Thread() {
+        @Override public void run() {
+          pagerDuty.notifyAsync(new Trigger.Builder("Blocked").build(), callback);
+        }
+      };
+      producer.start();
+      producers.add(producer);
+    }
+    for (Thread producer : producers) {
+      awaitWaiting(producer);
+    }
+
+    Thread closer = new Thread() {
+      @Override public void run() {
+        try {
+          pagerDuty.close();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    closer.start();
+    for (int i = 0; i < 5; i++) {
+      assertThat(callback.takeFailure()).hasMessage("Dispatch queue is closed.");
+    }
+
+    gated.open();
+    closer.join();
+    assertThat(gated.descriptions()).containsExactly("One", "Two");
+  }
+
+  @Test public void closedRejectsEvents() throws IOException {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(fake, new BufferConfig.Builder().build());
+    pagerDuty.close();
+    try {
+      pagerDuty.notify(new Trigger.Builder("One").build());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Dispatch queue is closed.");
+    }
+  }
+
+  @Test public void lanesAreServedByWeight() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder());
+    pagerDuty.notify(trigger("L1", Priority.LOW));
+    pagerDuty.notify(trigger("L2", Priority.LOW));
+    pagerDuty.notify(trigger("N1", Priority.NORMAL));
+    pagerDuty.notify(trigger("N2", Priority.NORMAL));
+    pagerDuty.notify(trigger("N3", Priority.NORMAL));
+    pagerDuty.notify(trigger("H1", Priority.HIGH));
+    pagerDuty.notify(trigger("H2", Priority.HIGH));
+    pagerDuty.notify(trigger("H3", Priority.HIGH));
+    assertThat(pagerDuty.queueDepth(Priority.HIGH)).isEqualTo(3);
+    assertThat(pagerDuty.queueDepth()).isEqualTo(8);
+
+    gated.open();
+    pagerDuty.close();
+    // With weights 8:2:1, HIGH is served most but NORMAL and LOW still get turns.
+    assertThat(gated.descriptions())
+        .containsExactly("Block", "H1", "H2", "N1", "H3", "L1", "L2", "N2", "N3");
+    assertThat(pagerDuty.dequeuedCount(Priority.HIGH)).isEqualTo(3);
+    assertThat(pagerDuty.dequeuedCount(Priority.NORMAL)).isEqualTo(4);
+    assertThat(pagerDuty.dequeuedCount(Priority.LOW)).isEqualTo(2);
+    assertThat(pagerDuty.maxQueueLatencyNanos(Priority.LOW))
+        .isLessThanOrEqualTo(pagerDuty.totalQueueLatencyNanos(Priority.LOW))
+        .isGreaterThan(0L);
+  }
+
+  @Test public void resolutionsSkipTriggerBacklog() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder());
+    pagerDuty.notify(new Trigger.Builder("A").withIncidentKey("a").build());
+    pagerDuty.notify(new Trigger.Builder("B").withIncidentKey("b").build());
+    pagerDuty.notify(new Resolution.Builder("x").withDescription("Resolve x").build());
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Resolve a").build());
+
+    gated.open();
+    pagerDuty.close();
+    // The trigger for "a" moves up with its resolution so that it is still sent first. The normal
+    // lane gets its turn by weight after two high-priority events.
+    assertThat(gated.descriptions()).containsExactly("Block", "Resolve x", "A", "B", "Resolve a");
+  }
+
+  @Test public void lessUrgentEventJoinsLaneOfItsKey() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder());
+    pagerDuty.notify(trigger("N1", Priority.NORMAL));
+    pagerDuty.notify(trigger("N2", Priority.NORMAL));
+    pagerDuty.notify(new Trigger.Builder("A").withIncidentKey("a").priority(Priority.NORMAL)
+        .build());
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Resolve a")
+        .priority(Priority.LOW)
+        .build());
+    assertThat(pagerDuty.queueDepth(Priority.NORMAL)).isEqualTo(4);
+    assertThat(pagerDuty.queueDepth(Priority.LOW)).isEqualTo(0);
+
+    gated.open();
+    pagerDuty.close();
+    // In its own lane the resolution would get a turn by weight before the trigger.
+    assertThat(gated.descriptions()).containsExactly("Block", "N1", "N2", "A", "Resolve a");
+  }
+
+  @Test public void routerChoosesPriorityOfUnprioritizedEvents() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder()
+        .priorityRouter(new PriorityRouter() {
+          @Override public Priority route(String eventType, String incidentKey,
+              Map<String, String> details) {
+            return "info".equals(details.get("severity")) ? Priority.LOW : Priority.HIGH;
+          }
+        }));
+    pagerDuty.notify(new Trigger.Builder("Info").addDetails("severity", "info").build());
+    pagerDuty.notify(new Trigger.Builder("Error").addDetails("severity", "error").build());
+    pagerDuty.notify(trigger("Explicit", Priority.NORMAL));
+    pagerDuty.notify(new Trigger.Builder("Templated").priority(Priority.NORMAL).buildTemplate()
+        .trigger("Templated"));
+
+    assertThat(pagerDuty.queueDepth(Priority.LOW)).isEqualTo(1);
+    assertThat(pagerDuty.queueDepth(Priority.HIGH)).isEqualTo(1);
+    assertThat(pagerDuty.queueDepth(Priority.NORMAL)).isEqualTo(2);
+    gated.open();
+    pagerDuty.close();
+  }
+
+  @Test public void lowPriorityIsShedAboveBacklog() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder()
+        .capacity(3)
+        .overflowPolicy(OverflowPolicy.FAIL_FAST)
+        .shedLowPriorityAbove(2));
+    RecordingNotifyCallback shed = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(trigger("L1", Priority.LOW), shed);
+    pagerDuty.notify(trigger("N1", Priority.NORMAL));
+
+    NotifyResult result = pagerDuty.notify(trigger("L2", Priority.LOW));
+    assertThat(result.status()).isEqualTo(BufferedPagerDuty.STATUS_DROPPED);
+    assertThat(result.message()).isEqualTo("Dispatch queue is shedding low-priority events.");
+
+    pagerDuty.notify(trigger("N2", Priority.NORMAL));
+    pagerDuty.notify(trigger("H1", Priority.HIGH)); // Full, so L1 makes room.
+    assertThat(shed.takeFailure()).isInstanceOf(NotifyRejectedException.class);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "H1", "N1", "N2");
+    assertThat(pagerDuty.shedCount()).isEqualTo(2);
+    assertThat(pagerDuty.rejectedCount()).isEqualTo(0);
+  }
+
+  @Test public void queuedTriggersForAKeyAreMerged() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty =
+        blocked(gated, new BufferConfig.Builder().coalesceByIncidentKey(true));
+    RecordingNotifyCallback first = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Disk 90%")
+        .withIncidentKey("disk")
+        .client("Monitor")
+        .addDetails("host", "db1")
+        .addDetails("usage", "90")
+        .build(), first);
+    pagerDuty.notify(new Trigger.Builder("Other").withIncidentKey("other").build());
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Disk 95%")
+        .withIncidentKey("disk")
+        .addDetails("usage", "95")
+        .build());
+    assertThat(result.status()).isEqualTo(BufferedPagerDuty.STATUS_QUEUED);
+    assertThat(pagerDuty.queueDepth()).isEqualTo(2);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "Disk 95%", "Other");
+    Event merged = gated.events().get(1);
+    assertThat(merged.client).isEqualTo("Monitor");
+    assertThat(merged.details).containsExactly(entry("host", "db1"), entry("usage", "95"));
+    assertThat(first.takeResult().incidentKey()).isEqualTo("disk");
+    assertThat(pagerDuty.coalescedCount()).isEqualTo(1);
+    assertThat(pagerDuty.enqueuedCount()).isEqualTo(4);
+  }
+
+  @Test public void queuedTriggerCollapsesIntoResolution() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty =
+        blocked(gated, new BufferConfig.Builder().coalesceByIncidentKey(true));
+    RecordingNotifyCallback trigger = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Down").withIncidentKey("a").build(), trigger);
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Up").build());
+    assertThat(pagerDuty.queueDepth()).isEqualTo(1);
+
+    gated.open();
+    pagerDuty.close();
+    // The incident may have been opened before, so the resolution is still sent.
+    assertThat(gated.descriptions()).containsExactly("Block", "Up");
+    assertThat(trigger.takeResult().incidentKey()).isEqualTo("a");
+  }
+
+  @Test public void triggerBetweenQueuedResolutionsIsDropped() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty =
+        blocked(gated, new BufferConfig.Builder().coalesceByIncidentKey(true));
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Up").build());
+    pagerDuty.notify(new Trigger.Builder("Down again").withIncidentKey("a").build());
+    assertThat(pagerDuty.queueDepth()).isEqualTo(2);
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Up again").build());
+    assertThat(pagerDuty.queueDepth()).isEqualTo(1);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "Up again");
+    assertThat(pagerDuty.coalescedCount()).isEqualTo(1);
+  }
+
+  @Test public void triggerAfterQueuedResolutionIsSent() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty =
+        blocked(gated, new BufferConfig.Builder().coalesceByIncidentKey(true));
+    pagerDuty.notify(new Resolution.Builder("a").withDescription("Up").build());
+    pagerDuty.notify(new Trigger.Builder("Down again").withIncidentKey("a").build());
+    pagerDuty.notify(new Trigger.Builder("Still down").withIncidentKey("a").build());
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "Up", "Still down");
+  }
+
+  @Test public void throwingListenerDoesNotFailEnqueue() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder()
+        .coalesceByIncidentKey(true)
+        .listener(new NotifyListener() {
+          @Override public void eventEnqueued(String eventType, String incidentKey) {
+            throw new IllegalStateException("boom");
+          }
+        }));
+    Trigger trigger = new Trigger.Builder("A").withIncidentKey("a").build();
+    assertThat(pagerDuty.notify(trigger).status()).isEqualTo(BufferedPagerDuty.STATUS_QUEUED);
+    assertThat(pagerDuty.notify(trigger).status()).isEqualTo(BufferedPagerDuty.STATUS_QUEUED);
+    assertThat(pagerDuty.coalescedCount()).isEqualTo(1);
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "A");
+  }
+
+  @Test public void eventsAreNotCoalescedByDefault() throws Exception {
+    GatedPagerDuty gated = new GatedPagerDuty();
+    BufferedPagerDuty pagerDuty = blocked(gated, new BufferConfig.Builder());
+    pagerDuty.notify(new Trigger.Builder("One").withIncidentKey("a").build());
+    pagerDuty.notify(new Trigger.Builder("Two").withIncidentKey("a").build());
+
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).containsExactly("Block", "One", "Two");
+    assertThat(pagerDuty.coalescedCount()).isEqualTo(0);
+  }
+
+  @Test public void configValidation() {
+    try {
+      new BufferConfig.Builder().capacity(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'capacity' must be positive. Was: 0");
+    }
+    try {
+      new BufferConfig.Builder().workers(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'workers' must be positive. Was: 0");
+    }
+    try {
+      new BufferConfig.Builder().overflowPolicy(null);
+      fail();
+    } catch (NullPointerException e) {
+      assertThat(e).hasMessage("overflowPolicy");
+    }
+    try {
+      new BufferConfig.Builder().weight(Priority.LOW, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'weight' must be positive. Was: 0");
+    }
+    try {
+      new BufferConfig.Builder().capacity(10).shedLowPriorityAbove(11).build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'backlog' must not exceed 'capacity'. Was: 11 > 10");
+    }
+  }
+
+  private static Trigger trigger(String description, Priority priority) {
+    return new Trigger.Builder(description).priority(priority).build();
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (thread.getState() != Thread.State.WAITING) {
+      assertThat(System.nanoTime()).isLessThan(deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  /** Returns a single-worker instance whose worker is busy with "Block". */
+  private static BufferedPagerDuty blocked(GatedPagerDuty gated, BufferConfig.Builder config)
+      throws Exception {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(gated, config.build());
+    pagerDuty.notify(new Trigger.Builder("Block").build());
+    gated.awaitFirstCall();
+    return pagerDuty;
+  }
+
+  /** Returns a single-worker instance whose worker is busy with "One" and queue holds "Two". */
+  private static BufferedPagerDuty fillQueue(GatedPagerDuty gated, OverflowPolicy policy)
+      throws Exception {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(gated, new BufferConfig.Builder()
+        .capacity(1)
+        .overflowPolicy(policy)
+        .build());
+    pagerDuty.notify(new Trigger.Builder("One").build());
+    gated.awaitFirstCall();
+    pagerDuty.notify(new Trigger.Builder("Two").build());
+    return pagerDuty;
+  }
+
+  /** Records descriptions and blocks every call until {@link #open()} is called. */
+  static final class GatedPagerDuty extends PagerDuty {
+    private final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+    private final Semaphore firstCall = new Semaphore(0);
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @Override public NotifyResult notify(Trigger trigger) throws IOException {
+      return record(trigger);
+    }
+
+    @Override public NotifyResult notify(Resolution resolution) throws IOException {
+      return record(resolution);
+    }
+
+    private NotifyResult record(Event event) throws IOException {
+      events.add(event);
+      firstCall.release();
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return new NotifyResult("success", "Event processed", event.incident_key);
+    }
+
+    void awaitFirstCall() throws InterruptedException {
+      assertThat(firstCall.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    void open() {
+      gate.countDown();
+    }
+
+    List<String> descriptions() {
+      List<String> descriptions = new ArrayList<>();
+      for (Event event : events()) {
+        descriptions.add(event.description);
+      }
+      return descriptions;
+    }
+
+    List<Event> events() {
+      synchronized (events) {
+        return new ArrayList<>(events);
+      }
+    }
+  }
+}
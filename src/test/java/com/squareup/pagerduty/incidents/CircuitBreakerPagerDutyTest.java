@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.CircuitBreakerPagerDuty.State.CLOSED;
+import static com.squareup.pagerduty.incidents.CircuitBreakerPagerDuty.State.HALF_OPEN;
+import static com.squareup.pagerduty.incidents.CircuitBreakerPagerDuty.State.OPEN;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class CircuitBreakerPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final List<String> transitions = new ArrayList<>();
+  private final CircuitBreakerConfig.Builder config = new CircuitBreakerConfig.Builder()
+      .minimumCalls(4)
+      .openDuration(100, TimeUnit.MILLISECONDS)
+      .halfOpenProbes(2);
+  private CircuitBreakerPagerDuty pagerDuty;
+
+  @Before public void setUp() {
+    create(config);
+  }
+
+  private void create(CircuitBreakerConfig.Builder config) {
+    pagerDuty = PagerDuty.circuitBreaking(delegate, config.build());
+    pagerDuty.addListener(new CircuitBreakerPagerDuty.Listener() {
+      @Override public void onStateChange(CircuitBreakerPagerDuty circuitBreaker,
+          CircuitBreakerPagerDuty.State from, CircuitBreakerPagerDuty.State to) {
+        transitions.add(from + " -> " + to);
+      }
+    });
+  }
+
+  private static Trigger trigger() {
+    return new Trigger.Builder("Paper cut").withIncidentKey("ouch").build();
+  }
+
+  private void open() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueResult(success("ouch"))
+        .enqueueFailure(new IOException("Connection reset"))
+        .enqueueResult(error(500, "ouch"));
+    pagerDuty.notify(trigger());
+    pagerDuty.notify(trigger());
+    try {
+      pagerDuty.notify(trigger());
+      fail();
+    } catch (IOException expected) {
+    }
+    pagerDuty.notify(trigger());
+    assertThat(pagerDuty.state()).isEqualTo(OPEN);
+  }
+
+  @Test public void staysClosedBelowMinimumCalls() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueResult(error(503, "ouch"))
+        .enqueueResult(error(503, "ouch"));
+
+    for (int i = 0; i < 3; i++) {
+      pagerDuty.notify(trigger());
+    }
+    assertThat(pagerDuty.state()).isEqualTo(CLOSED);
+  }
+
+  @Test public void staysClosedBelowFailureRate() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueResult(success("ouch"))
+        .enqueueResult(success("ouch"))
+        .enqueueResult(error(429, "ouch"))
+        .enqueueResult(error(400, "ouch"));
+
+    for (int i = 0; i < 5; i++) {
+      pagerDuty.notify(trigger());
+    }
+    assertThat(pagerDuty.state()).isEqualTo(CLOSED);
+  }
+
+  @Test public void nullResultIsNotAFailure() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueResult(null)
+        .enqueueResult(null)
+        .enqueueResult(null);
+
+    for (int i = 0; i < 4; i++) {
+      pagerDuty.notify(trigger());
+    }
+    assertThat(pagerDuty.state()).isEqualTo(CLOSED);
+  }
+
+  @Test public void opensAndRejects() throws IOException {
+    open();
+
+    try {
+      pagerDuty.notify(trigger());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Circuit breaker is open.");
+    }
+    assertThat(delegate.events()).hasSize(4);
+    assertThat(transitions).containsExactly("CLOSED -> OPEN");
+  }
+
+  @Test public void throwingListenerDoesNotChangeOutcome() throws Exception {
+    pagerDuty.addListener(new CircuitBreakerPagerDuty.Listener() {
+      @Override public void onStateChange(CircuitBreakerPagerDuty circuitBreaker,
+          CircuitBreakerPagerDuty.State from, CircuitBreakerPagerDuty.State to) {
+        throw new IllegalStateException("boom");
+      }
+    });
+    open(); // The call which opens the circuit still returns its result.
+    Thread.sleep(150);
+
+    delegate.enqueueResult(success("ouch"));
+    assertThat(pagerDuty.notify(trigger()).status()).isEqualTo("success");
+    assertThat(delegate.events()).hasSize(5);
+    assertThat(transitions).containsExactly("CLOSED -> OPEN", "OPEN -> HALF_OPEN");
+  }
+
+  @Test public void openDivertsToFallback() throws IOException {
+    FakePagerDuty fallback = new FakePagerDuty();
+    create(config.fallback(fallback));
+    open();
+
+    NotifyResult result = pagerDuty.notify(trigger());
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(fallback.openIncidents()).containsKey("ouch");
+    assertThat(delegate.events()).hasSize(4);
+  }
+
+  @Test public void halfOpenProbesClose() throws Exception {
+    open();
+    Thread.sleep(150);
+
+    delegate.enqueueResult(success("ouch")).enqueueResult(success("ouch"));
+    pagerDuty.notify(trigger());
+    assertThat(pagerDuty.state()).isEqualTo(HALF_OPEN);
+    pagerDuty.notify(trigger());
+    assertThat(pagerDuty.state()).isEqualTo(CLOSED);
+    assertThat(transitions).containsExactly("CLOSED -> OPEN", "OPEN -> HALF_OPEN",
+        "HALF_OPEN -> CLOSED");
+  }
+
+  @Test public void failedProbeReopens() throws Exception {
+    open();
+    Thread.sleep(150);
+
+    delegate.enqueueResult(error(502, "ouch"));
+    pagerDuty.notify(trigger());
+    assertThat(pagerDuty.state()).isEqualTo(OPEN);
+    assertThat(transitions).containsExactly("CLOSED -> OPEN", "OPEN -> HALF_OPEN",
+        "HALF_OPEN -> OPEN");
+  }
+
+  @Test public void halfOpenLimitsProbes() throws Exception {
+    final List<NotifyCallback> inFlight = new ArrayList<>();
+    PagerDuty async = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) {
+        throw new AssertionError();
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) {
+        throw new AssertionError();
+      }
+
+      @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+        inFlight.add(callback);
+      }
+    };
+    CircuitBreakerPagerDuty pagerDuty =
+        PagerDuty.circuitBreaking(async, config.minimumCalls(1).build());
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(trigger(), callback);
+    inFlight.remove(0).onResult(error(503, "ouch"));
+    assertThat(callback.takeResult().code).isEqualTo(503);
+    assertThat(pagerDuty.state()).isEqualTo(OPEN);
+    Thread.sleep(150);
+
+    pagerDuty.notifyAsync(trigger(), callback);
+    pagerDuty.notifyAsync(trigger(), callback);
+    assertThat(inFlight).hasSize(2);
+    pagerDuty.notifyAsync(trigger(), callback);
+    assertThat(callback.takeFailure()).isInstanceOf(NotifyRejectedException.class);
+    assertThat(inFlight).hasSize(2);
+  }
+
+  @Test public void slowCallsOpen() throws IOException {
+    PagerDuty slow = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        try {
+          Thread.sleep(30);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        return success(trigger.incident_key);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        throw new AssertionError();
+      }
+    };
+    CircuitBreakerPagerDuty pagerDuty = PagerDuty.circuitBreaking(slow,
+        config.slowCallDuration(20, TimeUnit.MILLISECONDS).build());
+    for (int i = 0; i < 4; i++) {
+      assertThat(pagerDuty.notify(trigger()).status()).isEqualTo("success");
+    }
+    assertThat(pagerDuty.state()).isEqualTo(OPEN);
+  }
+
+  @Test public void asyncRejectedWhenOpen() throws Exception {
+    open();
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(trigger(), callback);
+    assertThat(callback.takeFailure()).isInstanceOf(NotifyRejectedException.class);
+  }
+}
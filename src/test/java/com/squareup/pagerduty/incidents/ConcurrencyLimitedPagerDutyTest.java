@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class ConcurrencyLimitedPagerDutyTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final PendingPagerDuty pending = new PendingPagerDuty();
+
+  @Test public void asyncSendsWaitForASlot() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().initialLimit(1).build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(pending, limiter);
+    RecordingNotifyCallback first = new RecordingNotifyCallback();
+    RecordingNotifyCallback second = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("one").build(), first);
+    pagerDuty.notifyAsync(new Resolution.Builder("two").build(), second);
+
+    assertThat(pending.size()).isEqualTo(1);
+    assertThat(limiter.inFlight(null)).isEqualTo(1);
+    pending.complete(0, success("one"));
+    assertThat(first.takeResult().incidentKey()).isEqualTo("one");
+    assertThat(pending.size()).isEqualTo(2);
+    pending.complete(1, success("two"));
+    assertThat(second.takeResult().incidentKey()).isEqualTo("two");
+    assertThat(limiter.inFlight(null)).isEqualTo(0);
+  }
+
+  @Test public void asyncSendIsRejectedAfterMaxWait() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder()
+        .initialLimit(1)
+        .maxWait(50, TimeUnit.MILLISECONDS)
+        .build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(pending, limiter);
+    pagerDuty.notifyAsync(new Resolution.Builder("one").build(), new RecordingNotifyCallback());
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("two").build(), callback);
+
+    assertThat(callback.takeFailure()).isInstanceOf(NotifyRejectedException.class)
+        .hasMessage("Concurrency limit exceeded.");
+    assertThat(pending.size()).isEqualTo(1);
+  }
+
+  @Test public void asyncSendThatThrowsReleasesItsSlot() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().initialLimit(1).build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(pending, limiter);
+    RecordingNotifyCallback first = new RecordingNotifyCallback();
+    RecordingNotifyCallback throwing = new RecordingNotifyCallback();
+    RecordingNotifyCallback last = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("one").build(), first);
+    // PendingPagerDuty only holds resolutions; triggers throw from the sync notify().
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").build(), throwing);
+    pagerDuty.notifyAsync(new Resolution.Builder("two").build(), last);
+
+    pending.complete(0, success("one"));
+    assertThat(first.takeResult().incidentKey()).isEqualTo("one");
+    assertThat(throwing.takeFailure()).isInstanceOf(UnsupportedOperationException.class);
+    assertThat(pending.size()).isEqualTo(2);
+    pending.complete(1, success("two"));
+    assertThat(last.takeResult().incidentKey()).isEqualTo("two");
+    assertThat(limiter.inFlight(null)).isEqualTo(0);
+  }
+
+  @Test public void syncSendIsRejectedWhenFull() throws IOException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder()
+        .initialLimit(1)
+        .maxWait(0, TimeUnit.SECONDS)
+        .build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(pending, limiter);
+    pagerDuty.notifyAsync(new Resolution.Builder("one").build(), new RecordingNotifyCallback());
+    try {
+      pagerDuty.notify(new Resolution.Builder("two").build());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Concurrency limit exceeded.");
+    }
+  }
+
+  @Test public void throttlingHalvesTheLimit() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().initialLimit(10).build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(delegate, limiter);
+    delegate.enqueueResult(error(429, "one"));
+
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    assertThat(limiter.limit(null)).isEqualTo(5);
+    assertThat(limiter.inFlight(null)).isEqualTo(0);
+  }
+
+  @Test public void localRejectionsDoNotChangeTheLimit() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().initialLimit(10).build();
+    PagerDuty pagerDuty = PagerDuty.concurrencyLimited(delegate, limiter);
+    delegate.enqueueFailure(new NotifyRejectedException("Circuit breaker is open."));
+
+    try {
+      pagerDuty.notify(new Resolution.Builder("one").build());
+      fail();
+    } catch (NotifyRejectedException expected) {
+    }
+    assertThat(limiter.limit(null)).isEqualTo(10);
+  }
+
+  @Test public void limitGrowsWhileInUse() throws InterruptedException {
+    ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter.Limit(2, 4, 2.0);
+    for (int i = 0; i < 20; i++) {
+      assertThat(limit.acquire(0L)).isTrue();
+      assertThat(limit.acquire(0L)).isTrue();
+      limit.release(0L, 10 * MILLIS, true, false);
+      limit.release(0L, 10 * MILLIS, true, false);
+    }
+    assertThat(limit.limit()).isEqualTo(4);
+  }
+
+  @Test public void idleLimitDoesNotGrow() throws InterruptedException {
+    ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter.Limit(10, 20, 2.0);
+    for (int i = 0; i < 50; i++) {
+      assertThat(limit.acquire(0L)).isTrue();
+      limit.release(0L, 10 * MILLIS, true, false);
+    }
+    assertThat(limit.limit()).isEqualTo(10);
+  }
+
+  @Test public void slowRoundTripsShrinkTheLimit() throws InterruptedException {
+    ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter.Limit(20, 20, 2.0);
+    assertThat(limit.acquire(0L)).isTrue();
+    limit.release(0L, 10 * MILLIS, true, false);
+    assertThat(limit.acquire(0L)).isTrue();
+    limit.release(100 * MILLIS, 150 * MILLIS, true, false);
+    assertThat(limit.limit()).isEqualTo(18);
+  }
+
+  @Test public void limitIsCutOncePerRoundTrip() throws InterruptedException {
+    ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter.Limit(8, 8, 2.0);
+    for (int i = 0; i < 3; i++) {
+      assertThat(limit.acquire(0L)).isTrue();
+    }
+    limit.release(0L, 100 * MILLIS, true, true);
+    limit.release(0L, 101 * MILLIS, true, true);
+    assertThat(limit.limit()).isEqualTo(4);
+
+    // A request sent after the cut may cut it again.
+    limit.release(150 * MILLIS, 250 * MILLIS, true, true);
+    assertThat(limit.limit()).isEqualTo(2);
+  }
+
+  @Test public void limitNeverDropsBelowOne() throws InterruptedException {
+    ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter.Limit(2, 2, 2.0);
+    for (int i = 0; i < 5; i++) {
+      assertThat(limit.acquire(0L)).isTrue();
+      limit.release(i * 10 * MILLIS, (i * 10 + 1) * MILLIS, true, true);
+    }
+    assertThat(limit.limit()).isEqualTo(1);
+  }
+
+  @Test public void initialLimitMustNotExceedMaxLimit() {
+    try {
+      new ConcurrencyLimiter.Builder().initialLimit(10).maxLimit(5).build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'initialLimit' must not exceed 'maxLimit'. Was: 10 > 5");
+    }
+  }
+
+  /** Holds asynchronous notifications until the test completes them. */
+  static final class PendingPagerDuty extends PagerDuty {
+    private final List<NotifyCallback> callbacks = new ArrayList<>();
+
+    @Override public NotifyResult notify(Trigger trigger) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public NotifyResult notify(Resolution resolution) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public synchronized void notifyAsync(Resolution resolution,
+        NotifyCallback callback) {
+      callbacks.add(callback);
+    }
+
+    synchronized int size() {
+      return callbacks.size();
+    }
+
+    void complete(int index, NotifyResult result) {
+      NotifyCallback callback;
+      synchronized (this) {
+        callback = callbacks.get(index);
+      }
+      callback.onResult(result);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class DeduplicatingPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final DeduplicatingPagerDuty pagerDuty =
+      PagerDuty.deduplicating(delegate, new DedupConfig.Builder(1, TimeUnit.MINUTES).build());
+
+  private static Trigger trigger(String incidentKey) {
+    return new Trigger.Builder("Paper cut").withIncidentKey(incidentKey).build();
+  }
+
+  @Test public void duplicateTriggerIsAnsweredLocally() throws IOException {
+    delegate.enqueueResult(success("ouch"));
+
+    assertThat(pagerDuty.notify(trigger("ouch")).message()).isEqualTo("Event processed");
+    NotifyResult duplicate = pagerDuty.notify(trigger("ouch"));
+    assertThat(duplicate.status()).isEqualTo("success");
+    assertThat(duplicate.message()).isEqualTo(DeduplicatingPagerDuty.MESSAGE_SUPPRESSED);
+    assertThat(duplicate.incidentKey()).isEqualTo("ouch");
+    assertThat(delegate.events()).hasSize(1);
+    assertThat(pagerDuty.suppressedCount()).isEqualTo(1);
+  }
+
+  @Test public void differentKeysAreSent() throws IOException {
+    delegate.enqueueResult(success("one")).enqueueResult(success("two"));
+
+    pagerDuty.notify(trigger("one"));
+    pagerDuty.notify(trigger("two"));
+    assertThat(delegate.events()).hasSize(2);
+    assertThat(pagerDuty.trackedKeyCount()).isEqualTo(2);
+  }
+
+  @Test public void keylessTriggersAreAlwaysSent() throws IOException {
+    delegate.enqueueResult(success("generated-1")).enqueueResult(success("generated-2"));
+
+    pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(delegate.events()).hasSize(2);
+    assertThat(pagerDuty.trackedKeyCount()).isEqualTo(0);
+  }
+
+  @Test public void resolutionForgetsKey() throws IOException {
+    delegate.enqueueResult(success("ouch"))
+        .enqueueResult(success("ouch"))
+        .enqueueResult(success("ouch"));
+
+    pagerDuty.notify(trigger("ouch"));
+    pagerDuty.notify(new Resolution.Builder("ouch").build());
+    pagerDuty.notify(trigger("ouch"));
+    assertThat(delegate.events()).hasSize(3);
+    assertThat(pagerDuty.suppressedCount()).isEqualTo(0);
+  }
+
+  @Test public void failedTriggerIsNotRemembered() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueFailure(new IOException("Connection reset"))
+        .enqueueResult(success("ouch"));
+
+    assertThat(pagerDuty.notify(trigger("ouch")).code).isEqualTo(503);
+    try {
+      pagerDuty.notify(trigger("ouch"));
+      fail();
+    } catch (IOException expected) {
+    }
+    pagerDuty.notify(trigger("ouch"));
+    assertThat(delegate.events()).hasSize(3);
+  }
+
+  @Test public void nullResultIsNotRemembered() throws IOException {
+    delegate.enqueueResult(null).enqueueResult(success("ouch"));
+
+    assertThat(pagerDuty.notify(trigger("ouch"))).isNull();
+    pagerDuty.notify(trigger("ouch"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void triggerIsSentAgainAfterWindow() throws Exception {
+    DeduplicatingPagerDuty pagerDuty = PagerDuty.deduplicating(delegate,
+        new DedupConfig.Builder(100, TimeUnit.MILLISECONDS).build());
+    delegate.enqueueResult(success("ouch")).enqueueResult(success("ouch"));
+
+    pagerDuty.notify(trigger("ouch"));
+    pagerDuty.notify(trigger("ouch"));
+    assertThat(delegate.events()).hasSize(1);
+
+    Thread.sleep(150);
+    pagerDuty.notify(trigger("ouch"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void changedDetailsAreSentWhenMatchingDetails() throws IOException {
+    DeduplicatingPagerDuty pagerDuty = PagerDuty.deduplicating(delegate,
+        new DedupConfig.Builder(1, TimeUnit.MINUTES).matchDetails(true).build());
+    delegate.enqueueResult(success("ouch")).enqueueResult(success("ouch"));
+
+    Trigger.Builder builder = new Trigger.Builder("Paper cut").withIncidentKey("ouch");
+    pagerDuty.notify(builder.addDetails("depth", "1mm").build());
+    pagerDuty.notify(builder.build());
+    pagerDuty.notify(builder.addDetails("depth", "2mm").build());
+    assertThat(delegate.events()).hasSize(2);
+    assertThat(pagerDuty.suppressedCount()).isEqualTo(1);
+  }
+
+  @Test public void oldestKeysAreEvictedWhenFull() throws IOException {
+    DeduplicatingPagerDuty pagerDuty = PagerDuty.deduplicating(delegate,
+        new DedupConfig.Builder(1, TimeUnit.MINUTES).maxKeys(2).build());
+    delegate.enqueueResult(success("one"))
+        .enqueueResult(success("two"))
+        .enqueueResult(success("three"))
+        .enqueueResult(success("one"));
+
+    pagerDuty.notify(trigger("one"));
+    pagerDuty.notify(trigger("two"));
+    pagerDuty.notify(trigger("three"));
+    assertThat(pagerDuty.trackedKeyCount()).isEqualTo(2);
+
+    pagerDuty.notify(trigger("three"));
+    pagerDuty.notify(trigger("one"));
+    assertThat(delegate.events()).hasSize(4);
+    assertThat(pagerDuty.suppressedCount()).isEqualTo(1);
+  }
+
+  @Test public void asyncDuplicateIsAnsweredLocally() throws Exception {
+    delegate.enqueueResult(success("ouch"));
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(trigger("ouch"), callback);
+    assertThat(callback.takeResult().message()).isEqualTo("Event processed");
+    pagerDuty.notifyAsync(trigger("ouch"), callback);
+    assertThat(callback.takeResult().message())
+        .isEqualTo(DeduplicatingPagerDuty.MESSAGE_SUPPRESSED);
+    assertThat(delegate.events()).hasSize(1);
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.squareup.pagerduty.incidents.EventAssert.assertThat;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+import static org.junit.Assert.fail;
+
+public final class DurablePagerDutyTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private DurablePagerDuty open(PagerDuty delegate) throws IOException {
+    return PagerDuty.durable(delegate, new OutboxConfig.Builder(temporaryFolder.getRoot())
+        .segmentSize(1024)
+        .replayInterval(0, TimeUnit.SECONDS)
+        .build());
+  }
+
+  @Test public void successfulEventsAreNotReplayed() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty().enqueueResult(success("ouch"));
+    DurablePagerDuty pagerDuty = open(delegate);
+    pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    assertThat(pagerDuty.pendingCount()).isEqualTo(0);
+    pagerDuty.close();
+
+    ScriptedPagerDuty reopened = new ScriptedPagerDuty();
+    DurablePagerDuty pagerDuty2 = open(reopened);
+    assertThat(pagerDuty2.pendingCount()).isEqualTo(0);
+    assertThat(pagerDuty2.replay()).isEqualTo(0);
+    assertThat(reopened.events()).isEmpty();
+    pagerDuty2.close();
+  }
+
+  @Test public void failedEventsAreReplayedAfterRestart() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty()
+        .enqueueFailure(new IOException("Network unreachable"))
+        .enqueueResult(error(503, "two"));
+    DurablePagerDuty pagerDuty = open(delegate);
+    try {
+      pagerDuty.notify(new Trigger.Builder("Paper cut")
+          .withIncidentKey("ouch")
+          .client("Monitor")
+          .clientUrl("https://monitor.example.com")
+          .addDetails("Location", "Left index finger")
+          .addDetails("Empty", null)
+          .build());
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Network unreachable");
+    }
+    pagerDuty.notify(new Resolution.Builder("two").withDescription("Healed").build());
+    assertThat(pagerDuty.pendingCount()).isEqualTo(2);
+    pagerDuty.close();
+
+    ScriptedPagerDuty reopened = new ScriptedPagerDuty()
+        .enqueueResult(success("ouch"))
+        .enqueueResult(success("two"));
+    DurablePagerDuty pagerDuty2 = open(reopened);
+    assertThat(pagerDuty2.pendingCount()).isEqualTo(2);
+    assertThat(pagerDuty2.replay()).isEqualTo(2);
+    assertThat(pagerDuty2.pendingCount()).isEqualTo(0);
+
+    Event trigger = reopened.events().get(0);
+    assertThat(trigger).isInstanceOf(Trigger.class);
+    assertThat(trigger).hasEventType("trigger")
+        .hasIncidentKey("ouch")
+        .hasDescription("Paper cut")
+        .hasDetails(entry("Location", "Left index finger"), entry("Empty", null));
+    assertThat(trigger.client).isEqualTo("Monitor");
+    assertThat(trigger.client_url).isEqualTo("https://monitor.example.com");
+    Event resolution = reopened.events().get(1);
+    assertThat(resolution).isInstanceOf(Resolution.class);
+    assertThat(resolution).hasEventType("resolve")
+        .hasIncidentKey("two")
+        .hasDescription("Healed")
+        .hasNoDetails();
+    pagerDuty2.close();
+  }
+
+  @Test public void eventBeingSentIsNotReplayed() throws IOException {
+    final ScriptedPagerDuty scripted = new ScriptedPagerDuty().enqueueResult(success("ouch"));
+    final DurablePagerDuty[] durable = new DurablePagerDuty[1];
+    final int[] replayedWhileSending = new int[1];
+    PagerDuty replaying = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        replayedWhileSending[0] = durable[0].replay(); // A replay racing with the send.
+        return scripted.notify(trigger);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        return scripted.notify(resolution);
+      }
+    };
+    durable[0] = open(replaying);
+    durable[0].notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+
+    assertThat(replayedWhileSending[0]).isEqualTo(0);
+    assertThat(scripted.events()).hasSize(1);
+    assertThat(durable[0].pendingCount()).isEqualTo(0);
+    durable[0].close();
+  }
+
+  @Test public void replayStopsAtFirstFailure() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty()
+        .enqueueResult(error(500, "one"))
+        .enqueueResult(error(500, "two"))
+        .enqueueFailure(new IOException("Still down"));
+    DurablePagerDuty pagerDuty = open(delegate);
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    pagerDuty.notify(new Resolution.Builder("two").build());
+
+    assertThat(pagerDuty.replay()).isEqualTo(0);
+    assertThat(delegate.events()).hasSize(3);
+    assertThat(pagerDuty.pendingCount()).isEqualTo(2);
+    pagerDuty.close();
+  }
+
+  @Test public void acknowledgedSegmentsAreDeleted() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+    DurablePagerDuty pagerDuty = open(delegate);
+    for (int i = 0; i < 100; i++) {
+      delegate.enqueueResult(success("incident-" + i));
+      pagerDuty.notify(new Resolution.Builder("incident-" + i)
+          .withDescription("Resolving incident number " + i)
+          .build());
+    }
+    pagerDuty.close();
+
+    // Only the segment currently being written remains.
+    assertThat(temporaryFolder.getRoot().listFiles()).hasSize(1);
+  }
+
+  @Test public void tornRecordIsIgnored() throws IOException {
+    ScriptedPagerDuty delegate = new ScriptedPagerDuty()
+        .enqueueFailure(new IOException("one"))
+        .enqueueFailure(new IOException("two"));
+    DurablePagerDuty pagerDuty = open(delegate);
+    for (String key : new String[] {"one", "two"}) {
+      try {
+        pagerDuty.notify(new Resolution.Builder(key).build());
+        fail();
+      } catch (IOException expected) {
+      }
+    }
+    pagerDuty.close();
+
+    // Corrupt the last byte of the second record's payload.
+    File segment = temporaryFolder.getRoot().listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    int firstLength = file.readInt();
+    long secondRecord = 9 + firstLength;
+    file.seek(secondRecord);
+    int secondLength = file.readInt();
+    file.seek(secondRecord + 9 + secondLength - 1);
+    file.write('X');
+    file.close();
+
+    DurablePagerDuty pagerDuty2 = open(new ScriptedPagerDuty());
+    assertThat(pagerDuty2.pendingCount()).isEqualTo(1);
+    pagerDuty2.close();
+  }
+
+  @Test public void codecRoundTrip() {
+    Trigger trigger = new Trigger.Builder("Paper cut ✂")
+        .withIncidentKey("ouch")
+        .addDetails("Location", "Left index finger")
+        .build();
+    Event decoded = Outbox.decode(Outbox.encode(trigger));
+    assertThat(decoded).hasEventType("trigger")
+        .hasIncidentKey("ouch")
+        .hasDescription("Paper cut ✂")
+        .hasDetails(entry("Location", "Left index finger"));
+    assertThat(decoded.client).isNull();
+
+    assertThat(Outbox.decode(new byte[] {0, 0, 0})).isNull();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+
+public final class EventDetailsTest {
+  @Test public void keepsInsertionOrder() {
+    EventDetails details = EventDetails.copyOf(TestUtil.map("b", "1", "a", "2", "c", null));
+    assertThat(details).containsExactly(entry("b", "1"), entry("a", "2"), entry("c", null));
+    assertThat(details.size()).isEqualTo(3);
+    assertThat(details.name(1)).isEqualTo("a");
+    assertThat(details.value(1)).isEqualTo("2");
+    assertThat(details.get("a")).isEqualTo("2");
+    assertThat(details.get("z")).isNull();
+    assertThat(details.containsKey("c")).isTrue();
+  }
+
+  @Test public void copyOfFrozenDetailsIsShared() {
+    EventDetails details = EventDetails.copyOf(TestUtil.map("a", "1"));
+    assertThat(EventDetails.copyOf(details)).isSameAs(details);
+    assertThat(EventDetails.copyOf(new LinkedHashMap<String, String>()))
+        .isSameAs(EventDetails.EMPTY);
+  }
+
+  @Test public void copyIsIndependentOfSource() {
+    Map<String, String> source = new LinkedHashMap<>();
+    source.put("a", "1");
+    EventDetails details = EventDetails.copyOf(source);
+    source.put("b", "2");
+    assertThat(details).containsExactly(entry("a", "1"));
+  }
+
+  @Test public void equalsOtherMaps() {
+    EventDetails details = EventDetails.copyOf(TestUtil.map("a", "1", "b", "2"));
+    assertThat(details).isEqualTo(EventDetails.copyOf(TestUtil.map("a", "1", "b", "2")));
+    assertThat(details).isEqualTo(EventDetails.copyOf(TestUtil.map("b", "2", "a", "1")));
+    assertThat(details).isEqualTo(TestUtil.map("a", "1", "b", "2"));
+    assertThat(details).isNotEqualTo(EventDetails.copyOf(TestUtil.map("a", "1")));
+    assertThat(details.hashCode()).isEqualTo(TestUtil.map("b", "2", "a", "1").hashCode());
+  }
+
+  @Test public void immutable() {
+    EventDetails details = EventDetails.copyOf(TestUtil.map("a", "1"));
+    try {
+      details.put("b", "2");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      details.entrySet().iterator().remove();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  @Test public void derivedEventsShareDetails() {
+    Trigger trigger = new Trigger.Builder("Paper cut").addDetails("a", "1").build();
+    Event copy = new Event("123456", trigger.incident_key, trigger.event_type,
+        trigger.description, trigger.client, trigger.client_url, trigger.details);
+    assertThat(copy.details).isSameAs(trigger.details);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class EventJsonTest {
+  private final Gson gson = new Gson();
+
+  @Test public void encodingMatchesGson() throws IOException {
+    Event event = new Event("e93facc04764012d7bfb002500d5d1a6", "srv01/HTTP", "trigger",
+        "FAILURE for production/HTTP on machine srv01.acme.com", "Sample Monitoring Service",
+        "https://monitoring.service.com", TestUtil.map("ping time", "1500ms", "load avg", "0.75"));
+    assertThat(encode(event)).isEqualTo(gson.toJson(event));
+  }
+
+  @Test public void nullFieldsAndDetailValuesAreOmitted() throws IOException {
+    Event event = new Event(null, "srv01/HTTP", "resolve", null, null, null,
+        TestUtil.map("gone", null, "kept", "yes"));
+    assertThat(encode(event)).isEqualTo(""
+        + "{"
+        + "\"incident_key\":\"srv01/HTTP\","
+        + "\"event_type\":\"resolve\","
+        + "\"details\":{\"kept\":\"yes\"}"
+        + "}");
+    assertThat(encode(event)).isEqualTo(gson.toJson(event));
+  }
+
+  @Test public void stringsAreEscaped() throws IOException {
+    Event event = new Event(null, null, "trigger", "\"Quoted\"\\ \n\t\u0001 \u2028", null, null,
+        TestUtil.map());
+    assertThat(encode(event)).isEqualTo(""
+        + "{"
+        + "\"event_type\":\"trigger\","
+        + "\"description\":\"\\\"Quoted\\\"\\\\ \\n\\t\\u0001 \\u2028\","
+        + "\"details\":{}"
+        + "}");
+  }
+
+  @Test public void byteCountMatchesEncodedSize() throws IOException {
+    Event event = new Event("key", "caf\u00e9", "trigger", "\u2603 snow \ud83d\udca9 \ud83d",
+        null, null, TestUtil.map("\"x\"", "\u00ff\n"));
+    Buffer buffer = new Buffer();
+    EventJson.write(event, buffer);
+    assertThat(EventJson.byteCount(event)).isEqualTo(buffer.size());
+  }
+
+  @Test public void serviceKeyIsAttachedWhileWriting() throws IOException {
+    Trigger trigger = new Trigger.Builder("Paper cut").withIncidentKey("ouch").build();
+    Buffer buffer = new Buffer();
+    EventJson.write("123456", trigger, buffer);
+    assertThat(EventJson.byteCount("123456", trigger)).isEqualTo(buffer.size());
+    assertThat(buffer.readUtf8()).isEqualTo(""
+        + "{"
+        + "\"service_key\":\"123456\","
+        + "\"incident_key\":\"ouch\","
+        + "\"event_type\":\"trigger\","
+        + "\"description\":\"Paper cut\","
+        + "\"details\":{}"
+        + "}");
+  }
+
+  @Test public void requestBodyReportsContentLength() throws IOException {
+    Trigger trigger = new Trigger.Builder("Paper cut").withIncidentKey("ouch").build();
+    PagerDutyConverterFactory.EventRequestBody body =
+        new PagerDutyConverterFactory.EventRequestBody("123456", trigger);
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    assertThat(body.contentLength()).isEqualTo(buffer.size());
+    assertThat(body.contentType().toString()).isEqualTo("application/json; charset=UTF-8");
+  }
+
+  @Test public void readSuccess() throws IOException {
+    NotifyResult result = read(""
+        + "{\n"
+        + "  \"status\": \"success\",\n"
+        + "  \"incident_key\": \"123456\",\n"
+        + "  \"message\": \"Event processed\"\n"
+        + "}");
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(result.incidentKey()).isEqualTo("123456");
+    assertThat(result.message()).isEqualTo("Event processed");
+    assertThat(result.errors()).isEmpty();
+  }
+
+  @Test public void readErrorsAndSkipUnknownFields() throws IOException {
+    NotifyResult result = read(""
+        + "{\"extra\":{\"nested\":[1,2.5,{\"a\":null}],\"flag\":true},"
+        + "\"status\":\"invalid event\","
+        + "\"message\":\"Event object is invalid\","
+        + "\"errors\":[\"Service key is the wrong length\",\"Tab\\there \\u00e9\"],"
+        + "\"incident_key\":null}");
+    assertThat(result.status()).isEqualTo("invalid event");
+    assertThat(result.message()).isEqualTo("Event object is invalid");
+    assertThat(result.incidentKey()).isNull();
+    assertThat(result.errors())
+        .containsExactly("Service key is the wrong length", "Tab\there \u00e9");
+  }
+
+  @Test public void readEmptyObject() throws IOException {
+    NotifyResult result = read("{}");
+    assertThat(result.status()).isNull();
+    assertThat(result.errors()).isEmpty();
+  }
+
+  @Test public void readMalformed() {
+    try {
+      read("<html>Bad gateway</html>");
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Malformed JSON: Expected '{' but was '<'");
+    }
+    try {
+      read("{\"status\":\"success\"");
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  private static String encode(Event event) throws IOException {
+    Buffer buffer = new Buffer();
+    EventJson.write(event, buffer);
+    return buffer.readUtf8();
+  }
+
+  private static NotifyResult read(String json) throws IOException {
+    return EventJson.readResult(new Buffer().writeUtf8(json));
+  }
+}
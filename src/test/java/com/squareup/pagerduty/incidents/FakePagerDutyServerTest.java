@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Test;
+import retrofit2.Retrofit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+
+public final class FakePagerDutyServerTest {
+  private final OkHttpClient client = new OkHttpClient.Builder()
+      .retryOnConnectionFailure(false)
+      .build();
+  private FakePagerDutyServer server;
+
+  @After public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private PagerDuty start(FakePagerDutyServer.Builder builder) throws IOException {
+    server = builder.start();
+    Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl(server.url())
+        .client(client)
+        .addConverterFactory(PagerDutyConverterFactory.create())
+        .build();
+    return PagerDuty.create("123456", retrofit);
+  }
+
+  @Test public void triggerAndResolve() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder());
+
+    NotifyResult trigger = pagerDuty.notify(new Trigger.Builder("Paper cut")
+        .withIncidentKey("ouch")
+        .addDetails("Location", "Left index finger")
+        .build());
+    assertThat(trigger.status()).isEqualTo("success");
+    assertThat(trigger.incidentKey()).isEqualTo("ouch");
+    assertThat(server.pagerDuty().openIncidents()).containsExactly(entry("ouch", "Paper cut"));
+
+    NotifyResult resolution = pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(resolution.status()).isEqualTo("success");
+    assertThat(server.pagerDuty().openIncidents()).isEmpty();
+    assertThat(server.pagerDuty().closedIncidents()).containsExactly(entry("ouch", "Paper cut"));
+    assertThat(server.requestCount()).isEqualTo(2);
+  }
+
+  @Test public void triggerWithoutKeyGetsOne() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder());
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.incidentKey()).isNotNull();
+    assertThat(server.pagerDuty().openIncidents()).containsKey(result.incidentKey());
+  }
+
+  @Test public void asyncNotify() throws Exception {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder());
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build(),
+        callback);
+    assertThat(callback.takeResult().incidentKey()).isEqualTo("ouch");
+  }
+
+  @Test public void serverErrors() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder().errorRate(1.0));
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.code).isEqualTo(500);
+    assertThat(result.status()).isEqualTo("internal server error");
+    assertThat(server.errorCount()).isEqualTo(1);
+    assertThat(server.pagerDuty().openIncidents()).isEmpty();
+  }
+
+  @Test public void throttling() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder()
+        .throttleRate(1.0)
+        .retryAfter(3, TimeUnit.SECONDS));
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.code).isEqualTo(429);
+    assertThat(result.retryAfterMillis).isEqualTo(3000L);
+    assertThat(server.throttleCount()).isEqualTo(1);
+  }
+
+  @Test public void connectionResets() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder().resetRate(1.0));
+
+    try {
+      pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+      fail();
+    } catch (IOException expected) {
+    }
+    assertThat(server.resetCount()).isEqualTo(1);
+  }
+
+  @Test public void latency() throws IOException {
+    PagerDuty pagerDuty = start(new FakePagerDutyServer.Builder()
+        .latency(FakePagerDutyServer.Latency.fixed(200, TimeUnit.MILLISECONDS)));
+
+    long start = System.nanoTime();
+    pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(
+        TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test public void invalidEvent() throws IOException {
+    server = new FakePagerDutyServer.Builder().start();
+
+    Request request = new Request.Builder()
+        .url(server.url() + "generic/2010-04-15/create_event.json")
+        .post(RequestBody.create(MediaType.parse("application/json"),
+            "{\"event_type\":\"trigger\"}"))
+        .build();
+    Response response = client.newCall(request).execute();
+    assertThat(response.code()).isEqualTo(400);
+    assertThat(response.body().string()).contains("invalid event")
+        .contains("'service_key' is missing or blank")
+        .contains("'description' is missing or blank");
+  }
+
+  @Test public void malformedContentLength() throws IOException {
+    server = new FakePagerDutyServer.Builder().start();
+
+    try (Socket socket = new Socket("127.0.0.1", server.port())) {
+      BufferedSink sink = Okio.buffer(Okio.sink(socket));
+      sink.writeUtf8("POST " + FakePagerDutyServer.PATH + " HTTP/1.1\r\n")
+          .writeUtf8("Content-Length: ten\r\n")
+          .writeUtf8("\r\n")
+          .flush();
+      BufferedSource source = Okio.buffer(Okio.source(socket));
+      assertThat(source.readUtf8LineStrict()).isEqualTo("HTTP/1.1 400 Bad Request");
+    }
+  }
+
+  @Test public void unknownPath() throws IOException {
+    server = new FakePagerDutyServer.Builder().start();
+
+    Request request = new Request.Builder().url(server.url() + "foo").build();
+    Response response = client.newCall(request).execute();
+    assertThat(response.code()).isEqualTo(404);
+    response.body().close();
+  }
+
+  @Test public void ratesMustNotExceedOne() throws IOException {
+    try {
+      new FakePagerDutyServer.Builder().errorRate(0.6).throttleRate(0.6).start();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage(
+          "Error, throttle, and reset rates must not add up to more than 1. Was: 1.2");
+    }
+  }
+}
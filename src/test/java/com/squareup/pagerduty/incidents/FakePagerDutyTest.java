@@ -16,6 +16,7 @@
 package com.squareup.pagerduty.incidents;
 
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -73,6 +74,19 @@ public final class FakePagerDutyTest {
     assertThat(closed).isEmpty();
   }
 
+  @Test public void asyncNotifyRecordsImmediately() throws InterruptedException {
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("One").withIncidentKey("incident-one").build(),
+        callback);
+    assertThat(callback.takeResult().incidentKey()).isEqualTo("incident-one");
+    assertThat(pagerDuty.openIncidents()).containsExactly(entry("incident-one", "One"));
+
+    pagerDuty.notifyAsync(new Resolution.Builder("incident-one").build(), callback);
+    assertThat(callback.takeResult().status()).isEqualTo("success");
+    assertThat(pagerDuty.openIncidents()).isEmpty();
+    assertThat(pagerDuty.closedIncidents()).containsExactly(entry("incident-one", "One"));
+  }
+
   @Test public void clearRemovesOpenAndClosedIncidents() {
     pagerDuty.notify(new Trigger.Builder("One").withIncidentKey("incident-one").build());
     pagerDuty.notify(new Resolution.Builder("incident-one").build());
@@ -84,4 +98,56 @@ public final class FakePagerDutyTest {
     assertThat(open).isEmpty();
     assertThat(closed).isEmpty();
   }
+
+  @Test public void triggerKeepsFirstDescriptionOfOpenIncident() {
+    pagerDuty.notify(new Trigger.Builder("One").withIncidentKey("incident-one").build());
+    pagerDuty.notify(new Trigger.Builder("Uno").withIncidentKey("incident-one").build());
+
+    assertThat(pagerDuty.openIncidents()).containsExactly(entry("incident-one", "One"));
+  }
+
+  @Test public void snapshotsAreOrderedByTransition() {
+    pagerDuty.notify(new Trigger.Builder("One").withIncidentKey("incident-one").build());
+    pagerDuty.notify(new Trigger.Builder("Two").withIncidentKey("incident-two").build());
+    pagerDuty.notify(new Resolution.Builder("incident-one").build());
+    pagerDuty.notify(new Trigger.Builder("Uno").withIncidentKey("incident-one").build());
+
+    assertThat(pagerDuty.openIncidents()).containsExactly(entry("incident-two", "Two"),
+        entry("incident-one", "Uno"));
+  }
+
+  @Test public void concurrentNotifications() throws InterruptedException {
+    int threadCount = 8;
+    final int incidentsPerThread = 500;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          for (int i = 0; i < incidentsPerThread; i++) {
+            String key = "incident-" + thread + "-" + i;
+            pagerDuty.notify(new Trigger.Builder("Thread " + thread).withIncidentKey(key).build());
+            if (i % 2 == 0) {
+              pagerDuty.notify(new Resolution.Builder(key).build());
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    int expected = threadCount * incidentsPerThread / 2;
+    assertThat(pagerDuty.openIncidents()).hasSize(expected);
+    assertThat(pagerDuty.closedIncidents()).hasSize(expected);
+  }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class IncidentTrackingPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final IncidentTrackingPagerDuty pagerDuty = PagerDuty.incidentTracking(delegate,
+      new IncidentTrackingConfig.Builder(1, TimeUnit.MINUTES).build());
+
+  private static Resolution resolution(String incidentKey) {
+    return new Resolution.Builder(incidentKey).build();
+  }
+
+  private static Trigger trigger(String incidentKey) {
+    return new Trigger.Builder("Unhealthy").withIncidentKey(incidentKey).build();
+  }
+
+  @Test public void repeatedResolutionIsAnsweredLocally() throws IOException {
+    delegate.enqueueResult(success("db"));
+
+    assertThat(pagerDuty.notify(resolution("db")).message()).isEqualTo("Event processed");
+    NotifyResult skipped = pagerDuty.notify(resolution("db"));
+    assertThat(skipped.status()).isEqualTo("success");
+    assertThat(skipped.message()).isEqualTo(IncidentTrackingPagerDuty.MESSAGE_SKIPPED);
+    assertThat(skipped.incidentKey()).isEqualTo("db");
+    assertThat(delegate.events()).hasSize(1);
+    assertThat(pagerDuty.skippedCount()).isEqualTo(1);
+  }
+
+  @Test public void unknownKeysAreResolved() throws IOException {
+    delegate.enqueueResult(success("one")).enqueueResult(success("two"));
+
+    pagerDuty.notify(resolution("one"));
+    pagerDuty.notify(resolution("two"));
+    assertThat(delegate.events()).hasSize(2);
+    assertThat(pagerDuty.trackedKeyCount()).isEqualTo(2);
+  }
+
+  @Test public void triggerReopensTheIncident() throws IOException {
+    delegate.enqueueResult(success("db")).enqueueResult(success("db"))
+        .enqueueResult(success("db"));
+
+    pagerDuty.notify(resolution("db"));
+    pagerDuty.notify(trigger("db"));
+    pagerDuty.notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(3);
+    assertThat(pagerDuty.skippedCount()).isEqualTo(0);
+  }
+
+  @Test public void failedResolutionIsNotRecorded() throws IOException {
+    delegate.enqueueResult(error(500, "db")).enqueueResult(success("db"));
+
+    pagerDuty.notify(resolution("db"));
+    pagerDuty.notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void triggerDuringResolutionWins() throws IOException {
+    final IncidentTrackingPagerDuty[] tracking = new IncidentTrackingPagerDuty[1];
+    PagerDuty racing = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        return success(trigger.incident_key);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        if (delegate.events().isEmpty()) {
+          tracking[0].notify(trigger(resolution.incident_key)); // Sent while resolving.
+        }
+        return delegate.notify(resolution);
+      }
+    };
+    tracking[0] = PagerDuty.incidentTracking(racing,
+        new IncidentTrackingConfig.Builder(1, TimeUnit.MINUTES).build());
+    delegate.enqueueResult(success("db")).enqueueResult(success("db"));
+
+    tracking[0].notify(resolution("db"));
+    tracking[0].notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void repeatedTriggerDuringResolutionWins() throws IOException {
+    final IncidentTrackingPagerDuty[] tracking = new IncidentTrackingPagerDuty[1];
+    PagerDuty racing = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        return success(trigger.incident_key);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        if (delegate.events().isEmpty()) {
+          tracking[0].notify(trigger(resolution.incident_key)); // Already open, sent again.
+        }
+        return delegate.notify(resolution);
+      }
+    };
+    tracking[0] = PagerDuty.incidentTracking(racing,
+        new IncidentTrackingConfig.Builder(1, TimeUnit.MINUTES).build());
+    delegate.enqueueResult(success("db")).enqueueResult(success("db"));
+
+    tracking[0].notify(trigger("db"));
+    tracking[0].notify(resolution("db"));
+    tracking[0].notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(2);
+    assertThat(tracking[0].skippedCount()).isEqualTo(0);
+  }
+
+  @Test public void nullResultIsNotRecorded() throws IOException {
+    delegate.enqueueResult(null).enqueueResult(success("db"));
+
+    assertThat(pagerDuty.notify(resolution("db"))).isNull();
+    pagerDuty.notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void expiredResolutionIsSentAgain() throws Exception {
+    IncidentTrackingPagerDuty pagerDuty = PagerDuty.incidentTracking(delegate,
+        new IncidentTrackingConfig.Builder(50, TimeUnit.MILLISECONDS).build());
+    delegate.enqueueResult(success("db")).enqueueResult(success("db"));
+
+    pagerDuty.notify(resolution("db"));
+    Thread.sleep(100);
+    pagerDuty.notify(resolution("db"));
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void oldestKeysAreForgottenWhenFull() throws IOException {
+    IncidentTrackingPagerDuty pagerDuty = PagerDuty.incidentTracking(delegate,
+        new IncidentTrackingConfig.Builder(1, TimeUnit.MINUTES).maxKeys(2).build());
+    delegate.enqueueResult(success("a")).enqueueResult(success("b"))
+        .enqueueResult(success("c")).enqueueResult(success("a"));
+
+    pagerDuty.notify(resolution("a"));
+    pagerDuty.notify(resolution("b"));
+    pagerDuty.notify(resolution("c"));
+    assertThat(pagerDuty.trackedKeyCount()).isEqualTo(2);
+    pagerDuty.notify(resolution("b")); // Still remembered.
+    pagerDuty.notify(resolution("a")); // Forgotten, so sent again.
+    assertThat(delegate.events()).hasSize(4);
+    assertThat(pagerDuty.skippedCount()).isEqualTo(1);
+  }
+
+  @Test public void asyncRepeatedResolutionIsAnsweredLocally() throws Exception {
+    delegate.enqueueResult(success("db"));
+    RecordingNotifyCallback first = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(resolution("db"), first);
+    assertThat(first.takeResult().message()).isEqualTo("Event processed");
+
+    RecordingNotifyCallback second = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(resolution("db"), second);
+    assertThat(second.takeResult().message())
+        .isEqualTo(IncidentTrackingPagerDuty.MESSAGE_SKIPPED);
+    assertThat(delegate.events()).hasSize(1);
+  }
+
+  @Test public void configValidation() {
+    try {
+      new IncidentTrackingConfig.Builder(0, TimeUnit.MINUTES);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'ttl' must be positive. Was: 0");
+    }
+    try {
+      new IncidentTrackingConfig.Builder(1, TimeUnit.MINUTES).maxKeys(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'maxKeys' must be positive. Was: 0");
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+
+public final class JdkEventTransportTest {
+  private FakePagerDutyServer server;
+
+  @After public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private EventTransport start(FakePagerDutyServer.Builder builder) throws IOException {
+    server = builder.start();
+    return EventTransport.jdk(server.url());
+  }
+
+  @Test public void triggerAndResolve() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.create("123456", start(new FakePagerDutyServer.Builder()));
+
+    NotifyResult trigger = pagerDuty.notify(new Trigger.Builder("Paper cut")
+        .withIncidentKey("ouch")
+        .addDetails("Location", "Left index finger")
+        .build());
+    assertThat(trigger.status()).isEqualTo("success");
+    assertThat(trigger.incidentKey()).isEqualTo("ouch");
+    assertThat(server.pagerDuty().openIncidents()).containsExactly(entry("ouch", "Paper cut"));
+
+    NotifyResult resolution = pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(resolution.status()).isEqualTo("success");
+    assertThat(server.pagerDuty().openIncidents()).isEmpty();
+    assertThat(server.connectionCount()).isEqualTo(1);
+  }
+
+  @Test public void invalidEventIsReturnedWithErrors() throws IOException {
+    EventTransport transport = start(new FakePagerDutyServer.Builder());
+
+    NotifyResult result = transport.send(" ", new Trigger.Builder("Paper cut").build());
+    assertThat(result.status()).isEqualTo("invalid event");
+    assertThat(result.errors()).containsExactly("'service_key' is missing or blank");
+    assertThat(result.code).isEqualTo(400);
+  }
+
+  @Test public void throttledResultCarriesRetryAfter() throws IOException {
+    EventTransport transport = start(new FakePagerDutyServer.Builder()
+        .throttleRate(1.0)
+        .retryAfter(3, TimeUnit.SECONDS));
+
+    NotifyResult result = transport.send("123456", new Trigger.Builder("Paper cut").build());
+    assertThat(result.status()).isEqualTo("throttle exceeded");
+    assertThat(result.code).isEqualTo(429);
+    assertThat(result.retryAfterMillis).isEqualTo(3000L);
+  }
+
+  @Test public void serverError() throws IOException {
+    EventTransport transport = start(new FakePagerDutyServer.Builder().errorRate(1.0));
+
+    NotifyResult result = transport.send("123456", new Resolution.Builder("ouch").build());
+    assertThat(result.status()).isEqualTo("internal server error");
+    assertThat(result.code).isEqualTo(500);
+  }
+
+  @Test public void notifyAsync() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.create("123456", start(new FakePagerDutyServer.Builder()));
+
+    final BlockingQueue<Object> outcomes = new LinkedBlockingQueue<>();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build(),
+        new NotifyCallback() {
+          @Override public void onResult(NotifyResult result) {
+            outcomes.add(result);
+          }
+
+          @Override public void onFailure(Throwable t) {
+            outcomes.add(t);
+          }
+        });
+
+    Object outcome = outcomes.poll(5, TimeUnit.SECONDS);
+    assertThat(outcome).isInstanceOf(NotifyResult.class);
+    assertThat(((NotifyResult) outcome).status()).isEqualTo("success");
+    assertThat(server.pagerDuty().openIncidents()).containsExactly(entry("ouch", "Paper cut"));
+  }
+
+  @Test public void asyncSendsAreBounded() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.create("123456", start(new FakePagerDutyServer.Builder()
+        .latency(FakePagerDutyServer.Latency.fixed(20, TimeUnit.MILLISECONDS))));
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    for (int i = 0; i < 20; i++) {
+      pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("key-" + i).build(),
+          callback);
+    }
+    for (int i = 0; i < 20; i++) {
+      assertThat(callback.takeResult().status()).isEqualTo("success");
+    }
+    // Each connection is held by one thread at a time, so the threads bound the connections.
+    assertThat(server.connectionCount())
+        .isLessThanOrEqualTo(JdkEventTransport.MAX_CONCURRENT_REQUESTS);
+  }
+
+  @Test public void connectionFailureIsThrown() throws IOException {
+    EventTransport transport = start(new FakePagerDutyServer.Builder());
+    server.close();
+
+    try {
+      transport.send("123456", new Trigger.Builder("Paper cut").build());
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void baseUrlMustBeHttp() {
+    try {
+      EventTransport.jdk("ftp://events.pagerduty.com");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'baseUrl' must be an HTTP URL. Was: ftp://events.pagerduty.com");
+    }
+  }
+
+  @Test public void defaultsToPagerDutyHost() {
+    JdkEventTransport transport = (JdkEventTransport) EventTransport.jdk();
+    assertThat(transport.url.toString())
+        .isEqualTo("https://events.pagerduty.com/generic/2010-04-15/create_event.json");
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class LatencyHistogramTest {
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test public void empty() {
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.percentile(99.0, NANOSECONDS)).isEqualTo(0);
+    assertThat(histogram.mean(NANOSECONDS)).isEqualTo(0);
+    assertThat(histogram.max(NANOSECONDS)).isEqualTo(0);
+  }
+
+  @Test public void smallValuesAreExact() {
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.count()).isEqualTo(100);
+    assertThat(histogram.percentile(50.0, NANOSECONDS)).isEqualTo(50);
+    assertThat(histogram.percentile(99.0, NANOSECONDS)).isEqualTo(99);
+    assertThat(histogram.percentile(100.0, NANOSECONDS)).isEqualTo(100);
+    assertThat(histogram.percentile(0.0, NANOSECONDS)).isEqualTo(1);
+    assertThat(histogram.mean(NANOSECONDS)).isEqualTo(50);
+    assertThat(histogram.max(NANOSECONDS)).isEqualTo(100);
+  }
+
+  @Test public void largeValuesAreWithinRelativeError() {
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.record(MICROSECONDS.toNanos(micros));
+    }
+    assertPercentile(50.0, 5000);
+    assertPercentile(99.0, 9900);
+    assertPercentile(99.9, 9990);
+    assertThat(histogram.max(MICROSECONDS)).isEqualTo(10000);
+  }
+
+  private void assertPercentile(double percentile, long expectedMicros) {
+    long actual = histogram.percentile(percentile, NANOSECONDS);
+    long expected = MICROSECONDS.toNanos(expectedMicros);
+    assertThat(Math.abs(actual - expected)).isLessThanOrEqualTo(expected / 64);
+  }
+
+  @Test public void percentileNeverExceedsMax() {
+    histogram.record(1000001);
+    assertThat(histogram.percentile(100.0, NANOSECONDS)).isEqualTo(1000001);
+  }
+
+  @Test public void extremeValues() {
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertThat(histogram.percentile(50.0, NANOSECONDS)).isEqualTo(0);
+    assertThat(histogram.percentile(100.0, NANOSECONDS)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test public void bucketsAreContiguous() {
+    for (int index = 0; index < LatencyHistogram.index(Long.MAX_VALUE); index++) {
+      long highest = LatencyHistogram.highestEquivalentValue(index);
+      assertThat(LatencyHistogram.index(highest)).isEqualTo(index);
+      assertThat(LatencyHistogram.index(highest + 1)).isEqualTo(index + 1);
+    }
+  }
+
+  @Test public void reset() {
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+    histogram.reset();
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.percentile(50.0, NANOSECONDS)).isEqualTo(0);
+  }
+
+  @Test public void percentileOutOfRange() {
+    try {
+      histogram.percentile(100.1, NANOSECONDS);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'percentile' must be between 0 and 100. Was: 100.1");
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class NotifyMetricsTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final NotifyMetrics metrics = new NotifyMetrics();
+
+  @Test public void countsOutcomesByTypeAndStatus() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.listening(delegate, metrics);
+    delegate.enqueueResult(success("ouch"))
+        .enqueueResult(error(400, "ouch"))
+        .enqueueFailure(new IOException("Connection reset"))
+        .enqueueResult(success("ouch"));
+
+    pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    try {
+      pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+      fail();
+    } catch (IOException expected) {
+    }
+    pagerDuty.notify(new Resolution.Builder("ouch").build());
+
+    assertThat(metrics.count("trigger", "success")).isEqualTo(1);
+    assertThat(metrics.count("trigger", "error")).isEqualTo(1);
+    assertThat(metrics.count("trigger", NotifyMetrics.STATUS_FAILURE)).isEqualTo(1);
+    assertThat(metrics.count("resolve", "success")).isEqualTo(1);
+    assertThat(metrics.count("resolve", "error")).isEqualTo(0);
+    assertThat(metrics.latency("trigger").count()).isEqualTo(3);
+    assertThat(metrics.latency("resolve").count()).isEqualTo(1);
+  }
+
+  @Test public void asyncOutcomes() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.listening(delegate, metrics);
+    delegate.enqueueResult(success("ouch")).enqueueFailure(new IOException("Connection reset"));
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").build(), callback);
+    callback.takeResult();
+    pagerDuty.notifyAsync(new Resolution.Builder("ouch").build(), callback);
+    callback.takeFailure();
+
+    assertThat(metrics.count("trigger", "success")).isEqualTo(1);
+    assertThat(metrics.count("resolve", NotifyMetrics.STATUS_FAILURE)).isEqualTo(1);
+  }
+
+  @Test public void countsRetries() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.retrying(PagerDuty.listening(delegate, metrics),
+        new RetryPolicy.Builder()
+            .baseDelay(1, TimeUnit.MILLISECONDS)
+            .listener(metrics)
+            .build());
+    delegate.enqueueResult(error(503, "ouch")).enqueueResult(success("ouch"));
+
+    pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    assertThat(metrics.retryCount("trigger")).isEqualTo(1);
+    assertThat(metrics.count("trigger", "error")).isEqualTo(1);
+    assertThat(metrics.count("trigger", "success")).isEqualTo(1);
+  }
+
+  @Test public void countsEnqueued() throws IOException {
+    BufferedPagerDuty pagerDuty = PagerDuty.buffered(PagerDuty.listening(delegate, metrics),
+        new BufferConfig.Builder().listener(metrics).build());
+    delegate.enqueueResult(success("ouch"));
+
+    pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    pagerDuty.close();
+    assertThat(metrics.enqueuedCount("trigger")).isEqualTo(1);
+    assertThat(metrics.count("trigger", "success")).isEqualTo(1);
+  }
+
+  @Test public void listenerSeesSendStart() throws IOException {
+    final StringBuilder log = new StringBuilder();
+    PagerDuty pagerDuty = PagerDuty.listening(delegate, new NotifyListener() {
+      @Override public void sendStart(String eventType, String incidentKey) {
+        log.append("start ").append(eventType).append(' ').append(incidentKey).append(';');
+      }
+
+      @Override public void sendEnd(String eventType, String incidentKey, NotifyResult result,
+          long durationNanos) {
+        log.append("end ").append(result.status()).append(';');
+      }
+    });
+    delegate.enqueueResult(success("ouch"));
+
+    pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(log.toString()).isEqualTo("start resolve ouch;end success;");
+  }
+
+  @Test public void nullResultIsCounted() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.listening(delegate, metrics);
+    delegate.enqueueResult(null).enqueueResult(null);
+
+    assertThat(pagerDuty.notify(new Resolution.Builder("ouch").build())).isNull();
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("ouch").build(), callback);
+    assertThat(callback.takeResult()).isNull();
+
+    assertThat(metrics.count("resolve", null)).isEqualTo(2);
+    assertThat(metrics.latency("resolve").count()).isEqualTo(2);
+  }
+
+  @Test public void throwingListenerDoesNotChangeOutcome() throws Exception {
+    PagerDuty pagerDuty = PagerDuty.listening(delegate, new NotifyListener() {
+      @Override public void sendStart(String eventType, String incidentKey) {
+        throw new IllegalStateException("start");
+      }
+
+      @Override public void sendEnd(String eventType, String incidentKey, NotifyResult result,
+          long durationNanos) {
+        throw new IllegalStateException("end");
+      }
+
+      @Override public void sendFailed(String eventType, String incidentKey, Throwable failure,
+          long durationNanos) {
+        throw new IllegalStateException("failed");
+      }
+    });
+    delegate.enqueueResult(success("ouch"))
+        .enqueueResult(success("ouch"))
+        .enqueueFailure(new IOException("Connection reset"));
+
+    assertThat(pagerDuty.notify(new Resolution.Builder("ouch").build()).status())
+        .isEqualTo("success");
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("ouch").build(), callback);
+    assertThat(callback.takeResult().status()).isEqualTo("success");
+    pagerDuty.notifyAsync(new Resolution.Builder("ouch").build(), callback);
+    assertThat(callback.takeFailure()).hasMessage("Connection reset");
+  }
+}
@@ -47,5 +47,19 @@ public final class NotifyResultTest {
     assertThat(result.status()).isEqualTo("invalid event");
     assertThat(result.incidentKey()).isEqualTo("123456");
     assertThat(result.message()).isEqualTo("Incident key not found.");
+    assertThat(result.errors()).isEmpty();
+  }
+
+  @Test public void errorsDeserialization() {
+    String json = ""
+        + "{\n"
+        + "  \"status\": \"invalid event\",\n"
+        + "  \"message\": \"Event object is invalid\",\n"
+        + "  \"errors\": [\"Service key is the wrong length (should be 32 characters)\"]\n"
+        + "}";
+    NotifyResult result = gson.fromJson(json, NotifyResult.class);
+    assertThat(result.status()).isEqualTo("invalid event");
+    assertThat(result.errors())
+        .containsExactly("Service key is the wrong length (should be 32 characters)");
   }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Test;
+import retrofit2.Retrofit;
+
+import static com.squareup.pagerduty.incidents.EventAssert.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+
+public final class PagerDutyClientTest {
+  private FakePagerDutyServer server;
+
+  @After public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test public void viewsSendWithTheirOwnKey() throws IOException {
+    RecordingEventService service = new RecordingEventService();
+    PagerDutyClient client =
+        new PagerDutyClient(service, PagerDutyConverterFactory.RESPONSE_BODY_CONVERTER);
+
+    client.forApiKey("123456").notify(new Trigger.Builder("Paper cut").build());
+    client.forApiKey("abcdef").notify(new Resolution.Builder("ouch").build());
+
+    assertThat(service.takeEvent()).hasServiceKey("123456").hasEventType("trigger");
+    assertThat(service.takeEvent()).hasServiceKey("abcdef").hasEventType("resolve");
+  }
+
+  @Test public void viewsShareConnections() throws IOException {
+    server = new FakePagerDutyServer.Builder().start();
+    OkHttpClient okHttpClient = new OkHttpClient();
+    PagerDutyClient client = PagerDutyClient.create(retrofit(okHttpClient));
+
+    for (int i = 0; i < 10; i++) {
+      PagerDuty pagerDuty = client.forApiKey("key-" + i);
+      NotifyResult result = pagerDuty.notify(
+          new Trigger.Builder("Paper cut").withIncidentKey("ouch-" + i).build());
+      assertThat(result.status()).isEqualTo("success");
+    }
+    assertThat(okHttpClient.connectionPool().connectionCount()).isEqualTo(1);
+    assertThat(server.pagerDuty().openIncidents()).hasSize(10).contains(entry("ouch-0",
+        "Paper cut"));
+  }
+
+  @Test public void warmUpOpensConnectionBeforeFirstNotification() throws Exception {
+    server = new FakePagerDutyServer.Builder().start();
+    OkHttpClient okHttpClient = new OkHttpClient();
+    PagerDutyClient client = PagerDutyClient.create(retrofit(okHttpClient)).warmUp();
+    awaitRequests(1);
+    awaitIdleConnection(okHttpClient);
+
+    NotifyResult result = client.forApiKey("123456").notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(server.connectionCount()).isEqualTo(1);
+    assertThat(server.requestCount()).isEqualTo(2);
+  }
+
+  @Test public void keepWarmRepeatsUntilStopped() throws Exception {
+    server = new FakePagerDutyServer.Builder().start();
+    OkHttpClient okHttpClient = new OkHttpClient();
+    PagerDutyClient client =
+        PagerDutyClient.create(retrofit(okHttpClient)).keepWarm(10, TimeUnit.MILLISECONDS);
+    awaitRequests(3);
+    client.stopKeepingWarm();
+    awaitIdleConnection(okHttpClient);
+
+    long requestCount = server.requestCount();
+    Thread.sleep(50);
+    assertThat(server.requestCount()).isLessThanOrEqualTo(requestCount + 1); // One in flight.
+    assertThat(server.connectionCount()).isEqualTo(1);
+  }
+
+  @Test public void warmUpWithoutHttpDoesNothing() {
+    PagerDutyClient client = new PagerDutyClient(new RecordingEventService(),
+        PagerDutyConverterFactory.RESPONSE_BODY_CONVERTER);
+    assertThat(client.warmUp()).isSameAs(client);
+  }
+
+  @Test public void keepWarmIntervalMustBePositive() {
+    PagerDutyClient client = new PagerDutyClient(new RecordingEventService(),
+        PagerDutyConverterFactory.RESPONSE_BODY_CONVERTER);
+    try {
+      client.keepWarm(0, TimeUnit.SECONDS);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'interval' must be positive. Was: 0");
+    }
+  }
+
+  @Test public void defaultClientIsShared() {
+    assertThat(PagerDutyClient.defaultClient()).isSameAs(PagerDutyClient.defaultClient());
+  }
+
+  @Test public void apiKeyRequired() {
+    PagerDutyClient client = new PagerDutyClient(new RecordingEventService(),
+        PagerDutyConverterFactory.RESPONSE_BODY_CONVERTER);
+    try {
+      client.forApiKey(" ");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'apiKey' must not be blank. Was: ' '");
+    }
+  }
+
+  private Retrofit retrofit(OkHttpClient okHttpClient) {
+    return new Retrofit.Builder()
+        .baseUrl(server.url())
+        .client(okHttpClient)
+        .addConverterFactory(PagerDutyConverterFactory.create())
+        .build();
+  }
+
+  private void awaitRequests(long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (server.requestCount() < count && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(server.requestCount()).isGreaterThanOrEqualTo(count);
+  }
+
+  private static void awaitIdleConnection(OkHttpClient okHttpClient) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (okHttpClient.connectionPool().idleConnectionCount() < 1
+        && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(okHttpClient.connectionPool().idleConnectionCount()).isEqualTo(1);
+  }
+}
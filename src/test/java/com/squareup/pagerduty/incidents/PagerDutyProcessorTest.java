@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class PagerDutyProcessorTest {
+  private final List<Event> sent = new ArrayList<>();
+  private final List<NotifyCallback> inFlight = new ArrayList<>();
+  private final PagerDuty async = new PagerDuty() {
+    @Override public NotifyResult notify(Trigger trigger) {
+      throw new AssertionError();
+    }
+
+    @Override public NotifyResult notify(Resolution resolution) {
+      throw new AssertionError();
+    }
+
+    @Override public void notifyAsync(Trigger trigger, NotifyCallback callback) {
+      sent.add(trigger);
+      inFlight.add(callback);
+    }
+
+    @Override public void notifyAsync(Resolution resolution, NotifyCallback callback) {
+      sent.add(resolution);
+      inFlight.add(callback);
+    }
+  };
+  private final PagerDutyProcessor processor = PagerDutyProcessor.create(async, 2);
+  private final TestPublisher upstream = new TestPublisher();
+  private final TestSubscriber downstream = new TestSubscriber();
+
+  @Test public void requestsOnlyUpToMaxInFlight() {
+    upstream.subscribe(processor);
+    assertThat(upstream.requested).isEqualTo(2);
+
+    upstream.emit(trigger("one"));
+    upstream.emit(new Resolution.Builder("two").build());
+    assertThat(sent).hasSize(2);
+    assertThat(sent.get(1)).isInstanceOf(Resolution.class);
+    assertThat(upstream.requested).isEqualTo(2);
+  }
+
+  @Test public void resultsAreRequestedByDownstreamDemand() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    upstream.emit(trigger("one"));
+    upstream.emit(trigger("two"));
+
+    inFlight.get(1).onResult(success("two"));
+    inFlight.get(0).onResult(success("one"));
+    assertThat(downstream.results).isEmpty();
+    assertThat(upstream.requested).isEqualTo(2); // Undelivered results hold their slots.
+
+    downstream.subscription.request(1);
+    assertThat(downstream.results).containsExactly("two");
+    assertThat(upstream.requested).isEqualTo(3);
+
+    downstream.subscription.request(5);
+    assertThat(downstream.results).containsExactly("two", "one");
+    assertThat(upstream.requested).isEqualTo(4);
+  }
+
+  @Test public void completesAfterInFlightResults() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    downstream.subscription.request(Long.MAX_VALUE);
+    upstream.emit(trigger("one"));
+    upstream.complete();
+    assertThat(downstream.completed).isFalse();
+
+    inFlight.get(0).onResult(success("one"));
+    assertThat(downstream.results).containsExactly("one");
+    assertThat(downstream.completed).isTrue();
+  }
+
+  @Test public void failureCancelsUpstreamAndIsSignalledLast() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    downstream.subscription.request(Long.MAX_VALUE);
+    upstream.emit(trigger("one"));
+    upstream.emit(trigger("two"));
+
+    IOException failure = new IOException("Connection reset");
+    inFlight.get(0).onFailure(failure);
+    assertThat(upstream.cancelled).isTrue();
+    assertThat(downstream.error).isNull();
+
+    inFlight.get(1).onResult(success("two"));
+    assertThat(downstream.results).containsExactly("two");
+    assertThat(downstream.error).isSameAs(failure);
+    assertThat(upstream.requested).isEqualTo(2);
+  }
+
+  @Test public void synchronousFailureIsSignalled() {
+    final IllegalStateException failure = new IllegalStateException("Broken");
+    PagerDuty throwing = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) {
+        throw failure; // Escapes from the default notifyAsync.
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) {
+        throw failure;
+      }
+    };
+    PagerDutyProcessor processor = PagerDutyProcessor.create(throwing, 2);
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    downstream.subscription.request(Long.MAX_VALUE);
+
+    upstream.emit(trigger("one"));
+    assertThat(upstream.cancelled).isTrue();
+    assertThat(downstream.error).isSameAs(failure);
+  }
+
+  @Test public void upstreamErrorIsSignalled() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    IllegalStateException failure = new IllegalStateException("Source failed");
+    upstream.subscriber.onError(failure);
+    assertThat(downstream.error).isSameAs(failure);
+  }
+
+  @Test public void downstreamCancelCancelsUpstream() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    upstream.emit(trigger("one"));
+
+    downstream.subscription.cancel();
+    assertThat(upstream.cancelled).isTrue();
+    inFlight.get(0).onResult(success("one"));
+    downstream.subscription.request(1);
+    assertThat(downstream.results).isEmpty();
+    assertThat(downstream.completed).isFalse();
+  }
+
+  @Test public void nonPositiveRequestIsAnError() {
+    upstream.subscribe(processor);
+    processor.subscribe(downstream);
+    downstream.subscription.request(0);
+    assertThat(downstream.error).isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("'n' must be positive. Was: 0");
+    assertThat(upstream.cancelled).isTrue();
+  }
+
+  @Test public void onlyOneSubscriber() {
+    processor.subscribe(downstream);
+    TestSubscriber second = new TestSubscriber();
+    processor.subscribe(second);
+    assertThat(second.error).isInstanceOf(IllegalStateException.class)
+        .hasMessage("Only one subscriber is supported.");
+  }
+
+  @Test public void secondUpstreamIsCancelled() {
+    upstream.subscribe(processor);
+    TestPublisher second = new TestPublisher();
+    second.subscribe(processor);
+    assertThat(second.cancelled).isTrue();
+    assertThat(second.requested).isZero();
+  }
+
+  @Test public void maxInFlightMustBePositive() {
+    try {
+      PagerDutyProcessor.create(async, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'maxInFlight' must be positive. Was: 0");
+    }
+  }
+
+  private static Trigger trigger(String incidentKey) {
+    return new Trigger.Builder("Paper cut").withIncidentKey(incidentKey).build();
+  }
+
+  /** Emits on command, recording how much was requested. */
+  static final class TestPublisher implements Publisher<Event> {
+    Subscriber<? super Event> subscriber;
+    long requested;
+    long emitted;
+    boolean cancelled;
+
+    @Override public void subscribe(Subscriber<? super Event> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(new Subscription() {
+        @Override public void request(long n) {
+          requested += n;
+        }
+
+        @Override public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+
+    void emit(Event event) {
+      assertThat(emitted).isLessThan(requested);
+      emitted++;
+      subscriber.onNext(event);
+    }
+
+    void complete() {
+      subscriber.onComplete();
+    }
+  }
+
+  /** Records the incident keys of results and the terminal signal. */
+  static final class TestSubscriber implements Subscriber<NotifyResult> {
+    Subscription subscription;
+    final List<String> results = new ArrayList<>();
+    boolean completed;
+    Throwable error;
+
+    @Override public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override public void onNext(NotifyResult result) {
+      results.add(result.incidentKey());
+    }
+
+    @Override public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override public void onComplete() {
+      completed = true;
+    }
+  }
+}
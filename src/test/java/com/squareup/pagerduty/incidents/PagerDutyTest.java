@@ -16,7 +16,15 @@
 package com.squareup.pagerduty.incidents;
 
 import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.mock.Calls;
 
 import static com.squareup.pagerduty.incidents.EventAssert.assertThat;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -56,6 +64,18 @@ public final class PagerDutyTest {
             entry("Kit", "Kat"));
   }
 
+  @Test public void eventIsSentWithoutCopying() throws IOException {
+    Trigger trigger = new Trigger.Builder("Paper cut")
+        .withIncidentKey("ouch")
+        .addDetails("Location", "Left index finger")
+        .build();
+    pagerDuty.notify(trigger);
+
+    PagerDutyConverterFactory.EventRequestBody body = service.takeBody();
+    assertThat(body.event).isSameAs(trigger);
+    assertThat(body.serviceKey).isEqualTo("123456");
+  }
+
   @Test public void basicResolve() throws IOException {
     Resolution resolution = new Resolution.Builder("ouch").build();
     pagerDuty.notify(resolution);
@@ -85,6 +105,87 @@ public final class PagerDutyTest {
             entry("Kit", "Kat"));
   }
 
+  @Test public void asyncTrigger() throws InterruptedException {
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build(),
+        callback);
+
+    assertThat(callback.takeResult()).isNull();
+    Event event = service.takeEvent();
+    assertThat(event).hasServiceKey("123456")
+        .hasDescription("Paper cut")
+        .hasIncidentKey("ouch")
+        .hasEventType("trigger");
+  }
+
+  @Test public void asyncResolve() throws InterruptedException {
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("ouch").build(), callback);
+
+    assertThat(callback.takeResult()).isNull();
+    Event event = service.takeEvent();
+    assertThat(event).hasServiceKey("123456")
+        .hasIncidentKey("ouch")
+        .hasEventType("resolve");
+  }
+
+  @Test public void asyncFailure() throws InterruptedException {
+    final IOException failure = new IOException("Connection reset");
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("123456", new EventService() {
+      @Override public Call<NotifyResult> notify(RequestBody event) {
+        return Calls.failure(failure);
+      }
+    });
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").build(), callback);
+
+    assertThat(callback.takeFailure()).isSameAs(failure);
+  }
+
+  @Test public void errorBodyIsParsed() throws IOException {
+    final ResponseBody body = ResponseBody.create(MediaType.parse("application/json"), ""
+        + "{\"status\":\"invalid event\","
+        + "\"message\":\"Event object is invalid\","
+        + "\"errors\":[\"Service key is the wrong length (should be 32 characters)\"]}");
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("123456", new EventService() {
+      @Override public Call<NotifyResult> notify(RequestBody event) {
+        return Calls.response(Response.<NotifyResult>error(400, body));
+      }
+    });
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.status()).isEqualTo("invalid event");
+    assertThat(result.message()).isEqualTo("Event object is invalid");
+    assertThat(result.errors())
+        .containsExactly("Service key is the wrong length (should be 32 characters)");
+    assertThat(result.code).isEqualTo(400);
+  }
+
+  @Test public void unparseableErrorBodyIsSynthesized() throws IOException {
+    final okhttp3.Response raw = new okhttp3.Response.Builder()
+        .request(new Request.Builder().url(PagerDuty.HOST).build())
+        .protocol(Protocol.HTTP_1_1)
+        .code(503)
+        .message("Service Unavailable")
+        .header("Retry-After", "7")
+        .build();
+    final ResponseBody body =
+        ResponseBody.create(MediaType.parse("text/html"), "<html>Try again later</html>");
+    PagerDuty pagerDuty = PagerDuty.realPagerDuty("123456", new EventService() {
+      @Override public Call<NotifyResult> notify(RequestBody event) {
+        return Calls.response(Response.<NotifyResult>error(body, raw));
+      }
+    });
+
+    NotifyResult result =
+        pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    assertThat(result.status()).isEqualTo("error");
+    assertThat(result.message()).isEqualTo("HTTP 503 Service Unavailable");
+    assertThat(result.incidentKey()).isEqualTo("ouch");
+    assertThat(result.code).isEqualTo(503);
+    assertThat(result.retryAfterMillis).isEqualTo(7000L);
+  }
+
   @Test public void apiKeyRequired() {
     try {
       PagerDuty.create(null);
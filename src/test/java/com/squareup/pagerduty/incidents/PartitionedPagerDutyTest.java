@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class PartitionedPagerDutyTest {
+  private final FakePagerDuty fake = new FakePagerDuty();
+
+  @Test public void eventsForOneKeyAreSentInOrder() throws IOException {
+    final Random random = new Random(1L);
+    PagerDuty slow = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        pause();
+        return fake.notify(trigger);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        pause();
+        return fake.notify(resolution);
+      }
+
+      private void pause() {
+        try {
+          Thread.sleep(random.nextInt(3));
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(slow,
+        new BufferConfig.Builder().workers(4).build());
+    for (int i = 0; i < 50; i++) {
+      pagerDuty.notify(new Trigger.Builder("Incident " + i).withIncidentKey("key-" + i).build());
+    }
+    for (int i = 0; i < 50; i++) {
+      pagerDuty.notify(new Resolution.Builder("key-" + i).build());
+    }
+    pagerDuty.close();
+
+    // A resolution sent before its trigger would leave the incident open.
+    assertThat(fake.openIncidents()).isEmpty();
+    assertThat(fake.closedIncidents()).hasSize(50);
+  }
+
+  @Test public void differentKeysAreSentInParallel() throws Exception {
+    final CountDownLatch bothSending = new CountDownLatch(2);
+    PagerDuty waiting = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        bothSending.countDown();
+        try {
+          bothSending.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        return fake.notify(trigger);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        return fake.notify(resolution);
+      }
+    };
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(waiting,
+        new BufferConfig.Builder().workers(2).build());
+    String first = "a";
+    String second = keyInOtherPartition(first, 2);
+    pagerDuty.notify(new Trigger.Builder("One").withIncidentKey(first).build());
+    pagerDuty.notify(new Trigger.Builder("Two").withIncidentKey(second).build());
+
+    assertThat(bothSending.await(5, TimeUnit.SECONDS)).isTrue();
+    pagerDuty.close();
+    assertThat(fake.openIncidents()).hasSize(2);
+  }
+
+  @Test public void interruptedCloseStillClosesEveryPartition() throws Exception {
+    final CountDownLatch sending = new CountDownLatch(2);
+    final CountDownLatch gate = new CountDownLatch(1);
+    PagerDuty gated = new PagerDuty() {
+      @Override public NotifyResult notify(Trigger trigger) throws IOException {
+        sending.countDown();
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        return fake.notify(trigger);
+      }
+
+      @Override public NotifyResult notify(Resolution resolution) throws IOException {
+        return fake.notify(resolution);
+      }
+    };
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(gated,
+        new BufferConfig.Builder().workers(2).build());
+    String first = "a";
+    String second = keyInOtherPartition(first, 2);
+    pagerDuty.notify(new Trigger.Builder("One").withIncidentKey(first).build());
+    pagerDuty.notify(new Trigger.Builder("Two").withIncidentKey(second).build());
+    assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+    Thread.currentThread().interrupt();
+    try {
+      pagerDuty.close();
+      fail();
+    } catch (InterruptedIOException expected) {
+      assertThat(expected.getSuppressed()).hasSize(1);
+    } finally {
+      Thread.interrupted();
+    }
+    for (String incidentKey : new String[] {first, second}) {
+      try {
+        pagerDuty.notify(new Trigger.Builder("Late").withIncidentKey(incidentKey).build());
+        fail();
+      } catch (NotifyRejectedException e) {
+        assertThat(e).hasMessage("Dispatch queue is closed.");
+      }
+    }
+    gate.countDown();
+    pagerDuty.close();
+    assertThat(fake.openIncidents()).hasSize(2);
+  }
+
+  @Test public void keylessTriggersAreSpreadEvenly() throws IOException {
+    BufferedPagerDutyTest.GatedPagerDuty gated = new BufferedPagerDutyTest.GatedPagerDuty();
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(gated,
+        new BufferConfig.Builder().workers(4).build());
+    for (int i = 0; i < 12; i++) {
+      pagerDuty.notify(new Trigger.Builder("Keyless " + i).build());
+    }
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(pagerDuty.enqueuedCount(i)).isEqualTo(3);
+    }
+    assertThat(pagerDuty.skew()).isEqualTo(1.0);
+    gated.open();
+    pagerDuty.close();
+    assertThat(gated.descriptions()).hasSize(12);
+  }
+
+  @Test public void hotKeyIsReportedAsSkew() throws IOException {
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(fake,
+        new BufferConfig.Builder().workers(4).build());
+    assertThat(pagerDuty.skew()).isEqualTo(1.0);
+    for (int i = 0; i < 8; i++) {
+      pagerDuty.notify(new Trigger.Builder("Hot " + i).withIncidentKey("hot").build());
+    }
+    pagerDuty.close();
+
+    assertThat(pagerDuty.skew()).isEqualTo(4.0);
+    int hot = PartitionedPagerDuty.partition("hot", 4);
+    assertThat(pagerDuty.enqueuedCount(hot)).isEqualTo(8);
+    assertThat(pagerDuty.queueDepth(hot)).isEqualTo(0);
+  }
+
+  @Test public void partitionOutOfRange() throws IOException {
+    PartitionedPagerDuty pagerDuty = PagerDuty.partitioned(fake,
+        new BufferConfig.Builder().workers(2).build());
+    try {
+      pagerDuty.queueDepth(2);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'partition' must be in [0..2). Was: 2");
+    }
+    pagerDuty.close();
+  }
+
+  @Test public void partitionIsStableAndInRange() {
+    for (int i = 0; i < 1000; i++) {
+      String key = "key-" + i;
+      int partition = PartitionedPagerDuty.partition(key, 7);
+      assertThat(partition).isGreaterThanOrEqualTo(0).isLessThan(7);
+      assertThat(PartitionedPagerDuty.partition(key, 7)).isEqualTo(partition);
+    }
+  }
+
+  private static String keyInOtherPartition(String key, int count) {
+    int partition = PartitionedPagerDuty.partition(key, count);
+    for (int i = 0; ; i++) {
+      String other = key + i;
+      if (PartitionedPagerDuty.partition(other, count) != partition) {
+        return other;
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.junit.Assert.fail;
+
+public final class RateLimitedPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+
+  @Test public void burstIsAllowedThenRejected() throws IOException {
+    RateLimiter limiter = new RateLimiter.Builder(1.0)
+        .burst(2)
+        .maxWait(0, TimeUnit.SECONDS)
+        .build();
+    PagerDuty pagerDuty = PagerDuty.rateLimited(delegate, limiter);
+    delegate.enqueueResult(success("one")).enqueueResult(success("two"));
+
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    pagerDuty.notify(new Resolution.Builder("two").build());
+    try {
+      pagerDuty.notify(new Resolution.Builder("three").build());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Rate limit exceeded.");
+    }
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void callerWaitsForPermit() throws IOException {
+    RateLimiter limiter = new RateLimiter.Builder(20.0).burst(1).build();
+    PagerDuty pagerDuty = PagerDuty.rateLimited(delegate, limiter);
+    delegate.enqueueResult(success("one")).enqueueResult(success("two"));
+
+    long start = System.nanoTime();
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    pagerDuty.notify(new Resolution.Builder("two").build());
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+        .isGreaterThanOrEqualTo(40L);
+  }
+
+  @Test public void waitLongerThanMaxWaitIsRejected() throws Exception {
+    RateLimiter limiter = new RateLimiter.Builder(1.0)
+        .burst(1)
+        .maxWait(100, TimeUnit.MILLISECONDS)
+        .build();
+    PagerDuty pagerDuty = PagerDuty.rateLimited(delegate, limiter);
+    delegate.enqueueResult(success("one"));
+
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Resolution.Builder("two").build(), callback);
+    assertThat(callback.takeFailure()).isInstanceOf(NotifyRejectedException.class);
+  }
+
+  @Test public void bucketsArePerServiceKey() throws IOException {
+    RateLimiter limiter = new RateLimiter.Builder(1.0)
+        .burst(1)
+        .maxWait(0, TimeUnit.SECONDS)
+        .build();
+    PagerDuty one = PagerDuty.rateLimited(new KeyedPagerDuty("key-one", delegate), limiter);
+    PagerDuty two = PagerDuty.rateLimited(new KeyedPagerDuty("key-two", delegate), limiter);
+    delegate.enqueueResult(success("one")).enqueueResult(success("two"));
+
+    one.notify(new Resolution.Builder("one").build());
+    two.notify(new Resolution.Builder("two").build());
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void throttlingShrinksTheBucket() throws IOException {
+    RateLimiter limiter = new RateLimiter.Builder(1000.0).build();
+    PagerDuty pagerDuty = PagerDuty.rateLimited(delegate, limiter);
+    delegate.enqueueResult(error(429, "one"));
+
+    pagerDuty.notify(new Resolution.Builder("one").build());
+    assertThat(limiter.permitsPerSecond(null)).isEqualTo(500.0, offset(0.01));
+  }
+
+  @Test public void acceptedRequestsRestoreTheRate() {
+    RateLimiter.TokenBucket bucket =
+        new RateLimiter.TokenBucket(TimeUnit.MILLISECONDS.toNanos(1), 1, 0L);
+    bucket.onThrottled(0L, 0L);
+    bucket.onThrottled(0L, 0L);
+    assertThat(bucket.permitsPerSecond()).isEqualTo(250.0, offset(0.01));
+
+    for (int i = 0; i < 20; i++) {
+      bucket.onAccepted();
+    }
+    assertThat(bucket.permitsPerSecond()).isEqualTo(1000.0, offset(0.01));
+  }
+
+  @Test public void retryAfterEmptiesTheBucket() {
+    long interval = TimeUnit.MILLISECONDS.toNanos(1);
+    RateLimiter.TokenBucket bucket = new RateLimiter.TokenBucket(interval, 1, 0L);
+    bucket.onThrottled(TimeUnit.SECONDS.toNanos(5), 0L);
+
+    assertThat(bucket.reserve(0L, 0L)).isEqualTo(-1L);
+    assertThat(bucket.reserve(Long.MAX_VALUE, 0L))
+        .isEqualTo(TimeUnit.SECONDS.toNanos(5));
+  }
+
+  /** Reports a fixed service key so that rate limits can be partitioned. */
+  static final class KeyedPagerDuty extends PagerDuty {
+    private final String serviceKey;
+    private final PagerDuty delegate;
+
+    KeyedPagerDuty(String serviceKey, PagerDuty delegate) {
+      this.serviceKey = serviceKey;
+      this.delegate = delegate;
+    }
+
+    @Override String serviceKey() {
+      return serviceKey;
+    }
+
+    @Override public NotifyResult notify(Trigger trigger) throws IOException {
+      return delegate.notify(trigger);
+    }
+
+    @Override public NotifyResult notify(Resolution resolution) throws IOException {
+      return delegate.notify(resolution);
+    }
+  }
+}
@@ -17,18 +17,27 @@ package com.squareup.pagerduty.incidents;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.mock.Calls;
 
 final class RecordingEventService implements EventService {
-  private final Deque<Event> events = new ArrayDeque<>();
+  private final Deque<PagerDutyConverterFactory.EventRequestBody> bodies = new ArrayDeque<>();
 
-  @Override public Call<NotifyResult> notify(Event event) {
-    events.add(event);
+  @Override public Call<NotifyResult> notify(RequestBody body) {
+    bodies.add((PagerDutyConverterFactory.EventRequestBody) body);
     return Calls.response((NotifyResult) null);
   }
 
+  public PagerDutyConverterFactory.EventRequestBody takeBody() {
+    return bodies.removeFirst();
+  }
+
+  /** Returns the next event sent, as PagerDuty would see it: with the API key attached. */
   public Event takeEvent() {
-    return events.removeFirst();
+    PagerDutyConverterFactory.EventRequestBody body = takeBody();
+    Event event = body.event;
+    return new Event(body.serviceKey, event.incident_key, event.event_type, event.description,
+        event.client, event.client_url, event.details);
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+final class RecordingNotifyCallback implements NotifyCallback {
+  private static final NotifyResult NULL_RESULT = new NotifyResult(null, null, null);
+
+  private final BlockingQueue<Object> outcomes = new LinkedBlockingQueue<>();
+
+  @Override public void onResult(NotifyResult result) {
+    outcomes.add(result != null ? result : NULL_RESULT);
+  }
+
+  @Override public void onFailure(Throwable t) {
+    outcomes.add(t);
+  }
+
+  public NotifyResult takeResult() throws InterruptedException {
+    Object outcome = take();
+    if (!(outcome instanceof NotifyResult)) {
+      throw new AssertionError("Expected a result but was " + outcome);
+    }
+    return outcome == NULL_RESULT ? null : (NotifyResult) outcome;
+  }
+
+  public Throwable takeFailure() throws InterruptedException {
+    Object outcome = take();
+    if (!(outcome instanceof Throwable)) {
+      throw new AssertionError("Expected a failure but was " + outcome);
+    }
+    return (Throwable) outcome;
+  }
+
+  private Object take() throws InterruptedException {
+    Object outcome = outcomes.poll(5, TimeUnit.SECONDS);
+    if (outcome == null) {
+      throw new AssertionError("Timed out waiting for callback.");
+    }
+    return outcome;
+  }
+}
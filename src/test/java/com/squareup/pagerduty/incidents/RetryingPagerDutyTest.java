@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.error;
+import static com.squareup.pagerduty.incidents.ScriptedPagerDuty.success;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public final class RetryingPagerDutyTest {
+  private final ScriptedPagerDuty delegate = new ScriptedPagerDuty();
+  private final RetryPolicy policy = new RetryPolicy.Builder()
+      .baseDelay(1, TimeUnit.MILLISECONDS)
+      .build();
+  private final PagerDuty pagerDuty = PagerDuty.retrying(delegate, policy);
+
+  @Test public void retriesServerErrorsForKeyedTrigger() throws IOException {
+    delegate.enqueueResult(error(503, "ouch"))
+        .enqueueResult(error(500, "ouch"))
+        .enqueueResult(success("ouch"));
+
+    NotifyResult result =
+        pagerDuty.notify(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build());
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(delegate.events()).hasSize(3);
+  }
+
+  @Test public void serverErrorsForKeylessTriggerAreNotRetried() throws IOException {
+    delegate.enqueueResult(error(503, null));
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.code).isEqualTo(503);
+    assertThat(delegate.events()).hasSize(1);
+  }
+
+  @Test public void throttledKeylessTriggerIsRetried() throws IOException {
+    delegate.enqueueResult(error(429, null)).enqueueResult(success("generated"));
+
+    NotifyResult result = pagerDuty.notify(new Trigger.Builder("Paper cut").build());
+    assertThat(result.incidentKey()).isEqualTo("generated");
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void invalidEventIsNotRetried() throws IOException {
+    delegate.enqueueResult(error(400, "ouch"));
+
+    NotifyResult result = pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(result.code).isEqualTo(400);
+    assertThat(delegate.events()).hasSize(1);
+  }
+
+  @Test public void ioExceptionForResolutionIsRetried() throws IOException {
+    delegate.enqueueFailure(new IOException("Connection reset")).enqueueResult(success("ouch"));
+
+    NotifyResult result = pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(result.status()).isEqualTo("success");
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void rejectedEventIsNotRetried() throws IOException {
+    delegate.enqueueFailure(new NotifyRejectedException("Dispatch queue is full."));
+
+    try {
+      pagerDuty.notify(new Resolution.Builder("ouch").build());
+      fail();
+    } catch (NotifyRejectedException e) {
+      assertThat(e).hasMessage("Dispatch queue is full.");
+    }
+    assertThat(delegate.events()).hasSize(1);
+  }
+
+  @Test public void givesUpAfterMaxRetries() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.retrying(delegate, new RetryPolicy.Builder()
+        .baseDelay(1, TimeUnit.MILLISECONDS)
+        .maxRetries(2)
+        .build());
+    delegate.enqueueFailure(new IOException("one"))
+        .enqueueFailure(new IOException("two"))
+        .enqueueFailure(new IOException("three"));
+
+    try {
+      pagerDuty.notify(new Resolution.Builder("ouch").build());
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("three");
+    }
+    assertThat(delegate.events()).hasSize(3);
+  }
+
+  @Test public void retryAfterIsHonored() throws IOException {
+    delegate.enqueueResult(new NotifyResult("throttled", null, null, null, 429, 20L))
+        .enqueueResult(success("ouch"));
+
+    long start = System.nanoTime();
+    pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(20);
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void retryAfterBeyondMaxDelayIsNotRetried() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.retrying(delegate, new RetryPolicy.Builder()
+        .maxDelay(1, TimeUnit.SECONDS)
+        .build());
+    delegate.enqueueResult(new NotifyResult("throttled", null, null, null, 429, 60000L));
+
+    NotifyResult result = pagerDuty.notify(new Resolution.Builder("ouch").build());
+    assertThat(result.code).isEqualTo(429);
+    assertThat(delegate.events()).hasSize(1);
+  }
+
+  @Test public void budgetLimitsRetries() throws IOException {
+    PagerDuty pagerDuty = PagerDuty.retrying(delegate, new RetryPolicy.Builder()
+        .baseDelay(1, TimeUnit.MILLISECONDS)
+        .retryBudget(0.0, 1)
+        .build());
+    delegate.enqueueResult(error(503, "one"))
+        .enqueueResult(success("one"))
+        .enqueueResult(error(503, "two"));
+
+    assertThat(pagerDuty.notify(new Resolution.Builder("one").build()).status())
+        .isEqualTo("success");
+    assertThat(pagerDuty.notify(new Resolution.Builder("two").build()).code).isEqualTo(503);
+    assertThat(delegate.events()).hasSize(3);
+  }
+
+  @Test public void asyncRetries() throws InterruptedException {
+    delegate.enqueueFailure(new IOException("Connection reset")).enqueueResult(success("ouch"));
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build(),
+        callback);
+    assertThat(callback.takeResult().status()).isEqualTo("success");
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void throwingListenerDoesNotStopAsyncRetries() throws InterruptedException {
+    PagerDuty pagerDuty = PagerDuty.retrying(delegate, new RetryPolicy.Builder()
+        .baseDelay(1, TimeUnit.MILLISECONDS)
+        .listener(new NotifyListener() {
+          @Override public void retryScheduled(String eventType, String incidentKey, int retry,
+              long delayMillis) {
+            throw new IllegalStateException("boom");
+          }
+        })
+        .build());
+    delegate.enqueueFailure(new IOException("Connection reset")).enqueueResult(success("ouch"));
+
+    RecordingNotifyCallback callback = new RecordingNotifyCallback();
+    pagerDuty.notifyAsync(new Trigger.Builder("Paper cut").withIncidentKey("ouch").build(),
+        callback);
+    assertThat(callback.takeResult().status()).isEqualTo("success");
+    assertThat(delegate.events()).hasSize(2);
+  }
+
+  @Test public void fullJitterStaysWithinExponentialBound() {
+    RetryPolicy policy = new RetryPolicy.Builder()
+        .baseDelay(100, TimeUnit.MILLISECONDS)
+        .maxDelay(1, TimeUnit.SECONDS)
+        .build();
+    Random random = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.delayMillis(0, null, random)).isBetween(0L, 100L);
+      assertThat(policy.delayMillis(2, null, random)).isBetween(0L, 400L);
+      assertThat(policy.delayMillis(62, null, random)).isBetween(0L, 1000L);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/** Answers each notification with the next scripted outcome and records the events it saw. */
+final class ScriptedPagerDuty extends PagerDuty {
+  private final Deque<Object> outcomes = new LinkedList<>(); // Permits null results.
+  private final List<Event> events = new ArrayList<>();
+
+  synchronized ScriptedPagerDuty enqueueResult(NotifyResult result) {
+    outcomes.add(result);
+    return this;
+  }
+
+  synchronized ScriptedPagerDuty enqueueFailure(IOException failure) {
+    outcomes.add(failure);
+    return this;
+  }
+
+  @Override public NotifyResult notify(Trigger trigger) throws IOException {
+    return next(trigger);
+  }
+
+  @Override public NotifyResult notify(Resolution resolution) throws IOException {
+    return next(resolution);
+  }
+
+  private synchronized NotifyResult next(Event event) throws IOException {
+    events.add(event);
+    Object outcome = outcomes.removeFirst();
+    if (outcome instanceof IOException) {
+      throw (IOException) outcome;
+    }
+    return (NotifyResult) outcome;
+  }
+
+  synchronized List<Event> events() {
+    return new ArrayList<>(events);
+  }
+
+  static NotifyResult success(String incidentKey) {
+    return new NotifyResult("success", "Event processed", incidentKey);
+  }
+
+  static NotifyResult error(int code, String incidentKey) {
+    return new NotifyResult("error", "HTTP " + code, incidentKey, null, code, 0L);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.pagerduty.incidents;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okio.Buffer;
+import org.junit.Test;
+
+import static com.squareup.pagerduty.incidents.EventAssert.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+import static org.junit.Assert.fail;
+
+public final class TriggerTemplateTest {
+  private final TriggerTemplate template = new Trigger.Builder("Ignored")
+      .withIncidentKey("ignored")
+      .client("Disk Monitor")
+      .clientUrl("https://monitoring.service.com")
+      .addDetails("host", "srv01")
+      .addDetails("mount", "/var")
+      .buildTemplate();
+
+  @Test public void createsTriggers() {
+    Trigger trigger = template.trigger("Disk full", "disk-full/var");
+    assertThat(trigger).hasDescription("Disk full")
+        .hasIncidentKey("disk-full/var")
+        .hasEventType("trigger")
+        .hasDetails(entry("host", "srv01"), entry("mount", "/var"));
+    assertThat(trigger.client).isEqualTo("Disk Monitor");
+    assertThat(trigger.client_url).isEqualTo("https://monitoring.service.com");
+  }
+
+  @Test public void triggersShareDetails() {
+    Trigger one = template.trigger("Disk full", "disk-full/var");
+    Trigger two = template.trigger("Disk full", "disk-full/tmp");
+    assertThat(one.details).isSameAs(two.details);
+  }
+
+  @Test public void extraDetails() {
+    Trigger trigger = template.trigger("Disk full", "disk-full/var",
+        TestUtil.map("used", "100%"));
+    assertThat(trigger).hasDetails(entry("host", "srv01"), entry("mount", "/var"),
+        entry("used", "100%"));
+  }
+
+  @Test public void extraDetailsReplaceShared() {
+    Trigger trigger = template.trigger("Disk full", "disk-full/tmp",
+        TestUtil.map("mount", "/tmp"));
+    assertThat(trigger).hasDetails(entry("host", "srv01"), entry("mount", "/tmp"));
+    assertThat(trigger.template).isNull();
+  }
+
+  @Test public void descriptionIsValidated() {
+    try {
+      template.trigger("  ");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'description' must not be blank. Was: '  '");
+    }
+  }
+
+  @Test public void encodingMatchesGenericEncoding() throws IOException {
+    TriggerTemplate bare = new Trigger.Builder("Ignored").buildTemplate();
+    TriggerTemplate escaped = new Trigger.Builder("Ignored")
+        .client("\"Quoted\"  ")
+        .addDetails("gone", null)
+        .addDetails("café", "💩\n")
+        .buildTemplate();
+    Map<String, String> extra = new LinkedHashMap<>();
+    extra.put("nothing", null);
+    extra.put("used", "100%");
+
+    for (TriggerTemplate template : new TriggerTemplate[] {this.template, bare, escaped}) {
+      assertEncodingMatches(template.trigger("Disk full"));
+      assertEncodingMatches(template.trigger("Disk \"full\"", "disk-full/var"));
+      assertEncodingMatches(template.trigger("Disk full", "disk-full/var", extra));
+      assertEncodingMatches(template.trigger("Disk full", "disk-full/var",
+          Collections.singletonMap("nothing", (String) null)));
+      assertEncodingMatches(template.trigger("Disk full", "disk-full/tmp",
+          TestUtil.map("mount", "/tmp")));
+    }
+  }
+
+  private static void assertEncodingMatches(Trigger trigger) throws IOException {
+    Event generic = new Event(null, trigger.incident_key, trigger.event_type, trigger.description,
+        trigger.client, trigger.client_url, trigger.details);
+    for (String serviceKey : new String[] {null, "123456", "abcdef", "123456"}) {
+      Buffer expected = new Buffer();
+      EventJson.write(serviceKey, generic, expected);
+      Buffer actual = new Buffer();
+      EventJson.write(serviceKey, trigger, actual);
+      assertThat(EventJson.byteCount(serviceKey, trigger)).isEqualTo(expected.size());
+      assertThat(actual.readUtf8()).isEqualTo(expected.readUtf8());
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.squareup.pagerduty.incidents;
 
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -87,4 +88,21 @@ public final class TriggerTest {
       assertThat(e).hasMessage("details");
     }
   }
+
+  @Test public void autoResolveAfterMustBePositive() {
+    try {
+      new Trigger.Builder("Description").autoResolveAfter(0, TimeUnit.MINUTES);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("'quietPeriod' must be positive. Was: 0");
+    }
+  }
+
+  @Test public void templateTriggersAutoResolve() {
+    Trigger trigger = new Trigger.Builder("Description")
+        .autoResolveAfter(5, TimeUnit.MINUTES)
+        .buildTemplate()
+        .trigger("Disk full", "disk");
+    assertThat(trigger.autoResolveNanos).isEqualTo(TimeUnit.MINUTES.toNanos(5));
+  }
 }